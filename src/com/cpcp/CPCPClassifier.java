@@ -1,16 +1,36 @@
 package com.cpcp;
 
+import com.cpcp.concurrent.AsyncExecutors;
 import com.cpcp.document.Document;
 import com.cpcp.features.FeatureSetGenerator;
 import com.cpcp.features.NGram;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base classifier functionality for a Cal PolyClassification Package classifier.
+ *
+ * Classifiers are expected to be shared between threads.
+ * classify() should be safe to call from any number of threads, even while train() is running.
+ * The usual way to get this is to build everything that training produces into an immutable
+ *  snapshot and publish it with a single volatile write at the end of train(),
+ *  then have classification read that field once per call.
+ * Since classification parses documents, this also requires the FeatureSetGenerator's
+ *  parseFeatures() to be thread-safe.
  */
 public abstract class CPCPClassifier<E extends Document> {
+   /**
+    * The model version of classifiers that don't keep track of one, see getModelVersion().
+    */
+   public static final long UNVERSIONED = -1;
+
    /**
     * The possible possibleClasses for documents.
     */
@@ -18,9 +38,24 @@ public abstract class CPCPClassifier<E extends Document> {
 
    protected FeatureSetGenerator<E> fsg;
 
+   private volatile Executor asyncExecutor;
+
    public CPCPClassifier(List<String> possibleClasses, FeatureSetGenerator<E> fsg) {
       this.possibleClasses = new ArrayList<String>(possibleClasses);
       this.fsg = fsg;
+      this.asyncExecutor = AsyncExecutors.defaultExecutor();
+   }
+
+   /**
+    * Get the classes that this classifier can predict.
+    * The order of this list is the class index order used throughout the classifier.
+    */
+   public List<String> getPossibleClasses() {
+      return Collections.unmodifiableList(possibleClasses);
+   }
+
+   public FeatureSetGenerator<E> getFeatureSetGenerator() {
+      return fsg;
    }
 
    /**
@@ -60,6 +95,121 @@ public abstract class CPCPClassifier<E extends Document> {
     */
    public abstract ClassificationResult classify(E document);
 
+   /**
+    * Classify a single document and keep the probability of every class.
+    * This allocates one distribution per call, use classifyDistribution() to avoid that.
+    */
+   public ClassificationResult classifyWithDistribution(E document) {
+      double[] distribution = new double[possibleClasses.size()];
+      int classIndex = classifyDistributionImpl(document, distribution, 0);
+      if (classIndex < 0) {
+         return new ClassificationResult(null, -1);
+      }
+
+      return new ClassificationResult(possibleClasses.get(classIndex), classIndex, distribution);
+   }
+
+   /**
+    * Classify a single document into a caller supplied buffer.
+    *
+    * @param distribution Gets the probability of each class in getPossibleClasses() order.
+    *
+    * @return The index of the chosen class, or -1 if classification failed.
+    *
+    * @.pre distribution.length >= getPossibleClasses().size().
+    */
+   public int classifyDistribution(E document, double[] distribution) {
+      return classifyDistributionImpl(document, distribution, 0);
+   }
+
+   /**
+    * Classify many documents into caller supplied buffers.
+    * The buffers can be reused between batches, so a batch does not allocate per document.
+    *
+    * @param distributions Gets one row of getPossibleClasses().size() probabilities per document,
+    *  one after the other.
+    * @param classIndexes Gets the index of the chosen class for each document.
+    *
+    * @.pre distributions.length >= documents.size() * getPossibleClasses().size().
+    * @.pre classIndexes.length >= documents.size().
+    */
+   public void classifyDistributions(List<E> documents,
+                                     double[] distributions, int[] classIndexes) {
+      int numClasses = possibleClasses.size();
+
+      for (int i = 0; i < documents.size(); i++) {
+         classIndexes[i] =
+               classifyDistributionImpl(documents.get(i), distributions, i * numClasses);
+      }
+   }
+
+   /**
+    * The real implementation for classifying into a distribution.
+    * The default just uses classify() and puts all the probability on the chosen class,
+    *  classifiers that have a real distribution should override this.
+    *
+    * @param offset Where in |distribution| this document's probabilities start.
+    *
+    * @return The index of the chosen class, or -1 if classification failed.
+    */
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      int classIndex = possibleClasses.indexOf(classify(document).getClassValue());
+
+      Arrays.fill(distribution, offset, offset + possibleClasses.size(), 0);
+      if (classIndex >= 0) {
+         distribution[offset + classIndex] = 1;
+      }
+
+      return classIndex;
+   }
+
+   /**
+    * Set the executor that classifyAsync() runs on.
+    * See AsyncExecutors for the common choices, including virtual threads.
+    * The default is AsyncExecutors.defaultExecutor().
+    */
+   public void setAsyncExecutor(Executor asyncExecutor) {
+      this.asyncExecutor = asyncExecutor;
+   }
+
+   public Executor getAsyncExecutor() {
+      return asyncExecutor;
+   }
+
+   /**
+    * Classify a single document on the async executor.
+    * Cancelling the future before the classification starts skips it.
+    */
+   public CompletableFuture<ClassificationResult> classifyAsync(final E document) {
+      return CompletableFuture.supplyAsync(() -> classify(document), asyncExecutor);
+   }
+
+   /**
+    * Classify a single document on the async executor, giving up after a timeout.
+    * When the timeout passes, the future fails with a TimeoutException.
+    */
+   public CompletableFuture<ClassificationResult> classifyAsync(E document,
+                                                                long timeout, TimeUnit unit) {
+      return AsyncExecutors.withTimeout(classifyAsync(document), timeout, unit);
+   }
+
+   /**
+    * Classify many documents as one batch on the async executor.
+    * Cancelling the future before the classification starts skips it.
+    */
+   public CompletableFuture<List<ClassificationResult>> classifyAsync(final List<E> documents) {
+      return CompletableFuture.supplyAsync(() -> classify(documents), asyncExecutor);
+   }
+
+   /**
+    * Classify many documents as one batch on the async executor, giving up after a timeout.
+    */
+   public CompletableFuture<List<ClassificationResult>> classifyAsync(List<E> documents,
+                                                                      long timeout,
+                                                                      TimeUnit unit) {
+      return AsyncExecutors.withTimeout(classifyAsync(documents), timeout, unit);
+   }
+
    /**
     * Train the classifier with the given training set, and use the given
     *  feature set reducer to reduce the feature space.
@@ -71,4 +221,71 @@ public abstract class CPCPClassifier<E extends Document> {
     * @.pre documents.size() == classes.size().
     */
    public abstract void train(List<E> documents, List<String> classes);
+
+   /**
+    * Train on a training set that was already parsed.
+    * This lets a wrapper that parses the training set anyway (like NearDuplicateClassifier)
+    *  not have it parsed a second time.
+    * The default ignores |featureSets|, classifiers that parse the training set with
+    *  parseFeatures() should override this.
+    *
+    * @param featureSets The output of the classifier's FeatureSetGenerator (or an equivalent
+    *  one) for each document.
+    *
+    * @.pre documents.size() == classes.size() == featureSets.size().
+    */
+   public void train(List<E> documents, List<String> classes, List<Set<String>> featureSets) {
+      train(documents, classes);
+   }
+
+   /**
+    * Get a number that changes whenever the results of classification may change, like when
+    *  a new model is published. Wrappers that remember results (see MemoizingClassifier)
+    *  only have to forget them when this changes.
+    * The default is UNVERSIONED, for classifiers that don't keep track.
+    */
+   public long getModelVersion() {
+      return UNVERSIONED;
+   }
+
+   /**
+    * Check if this classifier can learn from new examples without retraining from scratch.
+    */
+   public boolean isUpdateable() {
+      return false;
+   }
+
+   /**
+    * Incrementally learn from a single new example.
+    * This can be called on a trained classifier to absorb newly labelled documents
+    *  without paying for a full retrain.
+    * Classification may not see the update until the next publish().
+    *
+    * @throws UnsupportedOperationException If the classifier is not updateable.
+    */
+   public void update(E document, String classValue) {
+      throw new UnsupportedOperationException(
+            getClass().getName() + " does not support incremental updates.");
+   }
+
+   /**
+    * Incrementally learn from a batch of new examples.
+    * Classifiers that have a cheaper way to absorb many examples at once should override this.
+    *
+    * @.pre documents.size() == classes.size().
+    */
+   public void update(List<E> documents, List<String> classes) {
+      for (int i = 0; i < documents.size(); i++) {
+         update(documents.get(i), classes.get(i));
+      }
+   }
+
+   /**
+    * Make every update so far visible to classification.
+    * Updateable classifiers that keep a separate model for classification also publish on
+    *  their own every so often (see their setPublishInterval()), this forces it.
+    * The default does nothing, for classifiers whose updates are visible right away.
+    */
+   public void publish() {
+   }
 }
@@ -2,15 +2,35 @@ package com.cpcp;
 
 /**
  * The result of a classification.
- * Currently, just a wrapper around a confidence and class value.
+ * At the least, a class value and a confidence.
+ * Results that come from CPCPClassifier.classifyWithDistribution() also carry the index
+ *  of the class and the probability of every possible class.
  */
 public class ClassificationResult {
    private final String classValue;
    private final double confidence;
+   private final int classIndex;
+   private final double[] distribution;
 
    public ClassificationResult(String classValue, double confidence) {
       this.classValue = classValue;
       this.confidence = confidence;
+      this.classIndex = -1;
+      this.distribution = null;
+   }
+
+   /**
+    * The confidence is the probability of the chosen class.
+    * |distribution| is not copied, so don't reuse it while the result is still in use.
+    *
+    * @param distribution The probability of each class in CPCPClassifier.getPossibleClasses()
+    *  order.
+    */
+   public ClassificationResult(String classValue, int classIndex, double[] distribution) {
+      this.classValue = classValue;
+      this.confidence = distribution[classIndex];
+      this.classIndex = classIndex;
+      this.distribution = distribution;
    }
 
    public String getClassValue() {
@@ -20,4 +40,27 @@ public class ClassificationResult {
    public double getConfidence() {
       return confidence;
    }
+
+   /**
+    * Get the index of the class in CPCPClassifier.getPossibleClasses().
+    *
+    * @return The class index, or -1 if this result does not have one.
+    */
+   public int getClassIndex() {
+      return classIndex;
+   }
+
+   public boolean hasDistribution() {
+      return distribution != null;
+   }
+
+   /**
+    * Get the probability of each class, in CPCPClassifier.getPossibleClasses() order.
+    * This is not a copy, so don't modify it.
+    *
+    * @return The distribution, or null if this result does not have one.
+    */
+   public double[] getDistribution() {
+      return distribution;
+   }
 }
@@ -0,0 +1,18 @@
+package com.cpcp;
+
+import java.util.Set;
+
+/**
+ * A classifier that can classify features that were already parsed out of a document.
+ * This lets several classifiers that use equivalent FeatureSetGenerators share one parse,
+ *  see MultiModelScorer.
+ */
+public interface FeatureClassifier {
+   /**
+    * Classify a document by its features.
+    *
+    * @param features The output of the classifier's FeatureSetGenerator (or an equivalent one)
+    *  for the document.
+    */
+   ClassificationResult classifyFeatures(Set<String> features);
+}
@@ -0,0 +1,862 @@
+package com.cpcp.bayes;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureDictionary;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.GrowingFeatureDictionary;
+import com.cpcp.io.ModelIO;
+import com.cpcp.io.PersistentClassifier;
+import com.cpcp.linear.LinearModel;
+import com.cpcp.linear.LinearModelSource;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.Profiler;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A native Naive Bayes classifier.
+ * Unlike wrapping weka.classifiers.bayes.NaiveBayes in a GeneralWekaClassifier,
+ *  this works directly on feature ids and keeps the model in one flat weight array per class.
+ *
+ * Since features are sets, the multinomial model counts each feature at most once per document.
+ * Both models are linear in the document's features, so a document's score for a class is just
+ *  the class bias plus the weights of the features that the document has.
+ *
+ * The trained model is an immutable Snapshot that train() publishes with one volatile write,
+ *  so classify() is lock-free and safe from any number of threads.
+ *
+ * The classifier is updateable.
+ * update() adds a document to the raw counts in time proportional to the document's size,
+ *  growing the vocabulary if it has new features.
+ * Classification does not see the new counts until they are published, either by publish()
+ *  or after every setPublishInterval() updates. Publishing happens on the updating thread,
+ *  so classification never waits on it. It only recomputes the weights of the classes that
+ *  were updated, the other classes' weights are shared with the last snapshot.
+ *  The vocabulary grows in place (see GrowingFeatureDictionary), and a class's weights can be
+ *  shorter than the vocabulary: features past the end have the weight of an unseen feature.
+ *  For that to hold, the multinomial normalizer (which depends on the vocabulary size) is
+ *  applied once per matched feature at classification time instead of being folded into
+ *  the weights.
+ */
+public class NaiveBayesClassifier<E extends Document> extends CPCPClassifier<E>
+                                                   implements PersistentClassifier,
+                                                              LinearModelSource,
+                                                              FeatureClassifier {
+   /**
+    * The event models that are supported.
+    */
+   public enum Model {
+      MULTINOMIAL,
+      BERNOULLI
+   }
+
+   private static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+
+   private final Model model;
+
+   /**
+    * The additive (Laplace/Lidstone) smoothing.
+    */
+   private final double alpha;
+
+   private final int numThreads;
+
+   private final Map<String, Integer> classIndexes;
+
+   /**
+    * The current published model, null until the first train() or publish().
+    */
+   private volatile Snapshot snapshot;
+
+   /**
+    * Bumped every time |snapshot| is replaced, see getModelVersion().
+    */
+   private volatile long modelVersion;
+
+   /**
+    * The raw counts behind the snapshot, guarded by |countsLock| (like the fields below).
+    * These are kept so that the classifier can be updated.
+    * Null for a loaded model, since only the log-probabilities are saved.
+    */
+   private Counts counts;
+
+   /**
+    * The classes whose counts changed since |snapshot| was built.
+    */
+   private final boolean[] dirtyClasses;
+
+   /**
+    * The number of updates since |snapshot| was built.
+    */
+   private int unpublished;
+
+   private int publishInterval;
+
+   /**
+    * The updates that arrived while train() is running, to replay onto the new counts.
+    * Null when train() is not running.
+    */
+   private List<Update> trainingUpdates;
+
+   private final Object countsLock;
+
+   /**
+    * Scratch space for class scores so that classification does not allocate.
+    */
+   private final ThreadLocal<double[]> scoreBuffer;
+
+   public NaiveBayesClassifier(Model model,
+                               FeatureSetGenerator<E> fsg,
+                               List<String> possibleClasses) {
+      this(model, 1.0, ParallelUtils.defaultThreads(), fsg, possibleClasses);
+   }
+
+   /**
+    * Construct a NaiveBayesClassifier.
+    *
+    * @param alpha The additive smoothing to use on all counts.
+    * @param numThreads The number of threads to use for training.
+    */
+   public NaiveBayesClassifier(Model model, double alpha, int numThreads,
+                               FeatureSetGenerator<E> fsg,
+                               List<String> possibleClasses) {
+      super(possibleClasses, fsg);
+
+      this.model = model;
+      this.alpha = alpha;
+      this.numThreads = numThreads;
+
+      classIndexes = new HashMap<String, Integer>();
+      for (int i = 0; i < this.possibleClasses.size(); i++) {
+         classIndexes.put(this.possibleClasses.get(i), i);
+      }
+
+      final int numClasses = this.possibleClasses.size();
+      scoreBuffer = new ThreadLocal<double[]>() {
+         protected double[] initialValue() {
+            return new double[numClasses];
+         }
+      };
+
+      snapshot = null;
+      counts = Counts.forFeatureSpace(new ArrayList<String>(), numClasses);
+      dirtyClasses = new boolean[numClasses];
+      unpublished = 0;
+      publishInterval = DEFAULT_PUBLISH_INTERVAL;
+      trainingUpdates = null;
+      countsLock = new Object();
+   }
+
+   /**
+    * Set how many updates are absorbed before they are published automatically.
+    * Call publish() to publish right away.
+    */
+   public void setPublishInterval(int publishInterval) {
+      if (publishInterval < 1) {
+         throw new IllegalArgumentException("The publish interval must be positive.");
+      }
+
+      synchronized (countsLock) {
+         this.publishInterval = publishInterval;
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * The documents are parsed and counted in a single pass that is split across the training
+    *  threads, each worker counting into its own vocabulary.
+    * The feature space then comes from the FeatureSetGenerator (reusing the parsed features),
+    *  and the workers' counts for the features in it are merged.
+    * The new model replaces the old one only once it is complete.
+    * Updates that happen while training runs are replayed onto the new model.
+    */
+   public void train(List<E> documents, List<String> classes) {
+      train(documents, classes, null);
+   }
+
+   /**
+    * @inheritDoc
+    * See train(List, List).
+    *
+    * @param featureSets Null to parse the documents while counting them.
+    */
+   @Override
+   public synchronized void train(List<E> documents, List<String> classes,
+                                  List<Set<String>> featureSets) {
+      synchronized (countsLock) {
+         trainingUpdates = new ArrayList<Update>();
+      }
+
+      try {
+         trainCounts(documents, classes, featureSets);
+      } finally {
+         synchronized (countsLock) {
+            trainingUpdates = null;
+         }
+      }
+   }
+
+   private void trainCounts(final List<E> documents, final List<String> classes,
+                            final List<Set<String>> parsed) {
+      final int numClasses = possibleClasses.size();
+
+      final int[] classLookup = new int[classes.size()];
+      for (int i = 0; i < classes.size(); i++) {
+         classLookup[i] = classIndex(classes.get(i));
+      }
+
+      // Filled in place by the workers, each one only sets its own range.
+      final List<Set<String>> featureSets = new ArrayList<Set<String>>(
+            Collections.<Set<String>>nCopies(documents.size(), null));
+
+      int numWorkers = ParallelUtils.numWorkers(documents.size(), numThreads);
+      // Each worker gets its own counts so there is no contention, they are merged after.
+      final Counts[] workerCounts = new Counts[numWorkers];
+
+      ParallelUtils.forRanges(documents.size(), numThreads, new ParallelUtils.RangeTask() {
+         public void run(int worker, int start, int end) {
+            Counts local = Counts.forFeatureSpace(new ArrayList<String>(), numClasses);
+
+            // Profiled per range, not per document, parsing dominates the counting.
+            Profiler.Scope scope = Profiler.enter(Profiler.Phase.FILTER);
+            try {
+               for (int ndx = start; ndx < end; ndx++) {
+                  Set<String> features = (parsed == null) ?
+                                         fsg.parseFeatures(documents.get(ndx)) : parsed.get(ndx);
+                  featureSets.set(ndx, features);
+                  local.add(features, classLookup[ndx], true);
+               }
+            } finally {
+               scope.close();
+            }
+
+            workerCounts[worker] = local;
+         }
+      });
+
+      Counts newCounts;
+      Profiler.Scope scope = Profiler.enter(Profiler.Phase.FEATURE_SPACE);
+      try {
+         Set<String> featureSpace = fsg.getFeatureSpace(documents, classes, featureSets);
+         newCounts = Counts.forFeatureSpace(featureSpace, numClasses);
+
+         for (Counts local : workerCounts) {
+            newCounts.addMapped(local);
+         }
+      } finally {
+         scope.close();
+      }
+
+      Snapshot newSnapshot = buildSnapshot(newCounts, null);
+
+      synchronized (countsLock) {
+         counts = newCounts;
+         snapshot = newSnapshot;
+         modelVersion++;
+         Arrays.fill(dirtyClasses, false);
+         unpublished = 0;
+
+         for (Update update : trainingUpdates) {
+            counts.add(update.features, update.classIndex, true);
+            markUpdated(update.classIndex);
+         }
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * This changes when a model is trained or published.
+    */
+   @Override
+   public long getModelVersion() {
+      return modelVersion;
+   }
+
+   /**
+    * @inheritDoc
+    * Loaded models are not updateable until they are trained again.
+    */
+   public boolean isUpdateable() {
+      synchronized (countsLock) {
+         return counts != null;
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * The document is added to the counts right away, unseen features join the vocabulary.
+    */
+   public void update(E document, String classValue) {
+      Set<String> features = fsg.parseFeatures(document);
+      int classIndex = classIndex(classValue);
+
+      synchronized (countsLock) {
+         checkUpdateable();
+         addUpdate(features, classIndex);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void update(List<E> documents, List<String> classes) {
+      List<Set<String>> featureSets = fsg.parseFeatures(documents);
+
+      int[] classLookup = new int[classes.size()];
+      for (int i = 0; i < classes.size(); i++) {
+         classLookup[i] = classIndex(classes.get(i));
+      }
+
+      synchronized (countsLock) {
+         checkUpdateable();
+         for (int i = 0; i < featureSets.size(); i++) {
+            addUpdate(featureSets.get(i), classLookup[i]);
+         }
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * Rebuilds the log-probabilities of the updated classes from the counts.
+    */
+   public void publish() {
+      synchronized (countsLock) {
+         if (counts != null && unpublished > 0) {
+            publishLocked();
+         }
+      }
+   }
+
+   /**
+    * Must hold |countsLock|.
+    */
+   private void addUpdate(Set<String> features, int classIndex) {
+      counts.add(features, classIndex, true);
+      if (trainingUpdates != null) {
+         trainingUpdates.add(new Update(features, classIndex));
+      }
+
+      markUpdated(classIndex);
+   }
+
+   /**
+    * Must hold |countsLock|.
+    */
+   private void markUpdated(int classIndex) {
+      dirtyClasses[classIndex] = true;
+      unpublished++;
+
+      if (unpublished >= publishInterval) {
+         publishLocked();
+      }
+   }
+
+   /**
+    * Must hold |countsLock|.
+    */
+   private void publishLocked() {
+      snapshot = buildSnapshot(counts, snapshot);
+      modelVersion++;
+      Arrays.fill(dirtyClasses, false);
+      unpublished = 0;
+   }
+
+   /**
+    * @inheritDoc
+    * The confidence is the posterior probability of the chosen class.
+    * Beyond the FeatureSetGenerator's parsing, the only allocation is the result.
+    */
+   public ClassificationResult classify(E document) {
+      return classifyFeatures(fsg.parseFeatures(document));
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classifyFeatures(Set<String> features) {
+      double[] posterior = scoreBuffer.get();
+      int best = posterior(snapshot, features, posterior, 0);
+
+      return new ClassificationResult(possibleClasses.get(best), posterior[best]);
+   }
+
+   /**
+    * @inheritDoc
+    * The distribution is the posterior probability of each class.
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      return posterior(snapshot, fsg.parseFeatures(document), distribution, offset);
+   }
+
+   /**
+    * Compute the posterior probability of every class.
+    *
+    * @param posterior Gets the probabilities starting at |offset|.
+    *
+    * @return The index of the most probable class.
+    */
+   private int posterior(Snapshot current, Set<String> features, double[] posterior, int offset) {
+      assert(current != null);
+
+      int numClasses = current.biases.length;
+      System.arraycopy(current.biases, 0, posterior, offset, numClasses);
+
+      int matched = 0;
+      for (String feature : features) {
+         int id = current.dictionary.indexOf(feature);
+         if (id < 0) {
+            continue;
+         }
+         matched++;
+
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            double[] row = current.rows[classIndex];
+            posterior[offset + classIndex] += (id < row.length) ?
+                                              row[id] : current.unseenWeights[classIndex];
+         }
+      }
+
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         posterior[offset + classIndex] -= matched * current.normalizers[classIndex];
+      }
+
+      int best = 0;
+      for (int classIndex = 1; classIndex < numClasses; classIndex++) {
+         if (posterior[offset + classIndex] > posterior[offset + best]) {
+            best = classIndex;
+         }
+      }
+
+      // Normalize in log space to avoid underflow.
+      double max = posterior[offset + best];
+      double normalizer = 0;
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         posterior[offset + classIndex] = Math.exp(posterior[offset + classIndex] - max);
+         normalizer += posterior[offset + classIndex];
+      }
+
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         posterior[offset + classIndex] /= normalizer;
+      }
+
+      return best;
+   }
+
+   private void checkUpdateable() {
+      if (counts == null) {
+         throw new IllegalStateException(
+               "A loaded model has no counts to update, train it first.");
+      }
+   }
+
+   /**
+    * Turn raw counts into log-probabilities.
+    * The rows of the classes that are not dirty are shared with |previous|, and its
+    *  dictionary grows to take the new features, so publishing costs the dirty classes' rows
+    *  and the new features, not the whole model.
+    *
+    * @param previous The last published snapshot, or null to build everything.
+    */
+   private Snapshot buildSnapshot(Counts source, Snapshot previous) {
+      int numClasses = possibleClasses.size();
+      int numFeatures = source.features.size();
+
+      boolean reuse = previous != null && previous.featureBiases != null &&
+                      previous.dictionary instanceof GrowingFeatureDictionary;
+      int previousFeatures = reuse ? previous.dictionary.size() : 0;
+
+      double[][] rows = new double[numClasses][];
+      double[] unseenWeights = new double[numClasses];
+      double[] normalizers = new double[numClasses];
+      double[] biases = new double[numClasses];
+      double[] featureBiases = new double[numClasses];
+
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         int countsOffset = classIndex * source.capacity;
+         boolean clean = reuse && !dirtyClasses[classIndex];
+
+         if (model == Model.MULTINOMIAL) {
+            // A feature's weight is log(count + alpha) - normalizer, the normalizer is
+            //  subtracted per feature at classification time.
+            unseenWeights[classIndex] = Math.log(alpha);
+            normalizers[classIndex] = Math.log(source.totals[classIndex] + alpha * numFeatures);
+
+            if (clean) {
+               rows[classIndex] = previous.rows[classIndex];
+            } else {
+               double[] row = new double[numFeatures];
+               for (int id = 0; id < numFeatures; id++) {
+                  row[id] = Math.log(source.counts[countsOffset + id] + alpha);
+               }
+               rows[classIndex] = row;
+            }
+         } else {
+            double denominator = source.docCounts[classIndex] + 2 * alpha;
+            double unseen = alpha / denominator;
+            unseenWeights[classIndex] = Math.log(unseen) - Math.log(1 - unseen);
+
+            if (clean) {
+               // The new features were never seen in this class.
+               rows[classIndex] = previous.rows[classIndex];
+               featureBiases[classIndex] = previous.featureBiases[classIndex] +
+                                           (numFeatures - previousFeatures) *
+                                           Math.log(1 - unseen);
+            } else {
+               double[] row = new double[numFeatures];
+               for (int id = 0; id < numFeatures; id++) {
+                  double present = (source.counts[countsOffset + id] + alpha) / denominator;
+
+                  // Every feature starts as absent, and present features swap their
+                  //  contribution.
+                  featureBiases[classIndex] += Math.log(1 - present);
+                  row[id] = Math.log(present) - Math.log(1 - present);
+               }
+               rows[classIndex] = row;
+            }
+         }
+
+         // The priors all change with every document.
+         biases[classIndex] = featureBiases[classIndex] +
+                              Math.log((source.docCounts[classIndex] + alpha) /
+                                       (source.numDocuments + alpha * numClasses));
+      }
+
+      FeatureDictionary dictionary = reuse ?
+            ((GrowingFeatureDictionary)previous.dictionary).grow(source.features) :
+            new GrowingFeatureDictionary(source.features);
+      return new Snapshot(dictionary, rows, unseenWeights, normalizers, biases, featureBiases);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public LinearModel getLinearModel() {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("The classifier is not trained.");
+      }
+
+      return new LinearModel(current.dictionary, current.flatWeights(), current.biases);
+   }
+
+   /**
+    * @inheritDoc
+    * Only the published model is saved, publish() first to include every update.
+    */
+   public void writeModel(ObjectOutputStream out) throws IOException {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("Cannot save an untrained classifier.");
+      }
+
+      out.writeUTF(model.name());
+      out.writeDouble(alpha);
+      ModelIO.writeDictionary(out, current.dictionary);
+      out.writeObject(current.biases);
+      out.writeObject(current.flatWeights());
+   }
+
+   /**
+    * Read a model written by writeModel().
+    * This is meant to be called by ModelIO.
+    * Only the log-probabilities are saved, so a loaded classifier can not be updated
+    *  until it is trained again.
+    */
+   public static <E extends Document> NaiveBayesClassifier<E> readModel(
+         ObjectInputStream in,
+         FeatureSetGenerator<E> fsg,
+         List<String> possibleClasses) throws IOException {
+      Model model;
+      try {
+         model = Model.valueOf(in.readUTF());
+      } catch (IllegalArgumentException ex) {
+         throw new IOException("Unknown Naive Bayes model.", ex);
+      }
+
+      double alpha = in.readDouble();
+      FeatureDictionary dictionary = ModelIO.readDictionary(in);
+      double[] biases = ModelIO.readObject(in, double[].class);
+      double[] weights = ModelIO.readObject(in, double[].class);
+
+      if (biases.length != possibleClasses.size() ||
+          weights.length != possibleClasses.size() * dictionary.size()) {
+         throw new IOException("Corrupt Naive Bayes model.");
+      }
+
+      NaiveBayesClassifier<E> classifier = new NaiveBayesClassifier<E>(
+            model, alpha, ParallelUtils.defaultThreads(), fsg, possibleClasses);
+      classifier.snapshot = Snapshot.fromFlat(dictionary, weights, biases);
+      classifier.counts = null;
+
+      return classifier;
+   }
+
+   private int classIndex(String classValue) {
+      Integer classIndex = classIndexes.get(classValue);
+      if (classIndex == null) {
+         throw new IllegalArgumentException("Unknown class: " + classValue);
+      }
+
+      return classIndex.intValue();
+   }
+
+   public String toString() {
+      return String.format("%s{model=%s;alpha=%f;fsg=%s}",
+                           getClass().getCanonicalName(),
+                           model,
+                           alpha,
+                           fsg.toString());
+   }
+
+   /**
+    * Everything that training produces.
+    * Never modified after construction.
+    */
+   private static class Snapshot {
+      public final FeatureDictionary dictionary;
+
+      /**
+       * Log-probabilities (or for Bernoulli, log-odds) of each feature given each class:
+       *  rows[classIndex][featureId]. Rows are shared between snapshots.
+       * A row can be shorter than the dictionary, the features past its end have the
+       *  class's |unseenWeights|.
+       */
+      public final double[][] rows;
+
+      public final double[] unseenWeights;
+
+      /**
+       * Subtracted from each class's score once for every feature of the document that is
+       *  in the dictionary (the multinomial normalizer), zeros otherwise.
+       */
+      public final double[] normalizers;
+
+      /**
+       * The per-class constant part of the score (log prior and the Bernoulli absent features).
+       */
+      public final double[] biases;
+
+      /**
+       * The part of |biases| that does not come from the prior, null for a loaded model.
+       */
+      public final double[] featureBiases;
+
+      public Snapshot(FeatureDictionary dictionary, double[][] rows, double[] unseenWeights,
+                      double[] normalizers, double[] biases, double[] featureBiases) {
+         this.dictionary = dictionary;
+         this.rows = rows;
+         this.unseenWeights = unseenWeights;
+         this.normalizers = normalizers;
+         this.biases = biases;
+         this.featureBiases = featureBiases;
+      }
+
+      /**
+       * Make a snapshot from class-major weights, like flatWeights() gives.
+       */
+      public static Snapshot fromFlat(FeatureDictionary dictionary, double[] weights,
+                                      double[] biases) {
+         int numClasses = biases.length;
+         int numFeatures = dictionary.size();
+
+         double[][] rows = new double[numClasses][];
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            rows[classIndex] = Arrays.copyOfRange(weights, classIndex * numFeatures,
+                                                  (classIndex + 1) * numFeatures);
+         }
+
+         return new Snapshot(dictionary, rows, new double[numClasses], new double[numClasses],
+                             biases, null);
+      }
+
+      /**
+       * Get the full weight of every feature for every class, with the normalizers folded in.
+       * Class-major: weights[classIndex * dictionary.size() + featureId].
+       * This is O(model), it is for exporting and saving, not classification.
+       *
+       * @throws IllegalArgumentException If the model has more weights than one array
+       *  can hold.
+       */
+      public double[] flatWeights() {
+         int numClasses = rows.length;
+         int numFeatures = dictionary.size();
+         double[] rtn = new double[LinearModel.numWeights(numClasses, numFeatures)];
+
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            int offset = classIndex * numFeatures;
+            double[] row = rows[classIndex];
+            int filled = Math.min(row.length, numFeatures);
+
+            for (int id = 0; id < filled; id++) {
+               rtn[offset + id] = row[id] - normalizers[classIndex];
+            }
+            Arrays.fill(rtn, offset + filled, offset + numFeatures,
+                        unseenWeights[classIndex] - normalizers[classIndex]);
+         }
+
+         return rtn;
+      }
+   }
+
+   /**
+    * An update that train() has to replay.
+    */
+   private static class Update {
+      public final Set<String> features;
+      public final int classIndex;
+
+      public Update(Set<String> features, int classIndex) {
+         this.features = features;
+         this.classIndex = classIndex;
+      }
+   }
+
+   /**
+    * Raw counts over a vocabulary that can grow.
+    * Class-major like the weights, but with a row length of |capacity| so that new features
+    *  only need the rows to be copied when the capacity doubles.
+    */
+   private static class Counts {
+      /**
+       * The vocabulary in id order.
+       */
+      public final List<String> features;
+      public final Map<String, Integer> ids;
+      public final int numClasses;
+
+      public int capacity;
+
+      /**
+       * Documents in each class with each feature: counts[classIndex * capacity + featureId].
+       */
+      public int[] counts;
+
+      /**
+       * Total features seen in each class.
+       */
+      public final int[] totals;
+
+      /**
+       * Documents seen in each class.
+       */
+      public final int[] docCounts;
+
+      public int numDocuments;
+
+      private Counts(List<String> features, Map<String, Integer> ids, int numClasses) {
+         this.features = features;
+         this.ids = ids;
+         this.numClasses = numClasses;
+
+         capacity = Math.max(16, features.size());
+         counts = new int[numClasses * capacity];
+         totals = new int[numClasses];
+         docCounts = new int[numClasses];
+         numDocuments = 0;
+      }
+
+      /**
+       * Get empty counts over a feature space.
+       * Ids are assigned in sorted order, the same as a dictionary built from the feature space.
+       */
+      public static Counts forFeatureSpace(Collection<String> featureSpace, int numClasses) {
+         String[] sorted = featureSpace.toArray(new String[0]);
+         Arrays.sort(sorted);
+
+         Map<String, Integer> ids = new HashMap<String, Integer>(sorted.length * 2);
+         for (int i = 0; i < sorted.length; i++) {
+            ids.put(sorted[i], i);
+         }
+
+         return new Counts(new ArrayList<String>(Arrays.asList(sorted)), ids, numClasses);
+      }
+
+
+      /**
+       * Count a document.
+       *
+       * @param grow If true, features that are not in the vocabulary are added to it.
+       *  Otherwise, they are ignored.
+       */
+      public void add(Set<String> documentFeatures, int classIndex, boolean grow) {
+         numDocuments++;
+         docCounts[classIndex]++;
+
+         for (String feature : documentFeatures) {
+            Integer id = ids.get(feature);
+
+            if (id == null) {
+               if (!grow) {
+                  continue;
+               }
+
+               id = addFeature(feature);
+            }
+
+            counts[classIndex * capacity + id.intValue()]++;
+            totals[classIndex]++;
+         }
+      }
+
+      /**
+       * Add in counts over another vocabulary.
+       * Only the features that are in this vocabulary are added, the rest are dropped.
+       */
+      public void addMapped(Counts other) {
+         for (int otherId = 0; otherId < other.features.size(); otherId++) {
+            Integer id = ids.get(other.features.get(otherId));
+            if (id == null) {
+               continue;
+            }
+
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               int count = other.counts[classIndex * other.capacity + otherId];
+               counts[classIndex * capacity + id.intValue()] += count;
+               totals[classIndex] += count;
+            }
+         }
+
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            docCounts[classIndex] += other.docCounts[classIndex];
+         }
+
+         numDocuments += other.numDocuments;
+      }
+
+      private int addFeature(String feature) {
+         int id = features.size();
+
+         if (id == capacity) {
+            int newCapacity = capacity * 2;
+            int[] newCounts = new int[numClasses * newCapacity];
+
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               System.arraycopy(counts, classIndex * capacity,
+                                newCounts, classIndex * newCapacity, capacity);
+            }
+
+            capacity = newCapacity;
+            counts = newCounts;
+         }
+
+         features.add(feature);
+         ids.put(feature, id);
+
+         return id;
+      }
+   }
+}
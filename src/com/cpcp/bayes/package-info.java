@@ -0,0 +1,4 @@
+/**
+ * Native Bayesian classifiers that work directly on feature ids instead of WEKA Instances.
+ */
+package com.cpcp.bayes;
@@ -0,0 +1,218 @@
+package com.cpcp.cache;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.document.Document;
+import com.cpcp.util.Murmur128;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of classification results in front of another classifier.
+ * Retweets and copy-pasted text come out of the FeatureSetGenerator as the same feature set,
+ *  so they only get classified once.
+ *
+ * The key is a MurmurHash3 128 bit hash of the document's features in sorted order,
+ *  so documents are still parsed, but the classifier's scoring is skipped on a hit.
+ * The feature set is what the classifier actually sees, so a hit gives exactly the result
+ *  the classifier would have (barring a 128 bit collision).
+ * On a miss, a FeatureClassifier classifies the features that were parsed for the key,
+ *  so the document is only parsed once either way.
+ *
+ * The cache is split into independently locked LRU segments so concurrent callers rarely
+ *  contend.
+ * Training or updating through this classifier invalidates the whole cache when it changes
+ *  the wrapped model, see MemoizingClassifier.
+ */
+public class CachingClassifier<E extends Document>
+      extends MemoizingClassifier<E, CachingClassifier.Key> {
+   private static final int DEFAULT_SEGMENTS = 16;
+
+   private final Segment[] segments;
+   private final int segmentMask;
+
+   private final ThreadLocal<double[]> distributionBuffer;
+
+   public CachingClassifier(CPCPClassifier<E> classifier, int capacity) {
+      this(classifier, capacity, DEFAULT_SEGMENTS);
+   }
+
+   /**
+    * @param capacity The most results to hold, split evenly between the segments.
+    * @param numSegments The number of independently locked segments, rounded up to
+    *  a power of two.
+    */
+   public CachingClassifier(CPCPClassifier<E> classifier, int capacity, int numSegments) {
+      super(classifier);
+
+      if (capacity < 1 || numSegments < 1) {
+         throw new IllegalArgumentException("Capacity and segments must be positive.");
+      }
+
+      int size = Integer.highestOneBit(numSegments);
+      if (size < numSegments) {
+         size <<= 1;
+      }
+
+      segments = new Segment[size];
+      segmentMask = size - 1;
+      int segmentCapacity = Math.max(1, capacity / size);
+      for (int i = 0; i < size; i++) {
+         segments[i] = new Segment(segmentCapacity);
+      }
+
+      final int numClasses = possibleClasses.size();
+      distributionBuffer = new ThreadLocal<double[]>() {
+         protected double[] initialValue() {
+            return new double[numClasses];
+         }
+      };
+   }
+
+   /**
+    * @inheritDoc
+    * Distributions are not cached, this goes straight to the wrapped classifier.
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      double[] buffer = distributionBuffer.get();
+      int classIndex = classifier.classifyDistribution(document, buffer);
+      System.arraycopy(buffer, 0, distribution, offset, buffer.length);
+
+      return classIndex;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected ClassificationResult recall(Key key) {
+      return segmentFor(key).get(key);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected void remember(Key key, ClassificationResult result, long resultGeneration) {
+      Segment segment = segmentFor(key);
+
+      synchronized (segment) {
+         if (isCurrent(resultGeneration)) {
+            segment.put(key, result);
+         }
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected void forgetAll() {
+      for (Segment segment : segments) {
+         segment.clear();
+      }
+   }
+
+   /**
+    * Get the number of cached results.
+    */
+   public int size() {
+      int size = 0;
+      for (Segment segment : segments) {
+         size += segment.size();
+      }
+
+      return size;
+   }
+
+   public String toString() {
+      return String.format("%s{segments=%d;hitRate=%f;classifier=%s}",
+                           getClass().getCanonicalName(),
+                           segments.length,
+                           getHitRate(),
+                           classifier);
+   }
+
+   private Segment segmentFor(Key key) {
+      return segments[(int)key.low & segmentMask];
+   }
+
+   /**
+    * Hash a feature set into 128 bits.
+    * Feature sets have no order, so the features are sorted first to get the same key for
+    *  the same set, and each one is length prefixed so different sets can't hash the same
+    *  characters.
+    */
+   protected Key key(Set<String> features) {
+      String[] sorted = features.toArray(new String[features.size()]);
+      Arrays.sort(sorted);
+
+      Murmur128 hash = new Murmur128();
+      hash.putInt(sorted.length);
+      for (String feature : sorted) {
+         hash.putDelimited(feature);
+      }
+
+      return new Key(hash.getHigh(), hash.getLow());
+   }
+
+   /**
+    * Not private, it is the type argument to MemoizingClassifier.
+    */
+   static class Key {
+      public final long high;
+      public final long low;
+
+      public Key(long high, long low) {
+         this.high = high;
+         this.low = low;
+      }
+
+      public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+
+         Key otherKey = (Key)other;
+         return high == otherKey.high && low == otherKey.low;
+      }
+
+      public int hashCode() {
+         return (int)(high ^ (high >>> 32));
+      }
+   }
+
+   /**
+    * One independently locked LRU map.
+    */
+   private static class Segment {
+      private final LinkedHashMap<Key, ClassificationResult> map;
+
+      public Segment(final int capacity) {
+         map = new LinkedHashMap<Key, ClassificationResult>(capacity * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Key, ClassificationResult> eldest) {
+               return size() > capacity;
+            }
+         };
+      }
+
+      public synchronized ClassificationResult get(Key key) {
+         return map.get(key);
+      }
+
+      public synchronized void put(Key key, ClassificationResult result) {
+         map.put(key, result);
+      }
+
+      public synchronized void clear() {
+         map.clear();
+      }
+
+      public synchronized int size() {
+         return map.size();
+      }
+   }
+}
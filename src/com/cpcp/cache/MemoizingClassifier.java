@@ -0,0 +1,273 @@
+package com.cpcp.cache;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The base for classifiers that remember another classifier's results, keyed on something
+ *  computed from a document's features, and reuse them instead of classifying again.
+ * Subclasses decide the key and how results are stored, see CachingClassifier and
+ *  NearDuplicateClassifier.
+ *
+ * Every document is parsed once: the features make the key, and on a miss a FeatureClassifier
+ *  gets the same features. Other classifiers get the documents that missed as one batch.
+ * Training, updating or publishing through this classifier forgets every result once the
+ *  wrapped classifier's model version changes (so an update that is not published yet keeps
+ *  them), or every time if the wrapped classifier is UNVERSIONED.
+ * Don't train or update the wrapped classifier directly, this would not know.
+ */
+public abstract class MemoizingClassifier<E extends Document, K> extends CPCPClassifier<E> {
+   protected final CPCPClassifier<E> classifier;
+
+   /**
+    * Bumped whenever the wrapped model changes.
+    * Results computed against an older generation are not remembered.
+    */
+   private final AtomicLong generation;
+
+   /**
+    * The wrapped classifier's model version that the remembered results are from.
+    */
+   private final AtomicLong modelVersion;
+
+   private final LongAdder hits;
+   private final LongAdder misses;
+
+   protected MemoizingClassifier(CPCPClassifier<E> classifier) {
+      super(classifier.getPossibleClasses(), classifier.getFeatureSetGenerator());
+
+      this.classifier = classifier;
+
+      generation = new AtomicLong();
+      modelVersion = new AtomicLong(classifier.getModelVersion());
+      hits = new LongAdder();
+      misses = new LongAdder();
+   }
+
+   /**
+    * Make the key for a document's features.
+    */
+   protected abstract K key(Set<String> features);
+
+   /**
+    * Get a remembered result for a key.
+    *
+    * @return The result, or null if there is none.
+    */
+   protected abstract ClassificationResult recall(K key);
+
+   /**
+    * Remember a result, as long as isCurrent(resultGeneration).
+    * That check and the store must be atomic with respect to forgetAll().
+    */
+   protected abstract void remember(K key, ClassificationResult result, long resultGeneration);
+
+   /**
+    * Drop every remembered result.
+    */
+   protected abstract void forgetAll();
+
+   /**
+    * Check if a result from |resultGeneration| is still from the current model.
+    */
+   protected boolean isCurrent(long resultGeneration) {
+      return resultGeneration == generation.get();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void train(List<E> documents, List<String> classes) {
+      classifier.train(documents, classes);
+      modelChanged();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   @Override
+   public void train(List<E> documents, List<String> classes, List<Set<String>> featureSets) {
+      classifier.train(documents, classes, featureSets);
+      modelChanged();
+   }
+
+   /**
+    * @inheritDoc
+    * This is the wrapped classifier's version.
+    */
+   @Override
+   public long getModelVersion() {
+      return classifier.getModelVersion();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public boolean isUpdateable() {
+      return classifier.isUpdateable();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void update(E document, String classValue) {
+      classifier.update(document, classValue);
+      modelChanged();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void update(List<E> documents, List<String> classes) {
+      classifier.update(documents, classes);
+      modelChanged();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void publish() {
+      classifier.publish();
+      modelChanged();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classify(E document) {
+      long currentGeneration = generation.get();
+      Set<String> features = fsg.parseFeatures(document);
+      K key = key(features);
+
+      ClassificationResult result = recall(key);
+      if (result != null) {
+         hits.increment();
+         return result;
+      }
+
+      misses.increment();
+      result = (classifier instanceof FeatureClassifier) ?
+               ((FeatureClassifier)classifier).classifyFeatures(features) :
+               classifier.classify(document);
+      remember(key, result, currentGeneration);
+
+      return result;
+   }
+
+   /**
+    * @override
+    * Only the misses go to the wrapped classifier.
+    * Documents in the batch with the same key are all classified.
+    */
+   @Override
+   public List<ClassificationResult> classify(List<E> documents) {
+      long currentGeneration = generation.get();
+
+      List<ClassificationResult> rtn = new ArrayList<ClassificationResult>(documents.size());
+      List<K> missKeys = new ArrayList<K>();
+      List<Integer> missIndexes = new ArrayList<Integer>();
+      List<E> missDocuments = new ArrayList<E>();
+      List<Set<String>> missFeatures = new ArrayList<Set<String>>();
+
+      int ndx = 0;
+      for (Set<String> features : fsg.parseFeatures(documents)) {
+         K key = key(features);
+         ClassificationResult result = recall(key);
+         rtn.add(result);
+
+         if (result == null) {
+            missKeys.add(key);
+            missIndexes.add(ndx);
+            missDocuments.add(documents.get(ndx));
+            missFeatures.add(features);
+         }
+
+         ndx++;
+      }
+
+      hits.add(documents.size() - missDocuments.size());
+      misses.add(missDocuments.size());
+
+      if (!missDocuments.isEmpty()) {
+         List<ClassificationResult> results = classifyMisses(missDocuments, missFeatures);
+         for (int i = 0; i < results.size(); i++) {
+            rtn.set(missIndexes.get(i), results.get(i));
+            remember(missKeys.get(i), results.get(i), currentGeneration);
+         }
+      }
+
+      return rtn;
+   }
+
+   private List<ClassificationResult> classifyMisses(List<E> documents,
+                                                     List<Set<String>> features) {
+      if (!(classifier instanceof FeatureClassifier)) {
+         return classifier.classify(documents);
+      }
+
+      List<ClassificationResult> rtn = new ArrayList<ClassificationResult>(features.size());
+      for (Set<String> documentFeatures : features) {
+         rtn.add(((FeatureClassifier)classifier).classifyFeatures(documentFeatures));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Forget every remembered result if the wrapped classifier's model may have changed.
+    */
+   private void modelChanged() {
+      long version = classifier.getModelVersion();
+      if (modelVersion.getAndSet(version) != version || version == UNVERSIONED) {
+         invalidate();
+      }
+   }
+
+   /**
+    * Forget every remembered result.
+    * This happens automatically when train(), update() or publish() changes the model.
+    */
+   public void invalidate() {
+      // Bump first so results that are being computed right now are not remembered.
+      generation.incrementAndGet();
+      forgetAll();
+   }
+
+   /**
+    * Get the number of documents that got a remembered result.
+    */
+   public long getHits() {
+      return hits.sum();
+   }
+
+   /**
+    * Get the number of documents that went to the wrapped classifier.
+    */
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   public double getHitRate() {
+      long hitCount = hits.sum();
+      long total = hitCount + misses.sum();
+
+      return total == 0 ? 0 : (double)hitCount / total;
+   }
+
+   public void resetStats() {
+      hits.reset();
+      misses.reset();
+   }
+
+   public CPCPClassifier<E> getClassifier() {
+      return classifier;
+   }
+}
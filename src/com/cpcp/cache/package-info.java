@@ -0,0 +1,4 @@
+/**
+ * Caching in front of classifiers.
+ */
+package com.cpcp.cache;
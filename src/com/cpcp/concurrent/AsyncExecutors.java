@@ -0,0 +1,118 @@
+package com.cpcp.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors and helpers for the asynchronous classification methods.
+ */
+public final class AsyncExecutors {
+   private AsyncExecutors() {
+   }
+
+   /**
+    * Get the executor that classifiers use for classifyAsync() unless told otherwise.
+    * Classification is CPU bound, so this is the common ForkJoinPool.
+    */
+   public static Executor defaultExecutor() {
+      return ForkJoinPool.commonPool();
+   }
+
+   /**
+    * Check if the running JDK can make virtual threads (Java 21 and up).
+    */
+   public static boolean virtualThreadsAvailable() {
+      try {
+         Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return true;
+      } catch (NoSuchMethodException ex) {
+         return false;
+      }
+   }
+
+   /**
+    * Make an executor that starts a new virtual thread for every task.
+    * This is looked up reflectively, since the build still targets Java 8.
+    *
+    * @throws UnsupportedOperationException If the running JDK has no virtual threads.
+    */
+   public static ExecutorService newVirtualThreadPerTaskExecutor() {
+      try {
+         return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                .invoke(null);
+      } catch (NoSuchMethodException ex) {
+         throw new UnsupportedOperationException(
+               "Virtual threads need Java 21 or later, running " +
+               System.getProperty("java.version") + ".");
+      } catch (ReflectiveOperationException ex) {
+         throw new RuntimeException("Failed to make a virtual thread executor.", ex);
+      }
+   }
+
+   /**
+    * Make an executor that does not limit the number of tasks running at once.
+    * Uses virtual threads when the JDK has them, and a cached pool of daemon threads otherwise.
+    */
+   public static ExecutorService newPerTaskExecutor() {
+      if (virtualThreadsAvailable()) {
+         return newVirtualThreadPerTaskExecutor();
+      }
+
+      return Executors.newCachedThreadPool(daemonThreads("cpcp-async"));
+   }
+
+   /**
+    * Complete |future| with a TimeoutException if it is not done within the timeout.
+    * This is CompletableFuture.orTimeout() for Java 8.
+    * Work that has not started by then is skipped, work that is already running is not
+    *  interrupted, but its result is ignored.
+    *
+    * @return |future|.
+    */
+   public static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future,
+                                                      final long timeout, final TimeUnit unit) {
+      if (future.isDone()) {
+         return future;
+      }
+
+      final ScheduledFuture<?> timer = TimerHolder.TIMER.schedule(new Runnable() {
+         public void run() {
+            future.completeExceptionally(new TimeoutException(
+                  "Classification took longer than " + timeout + " " + unit + "."));
+         }
+      }, timeout, unit);
+
+      future.whenComplete((result, ex) -> timer.cancel(false));
+
+      return future;
+   }
+
+   static ThreadFactory daemonThreads(final String prefix) {
+      final AtomicInteger count = new AtomicInteger();
+
+      return new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+   }
+
+   /**
+    * The single thread that fires timeouts, only started if a timeout is ever used.
+    */
+   private static class TimerHolder {
+      public static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("cpcp-timeout"));
+   }
+}
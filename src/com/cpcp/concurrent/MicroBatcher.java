@@ -0,0 +1,272 @@
+package com.cpcp.concurrent;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.document.Document;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects single-document classification requests from many threads into batches,
+ *  so that classifiers that are cheaper in batches (like GeneralWekaClassifier) get to
+ *  classify(List) even though every caller only has one document.
+ *
+ * A batch is flushed as soon as it has |maxBatchSize| documents, or when its oldest document
+ *  has waited |maxWaitMicros|, whichever comes first.
+ * Full batches are classified by the thread that filled them, so several batches can be
+ *  classified at once under load. Batches that time out are handed to an executor by a daemon
+ *  flusher thread, which only keeps track of deadlines, so a slow batch never holds up the
+ *  next one's deadline.
+ *
+ * The classifier must already be trained.
+ */
+public class MicroBatcher<E extends Document> implements Closeable {
+   private final CPCPClassifier<E> classifier;
+   private final int maxBatchSize;
+   private final long maxWaitNanos;
+   private final Executor executor;
+
+   private final ReentrantLock lock;
+   private final Condition pendingChanged;
+
+   // All guarded by |lock|.
+   private List<Request<E>> pending;
+   private long oldestNanos;
+   private boolean closed;
+
+   private final Thread flusher;
+
+   /**
+    * Timed out batches are classified on AsyncExecutors.defaultExecutor().
+    */
+   public MicroBatcher(CPCPClassifier<E> classifier, int maxBatchSize, long maxWaitMicros) {
+      this(classifier, maxBatchSize, maxWaitMicros, AsyncExecutors.defaultExecutor());
+   }
+
+   /**
+    * @param executor Where to classify the batches that time out.
+    */
+   public MicroBatcher(CPCPClassifier<E> classifier, int maxBatchSize, long maxWaitMicros,
+                       Executor executor) {
+      if (maxBatchSize < 1) {
+         throw new IllegalArgumentException("Batches need at least one document.");
+      }
+
+      this.classifier = classifier;
+      this.maxBatchSize = maxBatchSize;
+      this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+      this.executor = executor;
+
+      lock = new ReentrantLock();
+      pendingChanged = lock.newCondition();
+
+      pending = new ArrayList<Request<E>>(maxBatchSize);
+      oldestNanos = 0;
+      closed = false;
+
+      flusher = new Thread(new Runnable() {
+         public void run() {
+            flushLoop();
+         }
+      }, "MicroBatcher-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+   }
+
+   /**
+    * Queue a document for classification.
+    * If this fills the batch, the batch is classified on the calling thread before returning.
+    *
+    * @throws IllegalStateException If the batcher is closed.
+    */
+   public CompletableFuture<ClassificationResult> submit(E document) {
+      Request<E> request = new Request<E>(document);
+      List<Request<E>> batch = null;
+
+      lock.lock();
+      try {
+         if (closed) {
+            throw new IllegalStateException("MicroBatcher is closed.");
+         }
+
+         if (pending.isEmpty()) {
+            oldestNanos = System.nanoTime();
+            pendingChanged.signal();
+         }
+
+         pending.add(request);
+
+         if (pending.size() >= maxBatchSize) {
+            batch = takePending();
+         }
+      } finally {
+         lock.unlock();
+      }
+
+      if (batch != null) {
+         classifyBatch(batch);
+      }
+
+      return request.future;
+   }
+
+   /**
+    * Queue a document for classification, giving up after a timeout.
+    * A request that times out before its batch is flushed is dropped from the batch.
+    */
+   public CompletableFuture<ClassificationResult> submit(E document,
+                                                         long timeout, TimeUnit unit) {
+      return AsyncExecutors.withTimeout(submit(document), timeout, unit);
+   }
+
+   /**
+    * Classify a document through the batcher and wait for the result.
+    */
+   public ClassificationResult classify(E document) throws InterruptedException {
+      try {
+         return submit(document).get();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof RuntimeException) {
+            throw (RuntimeException)ex.getCause();
+         }
+
+         throw new RuntimeException(ex.getCause());
+      }
+   }
+
+   /**
+    * Stop accepting documents and classify everything that is still waiting.
+    */
+   public void close() {
+      List<Request<E>> batch;
+
+      lock.lock();
+      try {
+         if (closed) {
+            return;
+         }
+
+         closed = true;
+         batch = takePending();
+         pendingChanged.signal();
+      } finally {
+         lock.unlock();
+      }
+
+      classifyBatch(batch);
+   }
+
+   private void flushLoop() {
+      while (true) {
+         List<Request<E>> batch;
+
+         lock.lock();
+         try {
+            while (!closed && pending.isEmpty()) {
+               pendingChanged.awaitUninterruptibly();
+            }
+
+            if (closed) {
+               return;
+            }
+
+            long remaining = oldestNanos + maxWaitNanos - System.nanoTime();
+            if (remaining > 0) {
+               // A submit() may take the batch while waiting, that is checked on the next loop.
+               pendingChanged.awaitNanos(remaining);
+               continue;
+            }
+
+            batch = takePending();
+         } catch (InterruptedException ex) {
+            // Only close() should stop the flusher.
+            continue;
+         } finally {
+            lock.unlock();
+         }
+
+         dispatch(batch);
+      }
+   }
+
+   /**
+    * Classify a timed out batch on the executor.
+    * If the executor won't take it, the flusher has to classify it itself.
+    */
+   private void dispatch(final List<Request<E>> batch) {
+      try {
+         executor.execute(new Runnable() {
+            public void run() {
+               classifyBatch(batch);
+            }
+         });
+      } catch (RejectedExecutionException ex) {
+         classifyBatch(batch);
+      }
+   }
+
+   /**
+    * Must hold |lock|.
+    */
+   private List<Request<E>> takePending() {
+      List<Request<E>> rtn = pending;
+      pending = new ArrayList<Request<E>>(maxBatchSize);
+
+      return rtn;
+   }
+
+   private void classifyBatch(List<Request<E>> batch) {
+      List<Request<E>> live = new ArrayList<Request<E>>(batch.size());
+      List<E> documents = new ArrayList<E>(batch.size());
+
+      for (Request<E> request : batch) {
+         // Cancelled or timed out while waiting.
+         if (!request.future.isDone()) {
+            live.add(request);
+            documents.add(request.document);
+         }
+      }
+
+      if (documents.isEmpty()) {
+         return;
+      }
+
+      try {
+         List<ClassificationResult> results = classifier.classify(documents);
+         for (int i = 0; i < live.size(); i++) {
+            live.get(i).future.complete(results.get(i));
+         }
+      } catch (RuntimeException ex) {
+         for (Request<E> request : live) {
+            request.future.completeExceptionally(ex);
+         }
+      }
+   }
+
+   public String toString() {
+      return String.format("%s{maxBatchSize=%d;maxWaitMicros=%d;classifier=%s}",
+                           getClass().getCanonicalName(),
+                           maxBatchSize,
+                           TimeUnit.NANOSECONDS.toMicros(maxWaitNanos),
+                           classifier);
+   }
+
+   private static class Request<E> {
+      public final E document;
+      public final CompletableFuture<ClassificationResult> future;
+
+      public Request(E document) {
+         this.document = document;
+         this.future = new CompletableFuture<ClassificationResult>();
+      }
+   }
+}
@@ -0,0 +1,4 @@
+/**
+ * Front ends for sharing classifiers between many concurrent callers.
+ */
+package com.cpcp.concurrent;
@@ -0,0 +1,147 @@
+package com.cpcp.dedupe;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.cache.MemoizingClassifier;
+import com.cpcp.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Skips redundant work on near-duplicate documents, like tweets that only differ in a link,
+ *  a mention or a trailing emoticon.
+ *
+ * Classification: every document gets a SimHash fingerprint of its feature set.
+ *  If a recently classified document is within |maxDistance| bits, its result is reused
+ *  (a hit). Otherwise the wrapped classifier is used and the result is remembered.
+ * Training: near-duplicates of the same class are dropped from the training set before
+ *  it is handed to the wrapped classifier (see SimHash.distinct()).
+ *
+ * Unlike CachingClassifier, a reused result is not guaranteed to be what the wrapped
+ *  classifier would have said, only what it said for a very similar document.
+ * Training or updating through this classifier forgets all the remembered results when it
+ *  changes the wrapped model, see MemoizingClassifier.
+ */
+public class NearDuplicateClassifier<E extends Document> extends MemoizingClassifier<E, Long> {
+   private final int maxDistance;
+
+   private volatile boolean dedupeTraining;
+
+   private final SimHashIndex<ClassificationResult> recent;
+
+   private volatile int lastTrainingDropped;
+
+   /**
+    * @param maxDistance The most bits two fingerprints can differ in and still be
+    *  near-duplicates. 3 is a common choice for 64 bit fingerprints.
+    * @param capacity The most results to remember, the oldest are forgotten first.
+    */
+   public NearDuplicateClassifier(CPCPClassifier<E> classifier, int maxDistance, int capacity) {
+      super(classifier);
+
+      this.maxDistance = maxDistance;
+
+      dedupeTraining = true;
+
+      recent = new SimHashIndex<ClassificationResult>(maxDistance);
+      recent.setCapacity(capacity);
+
+      lastTrainingDropped = 0;
+   }
+
+   /**
+    * Set whether to drop near-duplicates from training sets, on by default.
+    */
+   public void setDedupeTraining(boolean dedupeTraining) {
+      this.dedupeTraining = dedupeTraining;
+   }
+
+   /**
+    * @inheritDoc
+    * The wrapped classifier gets the feature sets that deduplication parsed,
+    *  so the training set is only parsed once.
+    */
+   @Override
+   public void train(List<E> documents, List<String> classes) {
+      if (dedupeTraining) {
+         train(documents, classes, fsg.parseFeatures(documents));
+      } else {
+         lastTrainingDropped = 0;
+         super.train(documents, classes);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   @Override
+   public void train(List<E> documents, List<String> classes, List<Set<String>> featureSets) {
+      if (!dedupeTraining) {
+         lastTrainingDropped = 0;
+         super.train(documents, classes, featureSets);
+         return;
+      }
+
+      List<Integer> keep = SimHash.distinct(featureSets, classes, maxDistance);
+
+      List<E> keptDocuments = new ArrayList<E>(keep.size());
+      List<String> keptClasses = new ArrayList<String>(keep.size());
+      List<Set<String>> keptFeatureSets = new ArrayList<Set<String>>(keep.size());
+      for (int ndx : keep) {
+         keptDocuments.add(documents.get(ndx));
+         keptClasses.add(classes.get(ndx));
+         keptFeatureSets.add(featureSets.get(ndx));
+      }
+
+      lastTrainingDropped = documents.size() - keep.size();
+      super.train(keptDocuments, keptClasses, keptFeatureSets);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected Long key(Set<String> features) {
+      return SimHash.fingerprint(features);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected ClassificationResult recall(Long fingerprint) {
+      return recent.findNearest(fingerprint);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected synchronized void remember(Long fingerprint, ClassificationResult result,
+                                        long resultGeneration) {
+      if (isCurrent(resultGeneration)) {
+         recent.add(fingerprint, result);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   protected synchronized void forgetAll() {
+      recent.clear();
+   }
+
+   /**
+    * Get the number of near-duplicates dropped from the last training set.
+    */
+   public int getLastTrainingDropped() {
+      return lastTrainingDropped;
+   }
+
+   public String toString() {
+      return String.format("%s{maxDistance=%d;dedupeTraining=%s;classifier=%s}",
+                           getClass().getCanonicalName(),
+                           maxDistance,
+                           dedupeTraining,
+                           classifier);
+   }
+}
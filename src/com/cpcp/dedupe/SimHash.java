@@ -0,0 +1,73 @@
+package com.cpcp.dedupe;
+
+import com.cpcp.util.HashUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 64 bit SimHash fingerprints of feature sets.
+ * Feature sets that share most of their features get fingerprints that differ
+ *  in only a few bits, so near-duplicates can be found by Hamming distance.
+ */
+public final class SimHash {
+   /**
+    * Private to promote static behavior.
+    */
+   private SimHash() {
+   }
+
+   /**
+    * Get the fingerprint of a feature set.
+    * Every feature votes on every bit with its own 64 bit hash, and each bit of the
+    *  fingerprint is the majority vote.
+    */
+   public static long fingerprint(Set<String> features) {
+      int[] votes = new int[64];
+
+      for (String feature : features) {
+         long hash = HashUtils.hashFeature64(feature);
+         for (int bit = 0; bit < 64; bit++) {
+            votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+         }
+      }
+
+      long fingerprint = 0;
+      for (int bit = 0; bit < 64; bit++) {
+         if (votes[bit] > 0) {
+            fingerprint |= 1L << bit;
+         }
+      }
+
+      return fingerprint;
+   }
+
+   public static int distance(long a, long b) {
+      return Long.bitCount(a ^ b);
+   }
+
+   /**
+    * Find the documents to keep when dropping near-duplicates from a training set.
+    * A document is dropped if an earlier kept document of the same class is within
+    *  |maxDistance| of it. Near-duplicates with different classes are all kept.
+    *
+    * @return The indexes of the documents to keep, in order.
+    */
+   public static List<Integer> distinct(List<Set<String>> featureSets, List<String> classes,
+                                        int maxDistance) {
+      List<Integer> rtn = new ArrayList<Integer>();
+      SimHashIndex<String> index = new SimHashIndex<String>(maxDistance);
+
+      for (int i = 0; i < featureSets.size(); i++) {
+         long fingerprint = fingerprint(featureSets.get(i));
+
+         if (!index.findAll(fingerprint).contains(classes.get(i))) {
+            index.add(fingerprint, classes.get(i));
+            rtn.add(i);
+         }
+      }
+
+      return rtn;
+   }
+}
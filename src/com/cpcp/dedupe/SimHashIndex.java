@@ -0,0 +1,244 @@
+package com.cpcp.dedupe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of SimHash fingerprints that finds everything within a Hamming distance.
+ *
+ * The 64 bits are cut into maxDistance + 1 blocks, and there is one table per block.
+ * Two fingerprints that differ in at most maxDistance bits can not differ in every block,
+ *  so they share at least one block exactly. A lookup only has to check the entries that
+ *  share a block with it, one table lookup per block.
+ *
+ * The index can be bounded, in which case the oldest entries are dropped first.
+ * It is safe to use from many threads.
+ */
+public class SimHashIndex<V> {
+   private final int maxDistance;
+   private final int[] shifts;
+   private final long[] masks;
+
+   private final List<Map<Long, List<Entry<V>>>> tables;
+
+   /**
+    * Entries in insertion order, for eviction.
+    */
+   private final ArrayDeque<Entry<V>> order;
+   private int capacity;
+   private int size;
+
+   private final ReentrantReadWriteLock lock;
+
+   public SimHashIndex(int maxDistance) {
+      if (maxDistance < 0 || maxDistance > 31) {
+         throw new IllegalArgumentException(
+               "Max distance must be in [0, 31], got " + maxDistance);
+      }
+
+      this.maxDistance = maxDistance;
+
+      int numBlocks = maxDistance + 1;
+      shifts = new int[numBlocks];
+      masks = new long[numBlocks];
+
+      int shift = 0;
+      for (int block = 0; block < numBlocks; block++) {
+         // Spread the remainder over the first blocks.
+         int width = 64 / numBlocks + (block < 64 % numBlocks ? 1 : 0);
+         shifts[block] = shift;
+         masks[block] = (width == 64) ? -1L : (1L << width) - 1;
+         shift += width;
+      }
+
+      tables = new ArrayList<Map<Long, List<Entry<V>>>>(numBlocks);
+      for (int block = 0; block < numBlocks; block++) {
+         tables.add(new HashMap<Long, List<Entry<V>>>());
+      }
+
+      order = new ArrayDeque<Entry<V>>();
+      capacity = 0;
+      size = 0;
+
+      lock = new ReentrantReadWriteLock();
+   }
+
+   /**
+    * Bound the index, zero (the default) means unbounded.
+    * When full, adding an entry drops the oldest one.
+    */
+   public void setCapacity(int capacity) {
+      lock.writeLock().lock();
+      try {
+         this.capacity = capacity;
+         evict();
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   public int getMaxDistance() {
+      return maxDistance;
+   }
+
+   public void add(long fingerprint, V value) {
+      Entry<V> entry = new Entry<V>(fingerprint, value);
+
+      lock.writeLock().lock();
+      try {
+         for (int block = 0; block < tables.size(); block++) {
+            Long key = block(fingerprint, block);
+            List<Entry<V>> bucket = tables.get(block).get(key);
+            if (bucket == null) {
+               bucket = new ArrayList<Entry<V>>(1);
+               tables.get(block).put(key, bucket);
+            }
+            bucket.add(entry);
+         }
+
+         size++;
+         order.addLast(entry);
+         evict();
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Find the closest entry within the max distance.
+    *
+    * @return The value of the closest entry, or null if nothing is close enough.
+    */
+   public V findNearest(long fingerprint) {
+      lock.readLock().lock();
+      try {
+         Entry<V> best = null;
+         int bestDistance = maxDistance + 1;
+
+         for (int block = 0; block < tables.size(); block++) {
+            List<Entry<V>> bucket = tables.get(block).get(block(fingerprint, block));
+            if (bucket == null) {
+               continue;
+            }
+
+            for (Entry<V> entry : bucket) {
+               int distance = SimHash.distance(fingerprint, entry.fingerprint);
+               if (distance < bestDistance) {
+                  best = entry;
+                  bestDistance = distance;
+               }
+            }
+         }
+
+         return best == null ? null : best.value;
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Find every entry within the max distance.
+    *
+    * @return The values of the entries, each entry once.
+    */
+   public List<V> findAll(long fingerprint) {
+      List<V> rtn = new ArrayList<V>();
+
+      lock.readLock().lock();
+      try {
+         for (int block = 0; block < tables.size(); block++) {
+            List<Entry<V>> bucket = tables.get(block).get(block(fingerprint, block));
+            if (bucket == null) {
+               continue;
+            }
+
+            for (Entry<V> entry : bucket) {
+               if (SimHash.distance(fingerprint, entry.fingerprint) <= maxDistance &&
+                   firstSharedBlock(fingerprint, entry.fingerprint) == block) {
+                  rtn.add(entry.value);
+               }
+            }
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+
+      return rtn;
+   }
+
+   public int size() {
+      lock.readLock().lock();
+      try {
+         return size;
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   public void clear() {
+      lock.writeLock().lock();
+      try {
+         for (Map<Long, List<Entry<V>>> table : tables) {
+            table.clear();
+         }
+         order.clear();
+         size = 0;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   private long block(long fingerprint, int block) {
+      return (fingerprint >>> shifts[block]) & masks[block];
+   }
+
+   /**
+    * An entry shows up in every table where it shares a block with the query,
+    *  it only counts in the first one.
+    */
+   private int firstSharedBlock(long a, long b) {
+      for (int block = 0; block < shifts.length; block++) {
+         if (block(a, block) == block(b, block)) {
+            return block;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Must hold the write lock.
+    */
+   private void evict() {
+      while (capacity > 0 && size > capacity) {
+         Entry<V> oldest = order.removeFirst();
+
+         for (int block = 0; block < tables.size(); block++) {
+            Long key = block(oldest.fingerprint, block);
+            List<Entry<V>> bucket = tables.get(block).get(key);
+
+            // Oldest entries are at the front of their buckets.
+            bucket.remove(0);
+            if (bucket.isEmpty()) {
+               tables.get(block).remove(key);
+            }
+         }
+
+         size--;
+      }
+   }
+
+   private static class Entry<V> {
+      public final long fingerprint;
+      public final V value;
+
+      public Entry(long fingerprint, V value) {
+         this.fingerprint = fingerprint;
+         this.value = value;
+      }
+   }
+}
@@ -0,0 +1,4 @@
+/**
+ * Near-duplicate detection over feature sets with SimHash fingerprints.
+ */
+package com.cpcp.dedupe;
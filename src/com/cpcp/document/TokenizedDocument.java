@@ -0,0 +1,30 @@
+package com.cpcp.document;
+
+/**
+ * A TextDocument that was already run through a TextFilter, like the documents of a TokenCorpus.
+ * NGram takes the words as they are instead of filtering the content again,
+ *  as long as its filter is the one that made the words.
+ *
+ * The original text is gone, getContent() is just the words joined by spaces.
+ * Generators that need the raw text (like SF) reject these documents.
+ */
+public abstract class TokenizedDocument extends TextDocument {
+   protected TokenizedDocument() {
+      super(null);
+   }
+
+   /**
+    * Get the toString() of the filter that made the words.
+    */
+   public abstract String getFilterName();
+
+   /**
+    * Get the filtered words, in order.
+    */
+   public abstract String[] getWords();
+
+   @Override
+   public String getContent() {
+      return String.join(" ", getWords());
+   }
+}
@@ -0,0 +1,330 @@
+package com.cpcp.ensemble;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.document.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of classifiers, usually ordered from cheapest to most expensive.
+ * Each document goes to the first stage. If that stage's confidence is at least the stage's
+ *  threshold, its answer is final. Otherwise, the document moves on to the next stage.
+ * The last stage always answers.
+ *
+ * Stages that don't support confidences report -1, so they only accept documents
+ *  if their threshold is -1 or lower.
+ *
+ * Every stage keeps counters for how many documents it saw, how many it accepted and
+ *  how long it spent classifying, see getStageStats().
+ */
+public class CascadeClassifier<E extends Document> extends CPCPClassifier<E> {
+   private final List<CPCPClassifier<E>> stages;
+   private final double[] thresholds;
+
+   private final AtomicLong[] calls;
+   private final AtomicLong[] accepted;
+   private final AtomicLong[] nanos;
+
+   /**
+    * @param stages The classifiers in the order to try them.
+    *  They must all have the same possible classes.
+    * @param thresholds The confidence each stage needs to accept a document.
+    *  There is one per stage, except for the last stage, which accepts everything.
+    * @throws IllegalArgumentException If there are no stages, the wrong number of thresholds,
+    *  or stages with different possible classes.
+    */
+   public CascadeClassifier(List<? extends CPCPClassifier<E>> stages, double[] thresholds) {
+      super(firstStage(stages, thresholds).getPossibleClasses(),
+            stages.get(0).getFeatureSetGenerator());
+
+      this.stages = new ArrayList<CPCPClassifier<E>>(stages);
+      this.thresholds = thresholds.clone();
+
+      calls = new AtomicLong[stages.size()];
+      accepted = new AtomicLong[stages.size()];
+      nanos = new AtomicLong[stages.size()];
+      for (int i = 0; i < stages.size(); i++) {
+         calls[i] = new AtomicLong();
+         accepted[i] = new AtomicLong();
+         nanos[i] = new AtomicLong();
+      }
+   }
+
+   /**
+    * Validate the constructor's arguments, before anything is read out of them.
+    *
+    * @return The first stage.
+    */
+   private static <E extends Document> CPCPClassifier<E> firstStage(
+         List<? extends CPCPClassifier<E>> stages, double[] thresholds) {
+      if (stages == null || stages.isEmpty()) {
+         throw new IllegalArgumentException("A cascade needs at least one stage.");
+      }
+
+      if (thresholds == null || thresholds.length != stages.size() - 1) {
+         throw new IllegalArgumentException(String.format(
+               "Need %d thresholds for %d stages, got %s.",
+               stages.size() - 1, stages.size(),
+               (thresholds == null) ? "null" : String.valueOf(thresholds.length)));
+      }
+
+      List<String> possibleClasses = stages.get(0).getPossibleClasses();
+      for (CPCPClassifier<E> stage : stages) {
+         if (!stage.getPossibleClasses().equals(possibleClasses)) {
+            throw new IllegalArgumentException(
+                  "All stages must have the same possible classes: " + stage);
+         }
+      }
+
+      return stages.get(0);
+   }
+
+   /**
+    * @inheritDoc
+    * Trains every stage on the full training set.
+    */
+   public void train(List<E> documents, List<String> classes) {
+      for (CPCPClassifier<E> stage : stages) {
+         stage.train(documents, classes);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * This changes when any stage's version does, it is UNVERSIONED if any stage is.
+    */
+   @Override
+   public long getModelVersion() {
+      long rtn = 0;
+
+      for (CPCPClassifier<E> stage : stages) {
+         long version = stage.getModelVersion();
+         if (version == UNVERSIONED) {
+            return UNVERSIONED;
+         }
+
+         // Versions only go up, so the sum changes whenever one of them does.
+         rtn += version;
+      }
+
+      return rtn;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public boolean isUpdateable() {
+      for (CPCPClassifier<E> stage : stages) {
+         if (!stage.isUpdateable()) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void update(E document, String classValue) {
+      for (CPCPClassifier<E> stage : stages) {
+         stage.update(document, classValue);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void update(List<E> documents, List<String> classes) {
+      for (CPCPClassifier<E> stage : stages) {
+         stage.update(documents, classes);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void publish() {
+      for (CPCPClassifier<E> stage : stages) {
+         stage.publish();
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classify(E document) {
+      for (int i = 0; ; i++) {
+         long start = System.nanoTime();
+         ClassificationResult result = stages.get(i).classify(document);
+         nanos[i].addAndGet(System.nanoTime() - start);
+         calls[i].incrementAndGet();
+
+         if (accepts(i, result)) {
+            accepted[i].incrementAndGet();
+            return result;
+         }
+      }
+   }
+
+   /**
+    * @override
+    * Each stage gets all of the documents that the stages before it passed on as one batch,
+    *  so stages that are cheaper in batches (like WEKA classifiers) stay cheap.
+    */
+   @Override
+   public List<ClassificationResult> classify(List<E> documents) {
+      List<ClassificationResult> rtn = new ArrayList<ClassificationResult>(
+            Collections.<ClassificationResult>nCopies(documents.size(), null));
+
+      // The indexes (into |documents|) of the documents that are still undecided.
+      List<Integer> pending = new ArrayList<Integer>(documents.size());
+      List<E> batch = new ArrayList<E>(documents);
+      for (int ndx = 0; ndx < documents.size(); ndx++) {
+         pending.add(ndx);
+      }
+
+      for (int i = 0; i < stages.size() && !batch.isEmpty(); i++) {
+         long start = System.nanoTime();
+         List<ClassificationResult> results = stages.get(i).classify(batch);
+         nanos[i].addAndGet(System.nanoTime() - start);
+         calls[i].addAndGet(batch.size());
+
+         List<Integer> nextPending = new ArrayList<Integer>();
+         List<E> nextBatch = new ArrayList<E>();
+         long stageAccepted = 0;
+
+         for (int j = 0; j < results.size(); j++) {
+            if (accepts(i, results.get(j))) {
+               rtn.set(pending.get(j), results.get(j));
+               stageAccepted++;
+            } else {
+               nextPending.add(pending.get(j));
+               nextBatch.add(batch.get(j));
+            }
+         }
+
+         accepted[i].addAndGet(stageAccepted);
+         pending = nextPending;
+         batch = nextBatch;
+      }
+
+      return rtn;
+   }
+
+   private boolean accepts(int stage, ClassificationResult result) {
+      return stage == stages.size() - 1 || result.getConfidence() >= thresholds[stage];
+   }
+
+   /**
+    * Get the counters for every stage, in stage order.
+    * The counters are read one at a time while classification may be going on,
+    *  so they are only consistent with each other when nothing is being classified.
+    */
+   public List<StageStats> getStageStats() {
+      List<StageStats> rtn = new ArrayList<StageStats>(stages.size());
+
+      for (int i = 0; i < stages.size(); i++) {
+         rtn.add(new StageStats(stages.get(i).toString(),
+                                (i < thresholds.length) ? thresholds[i] : Double.NEGATIVE_INFINITY,
+                                calls[i].get(), accepted[i].get(), nanos[i].get()));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Zero all the stage counters, for example after a warm up.
+    */
+   public void resetStats() {
+      for (int i = 0; i < stages.size(); i++) {
+         calls[i].set(0);
+         accepted[i].set(0);
+         nanos[i].set(0);
+      }
+   }
+
+   public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(getClass().getCanonicalName()).append("{");
+
+      for (int i = 0; i < stages.size(); i++) {
+         if (i > 0) {
+            builder.append(String.format(" -(%f)-> ", thresholds[i - 1]));
+         }
+         builder.append(stages.get(i));
+      }
+
+      return builder.append("}").toString();
+   }
+
+   /**
+    * The counters for a single stage at one point in time.
+    */
+   public static class StageStats {
+      private final String stage;
+      private final double threshold;
+      private final long calls;
+      private final long accepted;
+      private final long nanos;
+
+      public StageStats(String stage, double threshold, long calls, long accepted, long nanos) {
+         this.stage = stage;
+         this.threshold = threshold;
+         this.calls = calls;
+         this.accepted = accepted;
+         this.nanos = nanos;
+      }
+
+      public String getStage() {
+         return stage;
+      }
+
+      /**
+       * The last stage accepts everything, so its threshold is negative infinity.
+       */
+      public double getThreshold() {
+         return threshold;
+      }
+
+      /**
+       * Get the number of documents this stage classified.
+       */
+      public long getCalls() {
+         return calls;
+      }
+
+      /**
+       * Get the number of documents this stage gave the final answer for.
+       */
+      public long getAccepted() {
+         return accepted;
+      }
+
+      /**
+       * Get the total time this stage spent classifying.
+       * For batches, this is the time for the whole batch.
+       */
+      public long getNanos() {
+         return nanos;
+      }
+
+      public double getAcceptRate() {
+         return calls == 0 ? 0 : (double)accepted / calls;
+      }
+
+      public double getMeanLatencyNanos() {
+         return calls == 0 ? 0 : (double)nanos / calls;
+      }
+
+      public String toString() {
+         return String.format("calls: %d, accepted: %d (%.4f), mean latency: %.1f us -- %s",
+                              calls, accepted, getAcceptRate(),
+                              getMeanLatencyNanos() / 1000.0, stage);
+      }
+   }
+}
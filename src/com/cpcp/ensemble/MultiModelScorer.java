@@ -0,0 +1,197 @@
+package com.cpcp.ensemble;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureSetGenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs several classifiers on the same documents, parsing each document only once per
+ *  distinct feature generator configuration instead of once per classifier.
+ *
+ * Classifiers are grouped by their FeatureSetGenerator: generators of the same class with
+ *  the same toString() are treated as equivalent, since toString() describes the whole
+ *  configuration of the generators in this package (the n, the min and the filter).
+ * For each group, a document is parsed by one of the generators and the features are handed
+ *  to every classifier in the group that is a FeatureClassifier.
+ * Other classifiers still classify the document themselves.
+ *
+ * The classifiers must already be trained. Like the classifiers themselves, a scorer can be
+ *  used from many threads at once.
+ */
+public class MultiModelScorer<E extends Document> {
+   private final List<String> names;
+   private final List<Group<E>> groups;
+
+   /**
+    * @param classifiers The classifiers by name, results are returned in this order.
+    */
+   public MultiModelScorer(Map<String, ? extends CPCPClassifier<E>> classifiers) {
+      names = new ArrayList<String>(classifiers.keySet());
+
+      Map<String, Group<E>> byConfig = new LinkedHashMap<String, Group<E>>();
+      int ndx = 0;
+      for (CPCPClassifier<E> classifier : classifiers.values()) {
+         FeatureSetGenerator<E> fsg = classifier.getFeatureSetGenerator();
+         String config = fsg.getClass().getName() + ":" + fsg.toString();
+
+         Group<E> group = byConfig.get(config);
+         if (group == null) {
+            group = new Group<E>(fsg);
+            byConfig.put(config, group);
+         }
+
+         group.add(ndx++, classifier);
+      }
+
+      groups = new ArrayList<Group<E>>(byConfig.values());
+   }
+
+   /**
+    * Get the names of the classifiers, in the order they were given.
+    */
+   public List<String> getNames() {
+      return Collections.unmodifiableList(names);
+   }
+
+   /**
+    * Get the number of times each document is parsed.
+    */
+   public int getNumGroups() {
+      return groups.size();
+   }
+
+   /**
+    * Run every classifier on a document.
+    *
+    * @return The results by classifier name, in the order the classifiers were given.
+    */
+   public Map<String, ClassificationResult> classify(E document) {
+      ClassificationResult[] results = new ClassificationResult[names.size()];
+
+      for (Group<E> group : groups) {
+         Set<String> features = group.needsFeatures() ? group.fsg.parseFeatures(document) : null;
+
+         for (int i = 0; i < group.classifiers.size(); i++) {
+            CPCPClassifier<E> classifier = group.classifiers.get(i);
+
+            if (classifier instanceof FeatureClassifier) {
+               results[group.indexes.get(i)] =
+                     ((FeatureClassifier)classifier).classifyFeatures(features);
+            } else {
+               results[group.indexes.get(i)] = classifier.classify(document);
+            }
+         }
+      }
+
+      return toMap(results);
+   }
+
+   /**
+    * Run every classifier on many documents.
+    * Each group parses the whole batch at once, and classifiers that can't take features
+    *  get the whole batch at once too.
+    *
+    * @return The results for each document, by classifier name.
+    */
+   public List<Map<String, ClassificationResult>> classify(List<E> documents) {
+      ClassificationResult[][] results = new ClassificationResult[documents.size()][];
+      for (int docNdx = 0; docNdx < documents.size(); docNdx++) {
+         results[docNdx] = new ClassificationResult[names.size()];
+      }
+
+      for (Group<E> group : groups) {
+         List<Set<String>> featureSets =
+               group.needsFeatures() ? group.fsg.parseFeatures(documents) : null;
+
+         for (int i = 0; i < group.classifiers.size(); i++) {
+            CPCPClassifier<E> classifier = group.classifiers.get(i);
+            int classifierNdx = group.indexes.get(i);
+
+            if (classifier instanceof FeatureClassifier) {
+               FeatureClassifier featureClassifier = (FeatureClassifier)classifier;
+               for (int docNdx = 0; docNdx < documents.size(); docNdx++) {
+                  results[docNdx][classifierNdx] =
+                        featureClassifier.classifyFeatures(featureSets.get(docNdx));
+               }
+            } else {
+               List<ClassificationResult> batch = classifier.classify(documents);
+               for (int docNdx = 0; docNdx < documents.size(); docNdx++) {
+                  results[docNdx][classifierNdx] = batch.get(docNdx);
+               }
+            }
+         }
+      }
+
+      List<Map<String, ClassificationResult>> rtn =
+            new ArrayList<Map<String, ClassificationResult>>(documents.size());
+      for (ClassificationResult[] documentResults : results) {
+         rtn.add(toMap(documentResults));
+      }
+
+      return rtn;
+   }
+
+   private Map<String, ClassificationResult> toMap(ClassificationResult[] results) {
+      Map<String, ClassificationResult> rtn =
+            new LinkedHashMap<String, ClassificationResult>(results.length * 2);
+
+      for (int i = 0; i < results.length; i++) {
+         rtn.put(names.get(i), results[i]);
+      }
+
+      return rtn;
+   }
+
+   public String toString() {
+      return String.format("%s{classifiers=%d;groups=%d}",
+                           getClass().getCanonicalName(),
+                           names.size(),
+                           groups.size());
+   }
+
+   /**
+    * Classifiers that share a feature generator configuration.
+    */
+   private static class Group<E extends Document> {
+      public final FeatureSetGenerator<E> fsg;
+      public final List<CPCPClassifier<E>> classifiers;
+
+      /**
+       * The index of each classifier in the scorer's names.
+       */
+      public final List<Integer> indexes;
+
+      public Group(FeatureSetGenerator<E> fsg) {
+         this.fsg = fsg;
+         classifiers = new ArrayList<CPCPClassifier<E>>();
+         indexes = new ArrayList<Integer>();
+      }
+
+      public void add(int index, CPCPClassifier<E> classifier) {
+         classifiers.add(classifier);
+         indexes.add(index);
+      }
+
+      /**
+       * Only parse if someone in the group will use the features.
+       */
+      public boolean needsFeatures() {
+         for (CPCPClassifier<E> classifier : classifiers) {
+            if (classifier instanceof FeatureClassifier) {
+               return true;
+            }
+         }
+
+         return false;
+      }
+   }
+}
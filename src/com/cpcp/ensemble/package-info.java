@@ -0,0 +1,4 @@
+/**
+ * Classifiers that are built out of other classifiers.
+ */
+package com.cpcp.ensemble;
@@ -0,0 +1,17 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.document.Document;
+
+/**
+ * Makes fresh, untrained classifiers.
+ * Evaluations that train several classifiers at once (like parallel cross validation)
+ *  use a factory so that every thread gets its own classifier.
+ */
+public interface ClassifierFactory<E extends Document> {
+   /**
+    * Make a new untrained classifier.
+    * Every call must return a different classifier, configured the same way.
+    */
+   CPCPClassifier<E> newClassifier();
+}
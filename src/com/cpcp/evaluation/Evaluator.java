@@ -5,29 +5,46 @@ import com.cpcp.ClassificationResult;
 import com.cpcp.document.Document;
 import com.cpcp.document.TextDocument;
 import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.io.GsvReader;
+import com.cpcp.io.TokenCorpus;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.Profiler;
 import com.cpcp.util.math.GeneralConfusionMatrix;
 
 import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /**
  * A Class for running evaluations Classifiers.
  * For just a standard evaluation, look at GeneralEvaluator.
+ *
+ * Usage: Evaluator [data file or token corpus]
  */
 public class Evaluator {
    public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+
       List<TextDocument> documents = new ArrayList<TextDocument>();
       List<String> classes = new ArrayList<String>();
 
-      loadTrainingSet("data/classifierTrainingTweetData.gsv", "`", documents, classes);
+      loadTrainingSet(path, "`", documents, classes);
       // loadTrainingSet("data/classifierTrainingTweetDataCompressed.gsv", "`",
       //                 documents, classes);
 
@@ -44,7 +61,7 @@ public class Evaluator {
          new com.cpcp.features.NGram(1, 1, new com.cpcp.filter.FullFilter()),
          possibleClasses);
 
-      Results res = crossValidate(classy, documents, classes, 10, 4);
+      Results res = crossValidate(classy, documents, classes, 10, 4, false, true);
       System.out.println(res);
    }
 
@@ -52,22 +69,34 @@ public class Evaluator {
     * For testing only, load a training set from a file.
     * It is assumed that there is one document per line in the form:
     *  <class><seperator><document>
+    * The file is read with a GsvReader, so the separator must be a single ASCII character.
+    *
+    * The file can also be a TokenCorpus (see TokenCorpus.convert()), then the documents are
+    *  the already filtered TokenizedDocuments of the corpus and the separator is ignored.
+    * SF can't pick a feature space from those, see SF.
     */
-   private static void loadTrainingSet(String path,
-                                       String seperator,
-                                       List<TextDocument> documents,
-                                       List<String> classes) throws Exception {
-      Scanner fileScanner = new Scanner(new File(path));
-      while (fileScanner.hasNextLine()) {
-         String line = fileScanner.nextLine();
-         String[] parts = line.split(seperator);
+   static void loadTrainingSet(String path,
+                               String seperator,
+                               List<TextDocument> documents,
+                               List<String> classes) throws Exception {
+      File file = new File(path);
+      if (TokenCorpus.isTokenCorpus(file)) {
+         TokenCorpus corpus = TokenCorpus.open(file);
+         documents.addAll(corpus.getDocuments());
+         classes.addAll(corpus.getClasses());
+         return;
+      }
 
-         classes.add(parts[0]);
-         documents.add(new TextDocument(parts[1]));
+      if (seperator.length() != 1 || seperator.charAt(0) > 127) {
+         throw new IllegalArgumentException("Separator must be one ASCII character, got: " +
+                                            seperator);
       }
+
+      GsvReader reader = new GsvReader(file, (byte)seperator.charAt(0));
+      reader.load(documents, classes, ParallelUtils.defaultThreads());
    }
 
-   private static Set<String> getClassValues(List<String> classes) {
+   static Set<String> getClassValues(List<String> classes) {
       Set<String> rtn = new HashSet<String>();
 
       for (String classValue : classes) {
@@ -81,120 +110,391 @@ public class Evaluator {
          CPCPClassifier<E> classy,
          List<E> documents, List<String> classes,
          int numFolds, long seed) {
-      long timestamp = System.currentTimeMillis();
+      return crossValidate(classy, documents, classes, numFolds, seed, false);
+   }
+
+   /**
+    * @param stratified Keep the proportion of each class about the same in every fold.
+    */
+   public static <E extends Document> Results crossValidate(
+         CPCPClassifier<E> classy,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, boolean stratified) {
+      return crossValidate(classy, documents, classes, numFolds, seed, stratified, false);
+   }
+
+   /**
+    * @param stratified Keep the proportion of each class about the same in every fold.
+    * @param profiled Record the phases of every fold into the Results.
+    *  Off, the Results have no fold profiles.
+    */
+   public static <E extends Document> Results crossValidate(
+         CPCPClassifier<E> classy,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, boolean stratified, boolean profiled) {
+      long timestamp = System.nanoTime();
 
       Set<String> classValueSet = getClassValues(classes);
       String[] classValues = classValueSet.toArray(new String[0]);
-      int size = classValues.length;
 
       GeneralConfusionMatrix confusionMatrix = new GeneralConfusionMatrix(classValues);
+      List<Profiler.Profile> profiles = new ArrayList<Profiler.Profile>();
 
       if (numFolds < 1) {
-         return new Results(confusionMatrix, (System.currentTimeMillis() - timestamp));
+         return new Results(confusionMatrix, profiles, System.nanoTime() - timestamp);
       }
 
-      List<TrainingDocument> trainingDocuments = TrainingDocument.buildList(documents, classes);
-
       // Split the training set into the number of folds.
-      List<List<TrainingDocument>> splitList = splitList(trainingDocuments, numFolds, seed);
+      int[][] folds = assignFolds(classes, numFolds, seed, stratified);
 
       for (int foldNdx = 0; foldNdx < numFolds; foldNdx++) {
-         List<String> trainClasses = new ArrayList<String>();
-         List<E> trainDocuments = new ArrayList<E>();
-
-         List<String> actualClasses = new ArrayList<String>();
-         List<E> toClassify = new ArrayList<E>();
-
-         // For all folds.
-         for (int ndx = 0; ndx < numFolds; ndx++) {
-            for (TrainingDocument trainDocument : splitList.get(ndx)) {
-               // If it is not the current fold.
-               if (ndx != foldNdx) {
-                  // Add to the training set.
-                  trainClasses.add(trainDocument.classValue);
-                  @SuppressWarnings("unchecked")
-                  E suppressWarningDocument = (E)trainDocument.document;
-                  trainDocuments.add(suppressWarningDocument);
-               } else {
-                  // Add to the classify set.
-                  actualClasses.add(trainDocument.classValue);
-                  @SuppressWarnings("unchecked")
-                  E suppressWarningDocument = (E)trainDocument.document;
-                  toClassify.add(suppressWarningDocument);
+         Profiler.Profile profile = profiled ? new Profiler.Profile() : null;
+         if (profiled) {
+            profiles.add(profile);
+         }
+
+         runFold(classy, new Fold<E>(documents, classes, folds, foldNdx), confusionMatrix,
+                 profile);
+      }
+
+      return new Results(confusionMatrix, profiles, System.nanoTime() - timestamp);
+   }
+
+   /**
+    * Cross validate with the folds running in parallel on |numThreads| threads.
+    * See crossValidate(ClassifierFactory, List, List, int, long, boolean, Executor).
+    */
+   public static <E extends Document> Results crossValidate(
+         ClassifierFactory<E> factory,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, int numThreads) {
+      return crossValidate(factory, documents, classes, numFolds, seed, false, numThreads);
+   }
+
+   /**
+    * Cross validate with the folds running in parallel on |numThreads| threads.
+    * See crossValidate(ClassifierFactory, List, List, int, long, boolean, Executor).
+    */
+   public static <E extends Document> Results crossValidate(
+         ClassifierFactory<E> factory,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, boolean stratified, int numThreads) {
+      ExecutorService pool = Executors.newFixedThreadPool(
+            ParallelUtils.numWorkers(numFolds, numThreads));
+
+      try {
+         return crossValidate(factory, documents, classes, numFolds, seed, stratified, pool);
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Cross validate with the folds running in parallel on |executor|.
+    */
+   public static <E extends Document> Results crossValidate(
+         ClassifierFactory<E> factory,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, Executor executor) {
+      return crossValidate(factory, documents, classes, numFolds, seed, false, executor);
+   }
+
+   /**
+    * Cross validate with the folds running in parallel on |executor|.
+    * See crossValidate(ClassifierFactory, List, List, int, long, boolean, Executor, boolean).
+    *
+    * @param stratified Keep the proportion of each class about the same in every fold.
+    */
+   public static <E extends Document> Results crossValidate(
+         ClassifierFactory<E> factory,
+         List<E> documents, List<String> classes,
+         int numFolds, long seed, boolean stratified, Executor executor) {
+      return crossValidate(factory, documents, classes, numFolds, seed, stratified, executor,
+                           false);
+   }
+
+   /**
+    * Cross validate with the folds running in parallel on |executor|.
+    * Every fold gets its own classifier from |factory| and its own confusion matrix,
+    *  and the matrices are merged once all the folds are done.
+    * The folds are the same ones that the sequential crossValidate() makes for the same seed,
+    *  so the merged matrix is the same as the sequential one.
+    *
+    * @param stratified Keep the proportion of each class about the same in every fold.
+    * @param profiled Record the phases of every fold into the Results.
+    *  Off, the Results have no fold profiles.
+    */
+   public static <E extends Document> Results crossValidate(
+         final ClassifierFactory<E> factory,
+         final List<E> documents, final List<String> classes,
+         int numFolds, long seed, boolean stratified, Executor executor, boolean profiled) {
+      long timestamp = System.nanoTime();
+
+      Set<String> classValueSet = getClassValues(classes);
+      final String[] classValues = classValueSet.toArray(new String[0]);
+
+      GeneralConfusionMatrix confusionMatrix = new GeneralConfusionMatrix(classValues);
+      List<Profiler.Profile> profiles = new ArrayList<Profiler.Profile>();
+
+      if (numFolds < 1) {
+         return new Results(confusionMatrix, profiles, System.nanoTime() - timestamp);
+      }
+
+      final int[][] folds = assignFolds(classes, numFolds, seed, stratified);
+
+      // A profile attached to the caller still gets everything the folds do
+      //  (runFold() adds each fold into whatever profile was attached before it).
+      final Profiler.Profile outerProfile = Profiler.current();
+
+      List<CompletableFuture<GeneralConfusionMatrix>> futures =
+            new ArrayList<CompletableFuture<GeneralConfusionMatrix>>(numFolds);
+      for (int foldNdx = 0; foldNdx < numFolds; foldNdx++) {
+         final int fold = foldNdx;
+         final Profiler.Profile profile = profiled ? new Profiler.Profile() : null;
+         if (profiled) {
+            profiles.add(profile);
+         }
+
+         futures.add(CompletableFuture.supplyAsync(new Supplier<GeneralConfusionMatrix>() {
+            public GeneralConfusionMatrix get() {
+               GeneralConfusionMatrix foldMatrix = new GeneralConfusionMatrix(classValues);
+
+               Profiler.Profile previous = Profiler.attach(outerProfile);
+               try {
+                  runFold(factory.newClassifier(),
+                          new Fold<E>(documents, classes, folds, fold),
+                          foldMatrix, profile);
+               } finally {
+                  Profiler.detach(previous);
                }
+
+               return foldMatrix;
+            }
+         }, executor));
+      }
+
+      // The folds already charge the caller's profile, so waiting for them charges nothing.
+      Profiler.Scope idle = Profiler.idle();
+      try {
+         for (CompletableFuture<GeneralConfusionMatrix> future : futures) {
+            try {
+               confusionMatrix.add(future.join());
+            } catch (CompletionException ex) {
+               if (ex.getCause() instanceof RuntimeException) {
+                  throw (RuntimeException)ex.getCause();
+               }
+
+               throw ex;
             }
          }
+      } finally {
+         idle.close();
+      }
+
+      return new Results(confusionMatrix, profiles, System.nanoTime() - timestamp);
+   }
 
+   /**
+    * Train |classy| on all but one fold, and add its predictions on that fold to |matrix|.
+    * The fold's phases are recorded into |profile|, and also into any profile that was
+    *  already attached to this thread.
+    * A null |profile| leaves the thread's profile as it is.
+    */
+   private static <E extends Document> void runFold(CPCPClassifier<E> classy, Fold<E> fold,
+                                                    GeneralConfusionMatrix matrix,
+                                                    Profiler.Profile profile) {
+      List<ClassificationResult> predictions;
+
+      Profiler.Profile previous = (profile == null) ? null : Profiler.attach(profile);
+      try {
          // Retrain the classifier on the new training set.
-         classy.train(trainDocuments, trainClasses);
+         Profiler.Scope scope = Profiler.enter(Profiler.Phase.TRAIN);
+         try {
+            classy.train(fold.trainDocuments, fold.trainClasses);
+         } finally {
+            scope.close();
+         }
 
          // Classify the current fold.
-         List<ClassificationResult> predictions = classy.classify(toClassify);
-
-         for (int stringNdx = 0; stringNdx < predictions.size(); stringNdx++) {
-            confusionMatrix.add(predictions.get(stringNdx).getClassValue(),
-                                actualClasses.get(stringNdx));
+         scope = Profiler.enter(Profiler.Phase.CLASSIFY);
+         try {
+            predictions = classy.classify(fold.toClassify);
+         } finally {
+            scope.close();
          }
+      } finally {
+         if (profile != null) {
+            Profiler.detach(previous);
+         }
+      }
+
+      if (previous != null) {
+         previous.add(profile);
       }
 
-      return new Results(confusionMatrix, (System.currentTimeMillis() - timestamp));
+      for (int stringNdx = 0; stringNdx < predictions.size(); stringNdx++) {
+         matrix.add(predictions.get(stringNdx).getClassValue(),
+                    fold.actualClasses.get(stringNdx));
+      }
    }
 
    /**
-    * Split the input data into the given number of folds.
-    * The given list will be destroyed in the process.
+    * Assign every document to one of |numFolds| folds.
+    * The document indexes are shuffled with a seeded Fisher-Yates shuffle and then dealt out
+    *  to the folds in turn, so the folds differ in size by at most one.
+    * When |stratified|, each class is shuffled and dealt separately (continuing from the fold
+    *  the last class stopped at), so every fold gets about the same share of every class.
+    * This is linear in the number of documents and does not touch the documents themselves.
     *
-    * @param inputLists All the lists to split
-    * @param numFolds The number of partitions for the list.
-    * @param seed The seed to use for partitioning the lists.
+    * @param classes The class of every document.
+    * @return The sorted document indexes in each fold, folds[foldNdx][i].
     */
-   private static <E extends TrainingDocument> List<List<E>> splitList(List<E> input,
-                                                                       int numFolds,
-                                                                       long seed) {
-      // Get a new Random
+   public static int[][] assignFolds(List<String> classes, int numFolds, long seed,
+                                     boolean stratified) {
+      if (numFolds < 1) {
+         throw new IllegalArgumentException("Need at least one fold, got " + numFolds);
+      }
+
+      int size = classes.size();
       Random rand = new Random(seed);
 
-      List<List<E>> outputLists = new ArrayList<List<E>>();
-      for (int i = 0; i < numFolds; i++) {
-         outputLists.add(new ArrayList<E>());
+      // Group the indexes by class (or all together), in order of first appearance.
+      int[] order = new int[size];
+      int[] groupEnds;
+      if (stratified) {
+         Map<String, Integer> groupLookup = new LinkedHashMap<String, Integer>();
+         int[] groupOf = new int[size];
+         for (int i = 0; i < size; i++) {
+            Integer group = groupLookup.get(classes.get(i));
+            if (group == null) {
+               group = Integer.valueOf(groupLookup.size());
+               groupLookup.put(classes.get(i), group);
+            }
+
+            groupOf[i] = group.intValue();
+         }
+
+         // Counting sort the indexes by group.
+         groupEnds = new int[groupLookup.size()];
+         for (int i = 0; i < size; i++) {
+            groupEnds[groupOf[i]]++;
+         }
+
+         int[] next = new int[groupEnds.length];
+         for (int group = 1; group < groupEnds.length; group++) {
+            groupEnds[group] += groupEnds[group - 1];
+            next[group] = groupEnds[group - 1];
+         }
+
+         for (int i = 0; i < size; i++) {
+            order[next[groupOf[i]]++] = i;
+         }
+      } else {
+         groupEnds = new int[]{size};
+         for (int i = 0; i < size; i++) {
+            order[i] = i;
+         }
+      }
+
+      // Shuffle each group in place.
+      int groupStart = 0;
+      for (int groupEnd : groupEnds) {
+         for (int i = groupEnd - 1; i > groupStart; i--) {
+            int swap = groupStart + rand.nextInt(i - groupStart + 1);
+            int temp = order[i];
+            order[i] = order[swap];
+            order[swap] = temp;
+         }
+
+         groupStart = groupEnd;
       }
 
-      int currentList = 0;
+      // Deal the indexes out in turn.
+      int[] foldOf = new int[size];
+      int[] foldSizes = new int[numFolds];
+      for (int i = 0; i < size; i++) {
+         foldOf[order[i]] = i % numFolds;
+         foldSizes[i % numFolds]++;
+      }
+
+      int[][] folds = new int[numFolds][];
+      for (int foldNdx = 0; foldNdx < numFolds; foldNdx++) {
+         folds[foldNdx] = new int[foldSizes[foldNdx]];
+         foldSizes[foldNdx] = 0;
+      }
+
+      for (int i = 0; i < size; i++) {
+         folds[foldOf[i]][foldSizes[foldOf[i]]++] = i;
+      }
 
-      // While there are still elements in the input list.
-      while (input.size() > 0) {
-         //Remove a random element from the main list and put it in the current sublist
-         int randInt = rand.nextInt(input.size());
-         outputLists.get(currentList).add(input.remove(randInt));
+      return folds;
+   }
 
-         currentList = (currentList + 1) % numFolds;
+   /**
+    * Get every index in [0, size) that is not in |fold|, in order.
+    * This is the training set for a test fold.
+    *
+    * @.pre fold is sorted, like the folds from assignFolds().
+    */
+   static int[] complement(int[] fold, int size) {
+      int[] rtn = new int[size - fold.length];
+
+      int rtnNdx = 0;
+      int foldNdx = 0;
+      for (int i = 0; i < size; i++) {
+         if (foldNdx < fold.length && fold[foldNdx] == i) {
+            foldNdx++;
+         } else {
+            rtn[rtnNdx++] = i;
+         }
       }
 
-      return outputLists;
+      return rtn;
    }
 
    /**
-    * A wrapper for a document and class value together.
+    * The training and test sets for one fold of a cross validation.
+    * These are views of the full document lists, nothing is copied.
     */
-   public static class TrainingDocument {
-      public Document document;
-      public String classValue;
+   private static class Fold<E extends Document> {
+      public final List<String> trainClasses;
+      public final List<E> trainDocuments;
 
-      public TrainingDocument(Document document, String classValue) {
-         this.document = document;
-         this.classValue = classValue;
+      public final List<String> actualClasses;
+      public final List<E> toClassify;
+
+      public Fold(List<E> documents, List<String> classes, int[][] folds, int foldNdx) {
+         int[] test = folds[foldNdx];
+         int[] train = complement(test, classes.size());
+
+         trainClasses = new IndexedList<String>(classes, train);
+         trainDocuments = new IndexedList<E>(documents, train);
+
+         actualClasses = new IndexedList<String>(classes, test);
+         toClassify = new IndexedList<E>(documents, test);
       }
+   }
+
+   /**
+    * A read-only view of some of the elements of a list.
+    */
+   static class IndexedList<T> extends AbstractList<T> implements RandomAccess {
+      private final List<T> list;
+      private final int[] indexes;
 
-      public static List<TrainingDocument> buildList(
-            List<? extends Document> documents,
-            List<String> classes) {
-         List<TrainingDocument> rtn = new ArrayList<TrainingDocument>();
+      public IndexedList(List<T> list, int[] indexes) {
+         this.list = list;
+         this.indexes = indexes;
+      }
 
-         for (int i = 0; i < documents.size(); i++) {
-            rtn.add(new TrainingDocument(documents.get(i), classes.get(i)));
-         }
+      @Override
+      public T get(int index) {
+         return list.get(indexes[index]);
+      }
 
-         return rtn;
+      @Override
+      public int size() {
+         return indexes.length;
       }
    }
 
@@ -202,29 +502,55 @@ public class Evaluator {
     * A container for all of the results of an evaluation.
     */
    public static class Results {
+      private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
       /**
        * The confusion matrix for this evaluation.
        */
       private GeneralConfusionMatrix confusionMatrix;
 
       /**
-       * The time it took in ms for the Evaluation to run.
+       * The wall time in ns that the evaluation took.
        */
-      private long time;
+      private long nanos;
+
+      /**
+       * The time and allocations of each phase of each fold.
+       */
+      private List<Profiler.Profile> foldProfiles;
 
       /**
        * Constructor for the Results.
+       *
+       * @param time The time in ms, there are no fold profiles.
        */
       public Results(GeneralConfusionMatrix confusionMatrix, long time) {
-         this.time = time;
+         this(confusionMatrix, new ArrayList<Profiler.Profile>(), time * 1000000);
+      }
+
+      /**
+       * @param foldProfiles The profile of each fold.
+       * @param nanos The wall time in ns.
+       */
+      public Results(GeneralConfusionMatrix confusionMatrix,
+                     List<Profiler.Profile> foldProfiles, long nanos) {
          this.confusionMatrix = confusionMatrix;
+         this.foldProfiles = Collections.unmodifiableList(foldProfiles);
+         this.nanos = nanos;
       }
 
       /**
-       * Get the amount of time that the evaluation took.
+       * Get the amount of time in ms that the evaluation took.
        */
       public long getTime() {
-         return time;
+         return nanos / 1000000;
+      }
+
+      /**
+       * Get the amount of wall time in ns that the evaluation took.
+       */
+      public long getNanoTime() {
+         return nanos;
       }
 
       /**
@@ -234,6 +560,41 @@ public class Evaluator {
          return confusionMatrix;
       }
 
+      /**
+       * Get the profile of every fold, in fold order.
+       * Parallel folds overlap, so these can add up to more than the wall time.
+       */
+      public List<Profiler.Profile> getFoldProfiles() {
+         return foldProfiles;
+      }
+
+      /**
+       * Get all the folds' profiles added together.
+       */
+      public Profiler.Profile getProfile() {
+         Profiler.Profile rtn = new Profiler.Profile();
+         for (Profiler.Profile profile : foldProfiles) {
+            rtn.add(profile);
+         }
+
+         return rtn;
+      }
+
+      /**
+       * Get the ns spent in |phase| over all the folds.
+       */
+      public long getNanos(Profiler.Phase phase) {
+         return getProfile().getNanos(phase);
+      }
+
+      /**
+       * Get the bytes allocated in |phase| over all the folds.
+       * Always zero if !Profiler.allocationsSupported().
+       */
+      public long getBytes(Profiler.Phase phase) {
+         return getProfile().getBytes(phase);
+      }
+
       /**
        * Return a string with a summary of the evaluation.
        */
@@ -241,9 +602,50 @@ public class Evaluator {
          String rtn = "";
 
          rtn += confusionMatrix.fullToString() + "\n";
-         rtn += "Runtime: " + time + "\n";
+         rtn += "Runtime: " + getTime() + "\n";
+
+         if (!foldProfiles.isEmpty()) {
+            rtn += "\nTime (ms):\n" + phaseTable(false);
+
+            if (Profiler.allocationsSupported()) {
+               rtn += "\nAllocated (MB):\n" + phaseTable(true);
+            }
+         }
 
          return rtn;
       }
+
+      /**
+       * A table with a row for each fold and the total, and a column for each phase.
+       */
+      private String phaseTable(boolean bytes) {
+         StringBuilder rtn = new StringBuilder();
+
+         rtn.append(String.format("%-6s", "Fold"));
+         for (Profiler.Phase phase : Profiler.Phase.values()) {
+            rtn.append(String.format(" | %13s", phase.name().toLowerCase()));
+         }
+         rtn.append(String.format(" | %10s\n", "total"));
+
+         List<Profiler.Profile> rows = new ArrayList<Profiler.Profile>(foldProfiles);
+         rows.add(getProfile());
+
+         for (int i = 0; i < rows.size(); i++) {
+            Profiler.Profile profile = rows.get(i);
+            rtn.append(String.format("%-6s", i < foldProfiles.size() ? "" + (i + 1) : "Total"));
+
+            for (Profiler.Phase phase : Profiler.Phase.values()) {
+               rtn.append(String.format(" | %13.1f",
+                                        bytes ? profile.getBytes(phase) / BYTES_PER_MB :
+                                                profile.getNanos(phase) / 1e6));
+            }
+
+            rtn.append(String.format(" | %10.1f\n",
+                                     bytes ? profile.getTotalBytes() / BYTES_PER_MB :
+                                             profile.getTotalNanos() / 1e6));
+         }
+
+         return rtn.toString();
+      }
    }
 }
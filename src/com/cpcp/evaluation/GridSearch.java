@@ -0,0 +1,478 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.document.TextDocument;
+import com.cpcp.document.TokenizedDocument;
+import com.cpcp.features.CachingFeatureSetGenerator;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.NGram;
+import com.cpcp.features.SF;
+import com.cpcp.filter.CachedFilter;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.filter.TextFilter;
+import com.cpcp.linear.LinearClassifier;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.weka.GeneralWekaClassifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Cross validates many classifier configurations in parallel and ranks them.
+ *
+ * Each configuration is one unit of work on the pool and runs its folds sequentially,
+ *  so a pool thread never waits on another one.
+ * Configurations that use the same FeatureSetGenerator should share one
+ *  CachingFeatureSetGenerator (addGrid() does this), and generators that use the same filter
+ *  should share one CachedFilter (like main() does). Then every document is only parsed once
+ *  per generator for the whole search, instead of once per configuration per fold.
+ *
+ * Usage: GridSearch [data file or token corpus] [folds] [threads] [samples]
+ *                   [NGram n values] [NGram min values] [SF k values] [SF b values]
+ *                   [SF n values] [SF min values]
+ *  If samples is more than zero, only that many configurations are picked at random
+ *  from the grid (a random search).
+ *  Each range of values is comma separated, like "1,2,3". An empty range skips that generator.
+ *  SF is skipped for a token corpus, since it picks its feature space from the raw text.
+ */
+public class GridSearch<E extends Document> {
+   private static final long SEED = 4;
+
+   private static final String DEFAULT_NGRAM_N = "1,2";
+   private static final String DEFAULT_NGRAM_MIN = "1,2,3";
+   private static final String DEFAULT_SF_K = "100,300,1000";
+   private static final String DEFAULT_SF_B = "0.5,1.0";
+   private static final String DEFAULT_SF_N = "1";
+   private static final String DEFAULT_SF_MIN = "5";
+
+   /**
+    * The classifiers that a grid can be made of.
+    * The search is already parallel, so the classifiers get one thread each.
+    */
+   public enum ClassifierKind {
+      WEKA_NAIVE_BAYES("Weka Naive Bayes") {
+         public <E extends Document> CPCPClassifier<E> newClassifier(
+               FeatureSetGenerator<E> fsg, List<String> possibleClasses) {
+            return new GeneralWekaClassifier<E>(new weka.classifiers.bayes.NaiveBayes(),
+                                                fsg, possibleClasses);
+         }
+      },
+      NATIVE_NAIVE_BAYES("Native Naive Bayes") {
+         public <E extends Document> CPCPClassifier<E> newClassifier(
+               FeatureSetGenerator<E> fsg, List<String> possibleClasses) {
+            return new NaiveBayesClassifier<E>(NaiveBayesClassifier.Model.MULTINOMIAL, 1.0, 1,
+                                               fsg, possibleClasses);
+         }
+      },
+      LOGISTIC_REGRESSION("Logistic Regression") {
+         public <E extends Document> CPCPClassifier<E> newClassifier(
+               FeatureSetGenerator<E> fsg, List<String> possibleClasses) {
+            LinearClassifier<E> classifier = new LinearClassifier<E>(
+                  LinearClassifier.Loss.LOGISTIC, fsg, possibleClasses);
+            classifier.setNumThreads(1);
+            return classifier;
+         }
+      };
+
+      private final String displayName;
+
+      private ClassifierKind(String displayName) {
+         this.displayName = displayName;
+      }
+
+      public String getDisplayName() {
+         return displayName;
+      }
+
+      public abstract <E extends Document> CPCPClassifier<E> newClassifier(
+            FeatureSetGenerator<E> fsg, List<String> possibleClasses);
+
+      /**
+       * Get a factory for this kind of classifier over |fsg|.
+       */
+      public <E extends Document> ClassifierFactory<E> factory(
+            final FeatureSetGenerator<E> fsg, final List<String> possibleClasses) {
+         return new ClassifierFactory<E>() {
+            public CPCPClassifier<E> newClassifier() {
+               return ClassifierKind.this.newClassifier(fsg, possibleClasses);
+            }
+         };
+      }
+   }
+
+   private final List<String> names;
+   private final List<ClassifierFactory<E>> factories;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int numFolds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int numThreads = args.length > 2 ? Integer.parseInt(args[2]) :
+                                         ParallelUtils.defaultThreads();
+      int samples = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      List<String> possibleClasses = new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      CachedFilter filter = new CachedFilter(new FullFilter());
+
+      int[] sfK = parseInts(args.length > 6 ? args[6] : DEFAULT_SF_K);
+      if (sfK.length > 0 && !documents.isEmpty() &&
+          documents.get(0) instanceof TokenizedDocument) {
+         System.out.println("Skipping SF, it needs the raw text and this is a token corpus.");
+         sfK = new int[0];
+      }
+
+      Map<String, FeatureSetGenerator<TextDocument>> fsgs = textGenerators(
+            parseInts(args.length > 4 ? args[4] : DEFAULT_NGRAM_N),
+            parseInts(args.length > 5 ? args[5] : DEFAULT_NGRAM_MIN),
+            sfK,
+            parseDoubles(args.length > 7 ? args[7] : DEFAULT_SF_B),
+            parseInts(args.length > 8 ? args[8] : DEFAULT_SF_N),
+            parseInts(args.length > 9 ? args[9] : DEFAULT_SF_MIN),
+            filter);
+
+      GridSearch<TextDocument> search = new GridSearch<TextDocument>();
+      search.addGrid(fsgs, EnumSet.allOf(ClassifierKind.class), possibleClasses);
+
+      if (samples > 0) {
+         search = search.sample(samples, SEED);
+      }
+
+      System.out.println(String.format("Running %d configurations, %d folds, %d threads.",
+                                       search.size(), numFolds, numThreads));
+
+      long start = System.currentTimeMillis();
+      List<Result> results = search.run(documents, classes, numFolds, SEED, true, numThreads);
+
+      System.out.println(toTable(results));
+      for (Result result : results) {
+         if (result.isFailed()) {
+            System.out.println(result);
+         }
+      }
+      System.out.println(String.format("Total time: %d ms, filter cache: %d hits, %d misses",
+                                       System.currentTimeMillis() - start,
+                                       filter.getHits(),
+                                       filter.getMisses()));
+   }
+
+   /**
+    * Make the NGram and SF generators for every combination of the given values.
+    * The SF generators all use SF's defaults of n=1 and unigramMin=5.
+    *
+    * @param filter The filter for all of the generators, usually a CachedFilter.
+    *
+    * @return The generators by name, in grid order.
+    */
+   public static Map<String, FeatureSetGenerator<TextDocument>> textGenerators(
+         int[] ngramN, int[] ngramMin, int[] sfK, double[] sfB, TextFilter filter) {
+      return textGenerators(ngramN, ngramMin, sfK, sfB, new int[]{1}, new int[]{5}, filter);
+   }
+
+   /**
+    * Make the NGram and SF generators for every combination of the given values.
+    * SF generators are only made if |sfK|, |sfB|, |sfN| and |sfMin| all have values.
+    *
+    * @param sfN The n values for SF.
+    * @param sfMin The unigramMin values for SF.
+    * @param filter The filter for all of the generators, usually a CachedFilter.
+    *
+    * @return The generators by name, in grid order.
+    */
+   public static Map<String, FeatureSetGenerator<TextDocument>> textGenerators(
+         int[] ngramN, int[] ngramMin, int[] sfK, double[] sfB, int[] sfN, int[] sfMin,
+         TextFilter filter) {
+      Map<String, FeatureSetGenerator<TextDocument>> rtn =
+            new LinkedHashMap<String, FeatureSetGenerator<TextDocument>>();
+
+      for (int n : ngramN) {
+         for (int min : ngramMin) {
+            rtn.put(String.format("NGram(n=%d, min=%d)", n, min), new NGram(n, min, filter));
+         }
+      }
+
+      for (int n : sfN) {
+         for (int min : sfMin) {
+            for (int k : sfK) {
+               for (double b : sfB) {
+                  rtn.put(String.format("SF(n=%d, min=%d, k=%d, b=%.1f)", n, min, k, b),
+                          new SF(n, min, k, b, filter));
+               }
+            }
+         }
+      }
+
+      return rtn;
+   }
+
+   private static int[] parseInts(String values) {
+      String[] parts = splitValues(values);
+      int[] rtn = new int[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+         rtn[i] = Integer.parseInt(parts[i].trim());
+      }
+
+      return rtn;
+   }
+
+   private static double[] parseDoubles(String values) {
+      String[] parts = splitValues(values);
+      double[] rtn = new double[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+         rtn[i] = Double.parseDouble(parts[i].trim());
+      }
+
+      return rtn;
+   }
+
+   private static String[] splitValues(String values) {
+      return values.trim().isEmpty() ? new String[0] : values.split(",");
+   }
+
+   public GridSearch() {
+      names = new ArrayList<String>();
+      factories = new ArrayList<ClassifierFactory<E>>();
+   }
+
+   /**
+    * Add a configuration to the search.
+    */
+   public void add(String name, ClassifierFactory<E> factory) {
+      names.add(name);
+      factories.add(factory);
+   }
+
+   /**
+    * Add a configuration for every pair of generator and classifier kind.
+    * Each generator is wrapped in one CachingFeatureSetGenerator that all of its
+    *  configurations share, so every document is parsed once per generator.
+    *
+    * @param fsgs The generators by the name to show for them.
+    */
+   public void addGrid(Map<String, ? extends FeatureSetGenerator<E>> fsgs,
+                       Collection<ClassifierKind> kinds, List<String> possibleClasses) {
+      for (Map.Entry<String, ? extends FeatureSetGenerator<E>> entry : fsgs.entrySet()) {
+         FeatureSetGenerator<E> fsg = new CachingFeatureSetGenerator<E>(entry.getValue());
+
+         for (ClassifierKind kind : kinds) {
+            add(kind.getDisplayName() + " / " + entry.getKey(), kind.factory(fsg, possibleClasses));
+         }
+      }
+   }
+
+   /**
+    * Get the number of configurations in the search.
+    */
+   public int size() {
+      return names.size();
+   }
+
+   /**
+    * Make a search of |count| configurations picked at random (without repeats) from this one.
+    */
+   public GridSearch<E> sample(int count, long seed) {
+      int[] order = new int[names.size()];
+      for (int i = 0; i < order.length; i++) {
+         order[i] = i;
+      }
+
+      // A partial Fisher-Yates shuffle, only the first |count| places are needed.
+      Random rand = new Random(seed);
+      count = Math.min(count, order.length);
+      for (int i = 0; i < count; i++) {
+         int swap = i + rand.nextInt(order.length - i);
+         int temp = order[i];
+         order[i] = order[swap];
+         order[swap] = temp;
+      }
+
+      GridSearch<E> rtn = new GridSearch<E>();
+      for (int i = 0; i < count; i++) {
+         rtn.add(names.get(order[i]), factories.get(order[i]));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Cross validate every configuration on the same folds, |numThreads| configurations
+    *  at a time.
+    * A configuration that throws gets a failed Result (see Result.isFailed()), so it does not
+    *  just disappear from the ranking.
+    *
+    * @return The results, best first, then the failures.
+    */
+   public List<Result> run(final List<E> documents, final List<String> classes,
+                           final int numFolds, final long seed, final boolean stratified,
+                           int numThreads) {
+      ExecutorService pool = Executors.newFixedThreadPool(
+            ParallelUtils.numWorkers(names.size(), numThreads));
+
+      List<Result> rtn = new ArrayList<Result>(names.size());
+      try {
+         List<CompletableFuture<Result>> futures =
+               new ArrayList<CompletableFuture<Result>>(names.size());
+         for (int i = 0; i < names.size(); i++) {
+            final String name = names.get(i);
+            final ClassifierFactory<E> factory = factories.get(i);
+
+            futures.add(CompletableFuture.supplyAsync(new Supplier<Result>() {
+               public Result get() {
+                  return new Result(name, Evaluator.crossValidate(factory.newClassifier(),
+                                                                  documents, classes,
+                                                                  numFolds, seed, stratified));
+               }
+            }, pool));
+         }
+
+         for (int i = 0; i < futures.size(); i++) {
+            try {
+               rtn.add(futures.get(i).join());
+            } catch (CompletionException ex) {
+               rtn.add(new Result(names.get(i), ex.getCause()));
+            }
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+
+      Collections.sort(rtn, new Comparator<Result>() {
+         public int compare(Result a, Result b) {
+            if (a.isFailed() || b.isFailed()) {
+               return Boolean.compare(a.isFailed(), b.isFailed());
+            }
+
+            if (a.getAccuracy() != b.getAccuracy()) {
+               return Double.compare(b.getAccuracy(), a.getAccuracy());
+            }
+
+            if (a.getFscore() != b.getFscore()) {
+               return Double.compare(b.getFscore(), a.getFscore());
+            }
+
+            return Long.compare(a.getTime(), b.getTime());
+         }
+      });
+
+      return rtn;
+   }
+
+   /**
+    * Format ranked results as a table.
+    */
+   public static String toTable(List<Result> results) {
+      int nameWidth = "Configuration".length();
+      for (Result result : results) {
+         nameWidth = Math.max(nameWidth, result.getName().length());
+      }
+
+      StringBuilder rtn = new StringBuilder();
+      String format = "%4s | %-" + nameWidth + "s | %8s | %8s | %9s\n";
+      rtn.append(String.format(format,
+                               "Rank", "Configuration", "Accuracy", "Macro F", "Time (ms)"));
+
+      for (int i = 0; i < results.size(); i++) {
+         Result result = results.get(i);
+         if (result.isFailed()) {
+            rtn.append(String.format(format, "-", result.getName(), "failed", "", ""));
+            continue;
+         }
+
+         rtn.append(String.format(format,
+                                  "" + (i + 1),
+                                  result.getName(),
+                                  String.format("%.4f", result.getAccuracy()),
+                                  String.format("%.4f", result.getFscore()),
+                                  "" + result.getTime()));
+      }
+
+      return rtn.toString();
+   }
+
+   /**
+    * The cross validation results of one configuration, or why it failed.
+    * The scores of a failed configuration are NaN and its time is -1.
+    */
+   public static class Result {
+      private final String name;
+      private final Evaluator.Results results;
+      private final Throwable failure;
+
+      public Result(String name, Evaluator.Results results) {
+         this.name = name;
+         this.results = results;
+         failure = null;
+      }
+
+      public Result(String name, Throwable failure) {
+         this.name = name;
+         results = null;
+         this.failure = failure;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      /**
+       * @return The results, or null if the configuration failed.
+       */
+      public Evaluator.Results getResults() {
+         return results;
+      }
+
+      public boolean isFailed() {
+         return failure != null;
+      }
+
+      /**
+       * @return What the configuration threw, or null if it did not fail.
+       */
+      public Throwable getFailure() {
+         return failure;
+      }
+
+      public double getAccuracy() {
+         return isFailed() ? Double.NaN : results.confusionMatrix().accuracy();
+      }
+
+      /**
+       * The macro averaged F1 score, since most of our corpora have more than two classes.
+       */
+      public double getFscore() {
+         return isFailed() ? Double.NaN : results.confusionMatrix().macroFscore();
+      }
+
+      /**
+       * The time the whole cross validation took in ms.
+       */
+      public long getTime() {
+         return isFailed() ? -1 : results.getTime();
+      }
+
+      public String toString() {
+         if (isFailed()) {
+            return String.format("%s: failed: %s", name, failure);
+         }
+
+         return String.format("%s: accuracy=%.4f, macroF=%.4f, time=%dms",
+                              name, getAccuracy(), getFscore(), getTime());
+      }
+   }
+}
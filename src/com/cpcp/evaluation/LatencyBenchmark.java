@@ -0,0 +1,99 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.weka.GeneralWekaClassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the latency of classifying one document at a time.
+ * The classifier is trained on the whole corpus, and then every document is classified
+ *  individually, both through classify(E) and through classify(List) with a single element.
+ *
+ * Usage: LatencyBenchmark [data file] [rounds]
+ */
+public class LatencyBenchmark {
+   private static final int WARMUP_ROUNDS = 5;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+
+      CPCPClassifier<TextDocument> classy = new GeneralWekaClassifier<TextDocument>(
+         new weka.classifiers.bayes.NaiveBayes(),
+         new NGram(1, 1, new FullFilter()),
+         new ArrayList<String>(Evaluator.getClassValues(classes)));
+      classy.train(documents, classes);
+
+      System.out.println(classy.getClass().getSimpleName() + " over " + documents.size() +
+                         " documents, " + rounds + " rounds.");
+
+      // Warm up both paths before measuring either.
+      measure(classy, documents, WARMUP_ROUNDS, true);
+      measure(classy, documents, WARMUP_ROUNDS, false);
+
+      long[] single = measure(classy, documents, rounds, true);
+      long[] batchOfOne = measure(classy, documents, rounds, false);
+
+      System.out.println("classify(E):       " + summarize(single));
+      System.out.println("classify(List(1)): " + summarize(batchOfOne));
+   }
+
+   /**
+    * Classify every document |rounds| times, one at a time.
+    *
+    * @return The latency of every call in nanoseconds.
+    */
+   private static long[] measure(CPCPClassifier<TextDocument> classy,
+                                 List<TextDocument> documents,
+                                 int rounds, boolean single) {
+      long[] latencies = new long[rounds * documents.size()];
+      List<TextDocument> singleton = new ArrayList<TextDocument>(1);
+      singleton.add(null);
+
+      int ndx = 0;
+      for (int round = 0; round < rounds; round++) {
+         for (TextDocument document : documents) {
+            long start = System.nanoTime();
+
+            if (single) {
+               classy.classify(document);
+            } else {
+               singleton.set(0, document);
+               classy.classify(singleton);
+            }
+
+            latencies[ndx++] = System.nanoTime() - start;
+         }
+      }
+
+      return latencies;
+   }
+
+   private static String summarize(long[] latencies) {
+      Arrays.sort(latencies);
+
+      return String.format("p50: %8.1fus, p99: %8.1fus, p999: %8.1fus, max: %8.1fus",
+                           percentile(latencies, 0.50) / 1000.0,
+                           percentile(latencies, 0.99) / 1000.0,
+                           percentile(latencies, 0.999) / 1000.0,
+                           latencies[latencies.length - 1] / 1000.0);
+   }
+
+   /**
+    * Get a percentile out of sorted values using the nearest-rank method.
+    */
+   static long percentile(long[] sorted, double fraction) {
+      int rank = (int)Math.ceil(fraction * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+   }
+}
@@ -0,0 +1,383 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.CachedFilter;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.linear.LinearClassifier;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.math.GeneralConfusionMatrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures accuracy as a function of the size of the training set.
+ *
+ * The corpus is split into folds like crossValidate() does. For every fold, the rest of the
+ *  corpus is shuffled and the classifier is trained on growing prefixes of it, each one
+ *  scored against the held out fold. The scores of all the folds are merged per step.
+ *
+ * Updateable classifiers (like NaiveBayesClassifier) are trained on the first step and then
+ *  only update()d with the documents that each later step adds, so the feature space and
+ *  counts grow instead of being rebuilt. The folds run concurrently.
+ * Note that an updated model is not always the same as a retrained one,
+ *  for example the minimum count of an NGram is only applied by train().
+ * Other classifiers are retrained for every step, and then every step of every fold runs
+ *  concurrently.
+ *
+ * Usage: LearningCurve [data file or token corpus] [folds] [steps] [threads]
+ */
+public class LearningCurve {
+   private static final long SEED = 4;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int numFolds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int numSteps = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+      int numThreads = args.length > 3 ? Integer.parseInt(args[3]) :
+                                         ParallelUtils.defaultThreads();
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      final List<String> possibleClasses =
+            new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      final NGram fsg = new NGram(1, 1, new CachedFilter(new FullFilter()));
+
+      System.out.println("Native Naive Bayes (incremental)");
+      System.out.println(run(new ClassifierFactory<TextDocument>() {
+         public CPCPClassifier<TextDocument> newClassifier() {
+            return new NaiveBayesClassifier<TextDocument>(NaiveBayesClassifier.Model.MULTINOMIAL,
+                                                          1.0, 1, fsg, possibleClasses);
+         }
+      }, documents, classes, evenSteps(numSteps), numFolds, SEED, numThreads));
+
+      System.out.println("Logistic Regression (retrained)");
+      System.out.println(run(new ClassifierFactory<TextDocument>() {
+         public CPCPClassifier<TextDocument> newClassifier() {
+            LinearClassifier<TextDocument> classifier = new LinearClassifier<TextDocument>(
+                  LinearClassifier.Loss.LOGISTIC, fsg, possibleClasses);
+            classifier.setNumThreads(1);
+            return classifier;
+         }
+      }, documents, classes, evenSteps(numSteps), numFolds, SEED, numThreads));
+   }
+
+   /**
+    * Private to promote static behavior.
+    */
+   private LearningCurve() {
+   }
+
+   /**
+    * Get |numSteps| evenly spaced fractions: 1/numSteps, 2/numSteps, ..., 1.
+    */
+   public static double[] evenSteps(int numSteps) {
+      double[] rtn = new double[numSteps];
+      for (int i = 0; i < numSteps; i++) {
+         rtn[i] = (i + 1) / (double)numSteps;
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Run a learning curve.
+    *
+    * @param fractions The size of each step as a fraction of each fold's training set,
+    *  in increasing order.
+    */
+   public static <E extends Document> Curve run(final ClassifierFactory<E> factory,
+                                                final List<E> documents,
+                                                final List<String> classes,
+                                                final double[] fractions,
+                                                int numFolds, final long seed,
+                                                int numThreads) {
+      if (numFolds < 2) {
+         throw new IllegalArgumentException("Need at least two folds, got " + numFolds);
+      }
+
+      for (int i = 0; i < fractions.length; i++) {
+         if (fractions[i] <= 0 || fractions[i] > 1 ||
+             (i > 0 && fractions[i] <= fractions[i - 1])) {
+            throw new IllegalArgumentException("Fractions must be increasing and in (0, 1].");
+         }
+      }
+
+      long timestamp = System.currentTimeMillis();
+
+      final String[] classValues = Evaluator.getClassValues(classes).toArray(new String[0]);
+      final int[][] folds = Evaluator.assignFolds(classes, numFolds, seed, true);
+      final boolean incremental = factory.newClassifier().isUpdateable();
+
+      final StepResult[][] results = new StepResult[fractions.length][numFolds];
+
+      int numTasks = incremental ? numFolds : numFolds * fractions.length;
+      ExecutorService pool = Executors.newFixedThreadPool(
+            ParallelUtils.numWorkers(numTasks, numThreads));
+
+      try {
+         List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+         for (int foldNdx = 0; foldNdx < numFolds; foldNdx++) {
+            final int fold = foldNdx;
+            final int[] trainOrder = trainOrder(folds, fold, classes.size(), seed);
+
+            if (incremental) {
+               futures.add(CompletableFuture.runAsync(new Runnable() {
+                  public void run() {
+                     CPCPClassifier<E> classifier = factory.newClassifier();
+                     for (int step = 0; step < fractions.length; step++) {
+                        results[step][fold] = runStep(classifier, documents, classes,
+                                                      folds[fold], trainOrder, fractions, step,
+                                                      true, classValues);
+                     }
+                  }
+               }, pool));
+            } else {
+               for (int stepNdx = 0; stepNdx < fractions.length; stepNdx++) {
+                  final int step = stepNdx;
+                  futures.add(CompletableFuture.runAsync(new Runnable() {
+                     public void run() {
+                        results[step][fold] = runStep(factory.newClassifier(),
+                                                      documents, classes, folds[fold],
+                                                      trainOrder, fractions, step, false,
+                                                      classValues);
+                     }
+                  }, pool));
+               }
+            }
+         }
+
+         for (CompletableFuture<Void> future : futures) {
+            try {
+               future.join();
+            } catch (CompletionException ex) {
+               if (ex.getCause() instanceof RuntimeException) {
+                  throw (RuntimeException)ex.getCause();
+               }
+
+               throw ex;
+            }
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+
+      List<Point> points = new ArrayList<Point>(fractions.length);
+      for (int step = 0; step < fractions.length; step++) {
+         points.add(new Point(fractions[step], results[step], classValues));
+      }
+
+      return new Curve(points, incremental, System.currentTimeMillis() - timestamp);
+   }
+
+   /**
+    * Every document that is not in |fold|, shuffled.
+    */
+   private static int[] trainOrder(int[][] folds, int fold, int size, long seed) {
+      int[] rtn = Evaluator.complement(folds[fold], size);
+
+      Random rand = new Random(seed + fold);
+      for (int i = rtn.length - 1; i > 0; i--) {
+         int swap = rand.nextInt(i + 1);
+         int temp = rtn[i];
+         rtn[i] = rtn[swap];
+         rtn[swap] = temp;
+      }
+
+      return rtn;
+   }
+
+   private static int stepSize(double[] fractions, int step, int trainSize) {
+      return Math.max(1, (int)Math.round(fractions[step] * trainSize));
+   }
+
+   /**
+    * Get the classifier to the size of |step| and score it on the test fold.
+    * When |incremental|, |classifier| must already be at the size of the previous step.
+    */
+   private static <E extends Document> StepResult runStep(CPCPClassifier<E> classifier,
+                                                          List<E> documents,
+                                                          List<String> classes,
+                                                          int[] test, int[] trainOrder,
+                                                          double[] fractions, int step,
+                                                          boolean incremental,
+                                                          String[] classValues) {
+      int size = stepSize(fractions, step, trainOrder.length);
+      int start = 0;
+      if (incremental && step > 0) {
+         start = stepSize(fractions, step - 1, trainOrder.length);
+      }
+
+      int[] added = new int[size - start];
+      System.arraycopy(trainOrder, start, added, 0, added.length);
+
+      long trainStart = System.nanoTime();
+      if (start == 0) {
+         classifier.train(new Evaluator.IndexedList<E>(documents, added),
+                          new Evaluator.IndexedList<String>(classes, added));
+      } else if (added.length > 0) {
+         classifier.update(new Evaluator.IndexedList<E>(documents, added),
+                           new Evaluator.IndexedList<String>(classes, added));
+         classifier.publish();
+      }
+      long trainNanos = System.nanoTime() - trainStart;
+
+      long classifyStart = System.nanoTime();
+      List<ClassificationResult> predictions =
+            classifier.classify(new Evaluator.IndexedList<E>(documents, test));
+      long classifyNanos = System.nanoTime() - classifyStart;
+
+      GeneralConfusionMatrix matrix = new GeneralConfusionMatrix(classValues);
+      for (int i = 0; i < test.length; i++) {
+         matrix.add(predictions.get(i).getClassValue(), classes.get(test[i]));
+      }
+
+      return new StepResult(size, matrix, trainNanos, classifyNanos);
+   }
+
+   /**
+    * One step of one fold.
+    */
+   private static class StepResult {
+      public final int trainSize;
+      public final GeneralConfusionMatrix matrix;
+      public final long trainNanos;
+      public final long classifyNanos;
+
+      public StepResult(int trainSize, GeneralConfusionMatrix matrix,
+                        long trainNanos, long classifyNanos) {
+         this.trainSize = trainSize;
+         this.matrix = matrix;
+         this.trainNanos = trainNanos;
+         this.classifyNanos = classifyNanos;
+      }
+   }
+
+   /**
+    * One step of the curve, over all the folds.
+    */
+   public static class Point {
+      private final double fraction;
+      private final double meanTrainSize;
+      private final GeneralConfusionMatrix confusionMatrix;
+      private final long trainNanos;
+      private final long classifyNanos;
+
+      private Point(double fraction, StepResult[] folds, String[] classValues) {
+         this.fraction = fraction;
+
+         confusionMatrix = new GeneralConfusionMatrix(classValues);
+         long totalSize = 0;
+         long totalTrain = 0;
+         long totalClassify = 0;
+         for (StepResult fold : folds) {
+            confusionMatrix.add(fold.matrix);
+            totalSize += fold.trainSize;
+            totalTrain += fold.trainNanos;
+            totalClassify += fold.classifyNanos;
+         }
+
+         meanTrainSize = totalSize / (double)folds.length;
+         trainNanos = totalTrain;
+         classifyNanos = totalClassify;
+      }
+
+      public double getFraction() {
+         return fraction;
+      }
+
+      /**
+       * Get the mean number of training documents over the folds.
+       */
+      public double getTrainSize() {
+         return meanTrainSize;
+      }
+
+      /**
+       * Get the predictions of all the folds at this step.
+       */
+      public GeneralConfusionMatrix confusionMatrix() {
+         return confusionMatrix;
+      }
+
+      /**
+       * Get the time spent training (or updating) for this step, summed over the folds.
+       */
+      public long getTrainNanos() {
+         return trainNanos;
+      }
+
+      /**
+       * Get the time spent classifying the held out folds, summed over the folds.
+       */
+      public long getClassifyNanos() {
+         return classifyNanos;
+      }
+   }
+
+   /**
+    * A whole learning curve.
+    */
+   public static class Curve {
+      private final List<Point> points;
+      private final boolean incremental;
+      private final long time;
+
+      private Curve(List<Point> points, boolean incremental, long time) {
+         this.points = Collections.unmodifiableList(points);
+         this.incremental = incremental;
+         this.time = time;
+      }
+
+      public List<Point> getPoints() {
+         return points;
+      }
+
+      /**
+       * Check if the steps were update()s instead of retrains.
+       */
+      public boolean isIncremental() {
+         return incremental;
+      }
+
+      /**
+       * Get the wall time of the whole curve in ms.
+       */
+      public long getTime() {
+         return time;
+      }
+
+      public String toString() {
+         StringBuilder rtn = new StringBuilder();
+         String format = "%8s | %10s | %8s | %8s | %10s | %13s\n";
+
+         rtn.append(String.format(format, "Fraction", "Train size", "Accuracy", "Macro F",
+                                  incremental ? "Update ms" : "Train ms", "Classify ms"));
+         for (Point point : points) {
+            rtn.append(String.format(format,
+                                     String.format("%.3f", point.getFraction()),
+                                     String.format("%.1f", point.getTrainSize()),
+                                     String.format("%.4f", point.confusionMatrix().accuracy()),
+                                     String.format("%.4f", point.confusionMatrix().macroFscore()),
+                                     String.format("%.1f", point.getTrainNanos() / 1e6),
+                                     String.format("%.1f", point.getClassifyNanos() / 1e6)));
+         }
+         rtn.append("Runtime: " + time + " ms\n");
+
+         return rtn.toString();
+      }
+   }
+}
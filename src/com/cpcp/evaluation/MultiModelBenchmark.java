@@ -0,0 +1,97 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.TextDocument;
+import com.cpcp.ensemble.MultiModelScorer;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.linear.LinearClassifier;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how much MultiModelScorer saves over calling each model separately.
+ * Three models over two generator configurations (Naive Bayes and logistic regression over
+ *  unigrams, Naive Bayes over bigrams) are trained on the whole corpus, and then every
+ *  document is scored one at a time, both ways.
+ *
+ * Usage: MultiModelBenchmark [data file] [rounds]
+ */
+public class MultiModelBenchmark {
+   private static final int WARMUP_ROUNDS = 5;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      List<String> possibleClasses = new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      NGram unigrams = new NGram(1, 1, new FullFilter());
+      NGram bigrams = new NGram(2, 1, new FullFilter());
+
+      Map<String, CPCPClassifier<TextDocument>> models =
+            new LinkedHashMap<String, CPCPClassifier<TextDocument>>();
+      models.put("Naive Bayes / unigrams", new NaiveBayesClassifier<TextDocument>(
+            NaiveBayesClassifier.Model.MULTINOMIAL, unigrams, possibleClasses));
+      models.put("Logistic Regression / unigrams", new LinearClassifier<TextDocument>(
+            LinearClassifier.Loss.LOGISTIC, unigrams, possibleClasses));
+      models.put("Naive Bayes / bigrams", new NaiveBayesClassifier<TextDocument>(
+            NaiveBayesClassifier.Model.MULTINOMIAL, bigrams, possibleClasses));
+
+      for (CPCPClassifier<TextDocument> model : models.values()) {
+         model.train(documents, classes);
+      }
+
+      MultiModelScorer<TextDocument> scorer = new MultiModelScorer<TextDocument>(models);
+
+      System.out.println(String.format("%d models in %d groups over %d documents, %d rounds.",
+                                       models.size(), scorer.getNumGroups(),
+                                       documents.size(), rounds));
+
+      // Warm up both paths before measuring either.
+      measure(models, scorer, documents, WARMUP_ROUNDS, true);
+      measure(models, scorer, documents, WARMUP_ROUNDS, false);
+
+      long separate = measure(models, scorer, documents, rounds, true);
+      long shared = measure(models, scorer, documents, rounds, false);
+
+      System.out.println(String.format("Separately:       %8.1f ms", separate / 1e6));
+      System.out.println(String.format("MultiModelScorer: %8.1f ms (%.1f%% less time)",
+                                       shared / 1e6, 100.0 * (separate - shared) / separate));
+   }
+
+   /**
+    * Score every document |rounds| times, one at a time.
+    *
+    * @param separate True to call every model on its own, false to go through |scorer|.
+    *
+    * @return The total time in nanoseconds.
+    */
+   private static long measure(Map<String, CPCPClassifier<TextDocument>> models,
+                               MultiModelScorer<TextDocument> scorer,
+                               List<TextDocument> documents,
+                               int rounds, boolean separate) {
+      long start = System.nanoTime();
+
+      for (int round = 0; round < rounds; round++) {
+         for (TextDocument document : documents) {
+            if (separate) {
+               for (CPCPClassifier<TextDocument> model : models.values()) {
+                  model.classify(document);
+               }
+            } else {
+               scorer.classify(document);
+            }
+         }
+      }
+
+      return System.nanoTime() - start;
+   }
+}
@@ -0,0 +1,90 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.linear.LinearClassifier;
+import com.cpcp.linear.LinearModelSource;
+import com.cpcp.linear.QuantizedLinearClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how much accuracy quantized models lose against how much memory they save.
+ * Accuracy is from cross validation, memory is the size of the weights of a model
+ *  trained on the whole corpus.
+ *
+ * Usage: QuantizationBenchmark [data file] [folds]
+ */
+public class QuantizationBenchmark {
+   private static final long SEED = 4;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int numFolds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      List<String> possibleClasses = new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      String[] names = {"Native Naive Bayes", "Logistic Regression"};
+      for (int classifierNdx = 0; classifierNdx < names.length; classifierNdx++) {
+         System.out.println(names[classifierNdx]);
+
+         CPCPClassifier<TextDocument> full = makeClassifier(classifierNdx, possibleClasses);
+         double fullAccuracy = Evaluator.crossValidate(full, documents, classes, numFolds, SEED)
+                                        .confusionMatrix().accuracy();
+
+         full.train(documents, classes);
+         long fullBytes = ((LinearModelSource)full).getLinearModel().byteSize();
+
+         System.out.println(String.format("   %-7s accuracy: %.4f, weights: %10d bytes",
+                                          "double", fullAccuracy, fullBytes));
+
+         for (int bits : new int[]{16, 8}) {
+            QuantizedLinearClassifier<TextDocument> quantized =
+                  quantize(makeClassifier(classifierNdx, possibleClasses), bits);
+            double accuracy = Evaluator.crossValidate(quantized, documents, classes,
+                                                      numFolds, SEED)
+                                       .confusionMatrix().accuracy();
+
+            quantized.train(documents, classes);
+            long bytes = quantized.byteSize();
+
+            System.out.println(String.format(
+                  "   %-7s accuracy: %.4f, weights: %10d bytes (%.1fx smaller, %+.4f accuracy)",
+                  bits + " bit", accuracy, bytes,
+                  (double)fullBytes / bytes, accuracy - fullAccuracy));
+         }
+      }
+   }
+
+   private static CPCPClassifier<TextDocument> makeClassifier(int classifierNdx,
+                                                              List<String> possibleClasses) {
+      NGram fsg = new NGram(1, 1, new FullFilter());
+
+      if (classifierNdx == 0) {
+         return new NaiveBayesClassifier<TextDocument>(NaiveBayesClassifier.Model.MULTINOMIAL,
+                                                       fsg, possibleClasses);
+      }
+
+      return new LinearClassifier<TextDocument>(LinearClassifier.Loss.LOGISTIC,
+                                                fsg, possibleClasses);
+   }
+
+   private static QuantizedLinearClassifier<TextDocument> quantize(
+         CPCPClassifier<TextDocument> source, int bits) {
+      // Both classifiers that makeClassifier() makes are LinearModelSources.
+      if (source instanceof NaiveBayesClassifier) {
+         return new QuantizedLinearClassifier<TextDocument>(
+               (NaiveBayesClassifier<TextDocument>)source, bits);
+      }
+
+      return new QuantizedLinearClassifier<TextDocument>(
+            (LinearClassifier<TextDocument>)source, bits);
+   }
+}
@@ -0,0 +1,256 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.CachingFeatureSetGenerator;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.CachedFilter;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.math.RunningStdDev;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Cross validates configurations many times with different seeds, to see how much of the
+ *  difference between them is just noise from the fold assignment.
+ *
+ * Every (configuration, seed) run is one unit of work on a pool and runs its folds
+ *  sequentially. Every configuration sees the same seeds.
+ * The runs repeat the same documents many times, so configurations should share a
+ *  CachingFeatureSetGenerator (and a CachedFilter for building the feature spaces),
+ *  like main() does.
+ *
+ * Usage: RepeatedCrossValidation [data file or token corpus] [folds] [repeats] [threads]
+ */
+public class RepeatedCrossValidation {
+   private static final long SEED = 4;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int numFolds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int numRepeats = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+      int numThreads = args.length > 3 ? Integer.parseInt(args[3]) :
+                                         ParallelUtils.defaultThreads();
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      List<String> possibleClasses = new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      CachedFilter filter = new CachedFilter(new FullFilter());
+      Map<String, ClassifierFactory<TextDocument>> configurations =
+            new LinkedHashMap<String, ClassifierFactory<TextDocument>>();
+      for (int n = 1; n <= 2; n++) {
+         for (int min = 1; min <= 3; min++) {
+            configurations.put(String.format("Native Naive Bayes / NGram(n=%d, min=%d)", n, min),
+                               naiveBayes(new CachingFeatureSetGenerator<TextDocument>(
+                                                new NGram(n, min, filter)),
+                                          possibleClasses));
+         }
+      }
+
+      List<Summary> summaries = run(configurations, documents, classes, numFolds,
+                                    seeds(numRepeats, SEED), true, numThreads);
+      System.out.println(toTable(summaries));
+   }
+
+   private static ClassifierFactory<TextDocument> naiveBayes(
+         final FeatureSetGenerator<TextDocument> fsg, final List<String> possibleClasses) {
+      return new ClassifierFactory<TextDocument>() {
+         public CPCPClassifier<TextDocument> newClassifier() {
+            return new NaiveBayesClassifier<TextDocument>(NaiveBayesClassifier.Model.MULTINOMIAL,
+                                                          1.0, 1, fsg, possibleClasses);
+         }
+      };
+   }
+
+   /**
+    * Private to promote static behavior.
+    */
+   private RepeatedCrossValidation() {
+   }
+
+   /**
+    * Make |numRepeats| seeds from one seed.
+    */
+   public static long[] seeds(int numRepeats, long seed) {
+      Random rand = new Random(seed);
+
+      long[] rtn = new long[numRepeats];
+      for (int i = 0; i < numRepeats; i++) {
+         rtn[i] = rand.nextLong();
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Cross validate every configuration once per seed.
+    *
+    * @return A summary of each configuration, in the order they were given.
+    */
+   public static <E extends Document> List<Summary> run(
+         Map<String, ? extends ClassifierFactory<E>> configurations,
+         final List<E> documents, final List<String> classes,
+         final int numFolds, long[] seeds, final boolean stratified, int numThreads) {
+      List<String> names = new ArrayList<String>(configurations.keySet());
+      List<ClassifierFactory<E>> factories =
+            new ArrayList<ClassifierFactory<E>>(configurations.values());
+
+      ExecutorService pool = Executors.newFixedThreadPool(
+            ParallelUtils.numWorkers(names.size() * seeds.length, numThreads));
+
+      List<Summary> rtn = new ArrayList<Summary>(names.size());
+      try {
+         List<List<CompletableFuture<Evaluator.Results>>> futures =
+               new ArrayList<List<CompletableFuture<Evaluator.Results>>>(names.size());
+         for (final ClassifierFactory<E> factory : factories) {
+            List<CompletableFuture<Evaluator.Results>> runs =
+                  new ArrayList<CompletableFuture<Evaluator.Results>>(seeds.length);
+
+            for (final long seed : seeds) {
+               runs.add(CompletableFuture.supplyAsync(new Supplier<Evaluator.Results>() {
+                  public Evaluator.Results get() {
+                     return Evaluator.crossValidate(factory.newClassifier(), documents, classes,
+                                                    numFolds, seed, stratified);
+                  }
+               }, pool));
+            }
+
+            futures.add(runs);
+         }
+
+         // RunningStdDev is not thread-safe, so the runs are added in seed order
+         //  once they are done. This also makes the summaries reproducible.
+         for (int i = 0; i < names.size(); i++) {
+            Summary summary = new Summary(names.get(i));
+
+            for (CompletableFuture<Evaluator.Results> future : futures.get(i)) {
+               try {
+                  summary.add(future.join());
+               } catch (CompletionException ex) {
+                  if (ex.getCause() instanceof RuntimeException) {
+                     throw (RuntimeException)ex.getCause();
+                  }
+
+                  throw ex;
+               }
+            }
+
+            rtn.add(summary);
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Format summaries as a table.
+    */
+   public static String toTable(List<Summary> summaries) {
+      int nameWidth = "Configuration".length();
+      for (Summary summary : summaries) {
+         nameWidth = Math.max(nameWidth, summary.getName().length());
+      }
+
+      StringBuilder rtn = new StringBuilder();
+      String format = "%-" + nameWidth + "s | %4s | %-25s | %-25s | %10s\n";
+      rtn.append(String.format(format, "Configuration", "Runs",
+                               "Accuracy (sd, 95% CI)", "Macro F (sd, 95% CI)", "Mean ms"));
+
+      for (Summary summary : summaries) {
+         rtn.append(String.format(format,
+                                  summary.getName(),
+                                  "" + summary.getAccuracy().getCount(),
+                                  describe(summary.getAccuracy()),
+                                  describe(summary.getFscore()),
+                                  String.format("%.1f", summary.getTime().getMean())));
+      }
+
+      return rtn.toString();
+   }
+
+   private static String describe(RunningStdDev stat) {
+      return String.format("%.4f (%.4f, +-%.4f)",
+                           stat.getMean(), stat.getStdDev(), stat.getConfidence95());
+   }
+
+   /**
+    * The statistics of all the runs of one configuration.
+    */
+   public static class Summary {
+      private final String name;
+      private final RunningStdDev accuracy;
+      private final RunningStdDev fscore;
+      private final RunningStdDev time;
+      private final List<Evaluator.Results> runs;
+
+      public Summary(String name) {
+         this.name = name;
+         accuracy = new RunningStdDev();
+         fscore = new RunningStdDev();
+         time = new RunningStdDev();
+         runs = new ArrayList<Evaluator.Results>();
+      }
+
+      /**
+       * Add the results of one run.
+       */
+      public void add(Evaluator.Results results) {
+         runs.add(results);
+         accuracy.addValue(results.confusionMatrix().accuracy());
+         fscore.addValue(results.confusionMatrix().macroFscore());
+         time.addValue(results.getTime());
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public RunningStdDev getAccuracy() {
+         return accuracy;
+      }
+
+      /**
+       * The macro averaged F1 score of each run.
+       */
+      public RunningStdDev getFscore() {
+         return fscore;
+      }
+
+      /**
+       * The time of each run in ms.
+       */
+      public RunningStdDev getTime() {
+         return time;
+      }
+
+      /**
+       * Get the full results of every run, in seed order.
+       */
+      public List<Evaluator.Results> getRuns() {
+         return runs;
+      }
+
+      public String toString() {
+         return String.format("%s: accuracy=%s, macroF=%s, time=%.1fms over %d runs",
+                              name, describe(accuracy), describe(fscore),
+                              time.getMean(), accuracy.getCount());
+      }
+   }
+}
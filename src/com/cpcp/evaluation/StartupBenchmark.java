@@ -0,0 +1,90 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.bayes.NaiveBayesClassifier;
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.io.ModelIO;
+import com.cpcp.weka.GeneralWekaClassifier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares getting a classifier ready by retraining on the corpus against loading a saved model.
+ * Retraining includes loading and filtering the corpus, since a restarted service has to do both.
+ *
+ * Usage: StartupBenchmark [data file] [rounds]
+ */
+public class StartupBenchmark {
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+      File modelFile = File.createTempFile("cpcp-model", ".bin");
+      modelFile.deleteOnExit();
+
+      String[] names = {"Native Naive Bayes", "WEKA Naive Bayes"};
+      for (int classifierNdx = 0; classifierNdx < names.length; classifierNdx++) {
+         long trainTime = Long.MAX_VALUE;
+         long loadTime = Long.MAX_VALUE;
+
+         CPCPClassifier<TextDocument> trained = null;
+         CPCPClassifier<TextDocument> loaded = null;
+         List<TextDocument> documents = null;
+
+         // Keep the best of several rounds so that JIT warmup does not dominate.
+         for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+
+            documents = new ArrayList<TextDocument>();
+            List<String> classes = new ArrayList<String>();
+            Evaluator.loadTrainingSet(path, "`", documents, classes);
+
+            trained = makeClassifier(classifierNdx, new ArrayList<String>(
+                  Evaluator.getClassValues(classes)));
+            trained.train(documents, classes);
+
+            trainTime = Math.min(trainTime, System.nanoTime() - start);
+
+            ModelIO.save(trained, modelFile);
+
+            start = System.nanoTime();
+            loaded = ModelIO.load(modelFile);
+            loadTime = Math.min(loadTime, System.nanoTime() - start);
+         }
+
+         int agree = 0;
+         List<String> trainedPredictions = trained.classifyToString(documents);
+         List<String> loadedPredictions = loaded.classifyToString(documents);
+         for (int i = 0; i < documents.size(); i++) {
+            if (trainedPredictions.get(i).equals(loadedPredictions.get(i))) {
+               agree++;
+            }
+         }
+
+         System.out.println(names[classifierNdx]);
+         System.out.println(String.format("   Retrain: %10.2f ms", trainTime / 1000000.0));
+         System.out.println(String.format("   Load:    %10.2f ms (%d bytes)",
+                                          loadTime / 1000000.0, modelFile.length()));
+         System.out.println(String.format("   Speedup: %10.1fx", (double)trainTime / loadTime));
+         System.out.println(String.format("   Identical predictions: %d / %d",
+                                          agree, documents.size()));
+      }
+   }
+
+   private static CPCPClassifier<TextDocument> makeClassifier(int classifierNdx,
+                                                              List<String> possibleClasses) {
+      NGram fsg = new NGram(1, 1, new FullFilter());
+
+      if (classifierNdx == 0) {
+         return new NaiveBayesClassifier<TextDocument>(NaiveBayesClassifier.Model.MULTINOMIAL,
+                                                       fsg, possibleClasses);
+      }
+
+      return new GeneralWekaClassifier<TextDocument>(new weka.classifiers.bayes.NaiveBayes(),
+                                                     fsg, possibleClasses);
+   }
+}
@@ -0,0 +1,76 @@
+package com.cpcp.evaluation;
+
+import com.cpcp.document.TextDocument;
+import com.cpcp.features.NGram;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.linear.LinearClassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how the throughput of training a LinearClassifier scales with training threads.
+ * For every thread count from one up to the number of processors, the classifier is trained on
+ *  the whole corpus |rounds| times and the median training throughput is reported.
+ *
+ * Usage: ThreadScalingBenchmark [data file] [rounds] [max threads]
+ */
+public class ThreadScalingBenchmark {
+   private static final int WARMUP_ROUNDS = 3;
+
+   public static void main(String[] args) throws Exception {
+      String path = args.length > 0 ? args[0] : "data/classifierTrainingTweetData.gsv";
+      int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+      int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) :
+                                         Runtime.getRuntime().availableProcessors();
+
+      List<TextDocument> documents = new ArrayList<TextDocument>();
+      List<String> classes = new ArrayList<String>();
+      Evaluator.loadTrainingSet(path, "`", documents, classes);
+      List<String> possibleClasses = new ArrayList<String>(Evaluator.getClassValues(classes));
+
+      System.out.println("LinearClassifier over " + documents.size() + " documents, " +
+                         rounds + " rounds.");
+
+      double baseline = 0;
+      for (int numThreads = 1; numThreads <= maxThreads; numThreads++) {
+         LinearClassifier<TextDocument> classy = new LinearClassifier<TextDocument>(
+            LinearClassifier.Loss.LOGISTIC,
+            new NGram(1, 1, new FullFilter()),
+            possibleClasses);
+         classy.setNumThreads(numThreads);
+
+         measure(classy, documents, classes, WARMUP_ROUNDS);
+         long[] times = measure(classy, documents, classes, rounds);
+
+         Arrays.sort(times);
+         double throughput = documents.size() / (LatencyBenchmark.percentile(times, 0.5) / 1e9);
+         if (numThreads == 1) {
+            baseline = throughput;
+         }
+
+         System.out.println(String.format("%3d threads: %10.1f docs/s, speedup: %5.2fx",
+                                          numThreads, throughput, throughput / baseline));
+      }
+   }
+
+   /**
+    * Train |rounds| times.
+    *
+    * @return The time of every training run in nanoseconds.
+    */
+   private static long[] measure(LinearClassifier<TextDocument> classy,
+                                 List<TextDocument> documents, List<String> classes,
+                                 int rounds) {
+      long[] times = new long[rounds];
+
+      for (int round = 0; round < rounds; round++) {
+         long start = System.nanoTime();
+         classy.train(documents, classes);
+         times[round] = System.nanoTime() - start;
+      }
+
+      return times;
+   }
+}
@@ -17,6 +17,8 @@ import java.util.TreeMap;
  * See http://dl.acm.org/citation.cfm?id=944974 for a description of BNS.
  */
 public class BNS extends NGram {
+   private static final long serialVersionUID = 1L;
+
    public BNS() {
       super(1, 5);
    }
@@ -30,15 +32,18 @@ public class BNS extends NGram {
     */
    public Set<String> getFeatureSpace(List<TextDocument> documents,
                                       List<String> classes) {
-      Set<String> rtn = new HashSet<String>();
+      return getFeatureSpace(documents, classes, parseFeatures(documents));
+   }
 
-      List<Set<String>> documentFeatures = new ArrayList<Set<String>>();
-      for (TextDocument document : documents) {
-         documentFeatures.add(parseFeatures(document));
-      }
+   /**
+    * @inheritDoc
+    */
+   public Set<String> getFeatureSpace(List<TextDocument> documents, List<String> classes,
+                                      List<Set<String>> documentFeatures) {
+      Set<String> rtn = new HashSet<String>();
 
       // Get all possible features.
-      Set<String> features = super.getFeatureSpace(documents, classes);
+      Set<String> features = super.getFeatureSpace(documents, classes, documentFeatures);
       Set<String> allClasses = new HashSet<String>();
       allClasses.addAll(classes);
 
@@ -0,0 +1,108 @@
+package com.cpcp.features;
+
+import com.cpcp.document.Document;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A FeatureSetGenerator that remembers the features it parsed out of each document.
+ * Repeated evaluations train and classify the same documents over and over,
+ *  so one CachingFeatureSetGenerator shared between all the classifiers (and threads)
+ *  of an evaluation parses each document only once.
+ *
+ * Documents are looked up with their own equals() and hashCode(), which is identity for
+ *  TextDocument. The cached feature sets are shared, so they are returned unmodifiable.
+ * getFeatureSpace() is passed straight to the wrapped generator, which parses with its own
+ *  parseFeatures(), so the generator should also share a CachedFilter when the feature space
+ *  is built often.
+ * The cache is never evicted and is not saved with the generator.
+ */
+public class CachingFeatureSetGenerator<E extends Document> extends FeatureSetGenerator<E> {
+   private static final long serialVersionUID = 1L;
+
+   private final FeatureSetGenerator<E> fsg;
+
+   private transient ConcurrentMap<E, Set<String>> cache;
+   private transient LongAdder hits;
+   private transient LongAdder misses;
+
+   public CachingFeatureSetGenerator(FeatureSetGenerator<E> fsg) {
+      this.fsg = fsg;
+      init();
+   }
+
+   private void init() {
+      cache = new ConcurrentHashMap<E, Set<String>>();
+      hits = new LongAdder();
+      misses = new LongAdder();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public Set<String> getFeatureSpace(List<E> documents, List<String> classes) {
+      return fsg.getFeatureSpace(documents, classes);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public Set<String> getFeatureSpace(List<E> documents, List<String> classes,
+                                      List<Set<String>> featureSets) {
+      return fsg.getFeatureSpace(documents, classes, featureSets);
+   }
+
+   /**
+    * @inheritDoc
+    * The returned set can not be modified.
+    */
+   public Set<String> parseFeatures(E document) {
+      Set<String> features = cache.get(document);
+      if (features != null) {
+         hits.increment();
+         return features;
+      }
+
+      misses.increment();
+      features = Collections.unmodifiableSet(fsg.parseFeatures(document));
+
+      Set<String> existing = cache.putIfAbsent(document, features);
+      return (existing != null) ? existing : features;
+   }
+
+   public FeatureSetGenerator<E> getFeatureSetGenerator() {
+      return fsg;
+   }
+
+   public int size() {
+      return cache.size();
+   }
+
+   public long getHits() {
+      return hits.sum();
+   }
+
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   public void clear() {
+      cache.clear();
+   }
+
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      init();
+   }
+
+   public String toString() {
+      return String.format("%s{fsg=%s}", getClass().getCanonicalName(), fsg.toString());
+   }
+}
@@ -0,0 +1,123 @@
+package com.cpcp.features;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A frozen mapping between features and dense integer ids.
+ * Ids run from 0 to size() - 1.
+ * When a dictionary is built from a feature space, ids are assigned in the sorted order of the
+ *  features, so every implementation built from the same feature space agrees on the ids.
+ */
+public abstract class FeatureDictionary {
+   /**
+    * Get the number of features in the dictionary.
+    */
+   public abstract int size();
+
+   /**
+    * Get the id of a feature.
+    *
+    * @return The id of |feature|, or -1 if it is not in the dictionary.
+    */
+   public abstract int indexOf(String feature);
+
+   /**
+    * Get the feature with the given id.
+    *
+    * @.pre 0 <= index < size().
+    */
+   public abstract String feature(int index);
+
+   public boolean contains(String feature) {
+      return indexOf(feature) >= 0;
+   }
+
+   /**
+    * Map a set of features to their ids.
+    * Features that are not in the dictionary are dropped.
+    *
+    * @return The ids of the known features in ascending order.
+    */
+   public int[] indexFeatures(Set<String> features) {
+      int[] ids = new int[features.size()];
+      int count = indexFeatures(features, ids);
+
+      if (count != ids.length) {
+         ids = Arrays.copyOf(ids, count);
+      }
+
+      return ids;
+   }
+
+   /**
+    * Map a set of features to their ids, using a caller supplied buffer.
+    * Features that are not in the dictionary are dropped.
+    *
+    * @param ids Where to put the ids in ascending order.
+    *
+    * @return The number of ids written into |ids|.
+    *
+    * @.pre ids.length >= features.size().
+    */
+   public int indexFeatures(Set<String> features, int[] ids) {
+      int count = 0;
+
+      for (String feature : features) {
+         int id = indexOf(feature);
+         if (id >= 0) {
+            ids[count++] = id;
+         }
+      }
+
+      Arrays.sort(ids, 0, count);
+
+      return count;
+   }
+
+   /**
+    * Get a read-only Set view of the dictionary.
+    * This can be handed to anything that expects a feature space from
+    *  FeatureSetGenerator.getFeatureSpace().
+    */
+   public Set<String> asSet() {
+      return new AbstractSet<String>() {
+         public int size() {
+            return FeatureDictionary.this.size();
+         }
+
+         public boolean contains(Object obj) {
+            return (obj instanceof String) && FeatureDictionary.this.contains((String)obj);
+         }
+
+         public Iterator<String> iterator() {
+            return new Iterator<String>() {
+               private int next = 0;
+
+               public boolean hasNext() {
+                  return next < FeatureDictionary.this.size();
+               }
+
+               public String next() {
+                  if (!hasNext()) {
+                     throw new NoSuchElementException();
+                  }
+
+                  return feature(next++);
+               }
+
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+      };
+   }
+
+   public String toString() {
+      return String.format("%s{size=%d}", getClass().getCanonicalName(), size());
+   }
+}
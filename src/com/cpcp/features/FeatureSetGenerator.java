@@ -1,7 +1,9 @@
 package com.cpcp.features;
 
 import com.cpcp.document.Document;
+import com.cpcp.util.Profiler;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -10,8 +12,11 @@ import java.util.Set;
  * A general interface for things that can generate feature sets.
  * The burden of understanding how to work with documents is placed on
  * subclasses of this class.
+ * Generators are Serializable so that their configuration can be saved along with a model.
  */
-public abstract class FeatureSetGenerator<E extends Document> {
+public abstract class FeatureSetGenerator<E extends Document> implements Serializable {
+   private static final long serialVersionUID = 1L;
+
    /**
     * Build the entire feature set given a training set.
     * This is necessary for classifiers that require the entire feature
@@ -19,16 +24,38 @@ public abstract class FeatureSetGenerator<E extends Document> {
     */
    public abstract Set<String> getFeatureSpace(List<E> documents, List<String> classes);
 
+   /**
+    * Build the entire feature set given a training set that was already parsed.
+    * This lets a classifier that parses the training set anyway not parse it a second time.
+    * The default ignores |featureSets|, generators whose feature space only depends on
+    *  parseFeatures() should override this.
+    *
+    * @param featureSets The output of parseFeatures() for each document.
+    */
+   public Set<String> getFeatureSpace(List<E> documents, List<String> classes,
+                                      List<Set<String>> featureSets) {
+      return getFeatureSpace(documents, classes);
+   }
+
    /**
     * Parse the features out of a document.
     */
    public abstract Set<String> parseFeatures(E document);
 
+   /**
+    * Parse the features out of every document.
+    * The whole batch is profiled as one FILTER phase.
+    */
    public List<Set<String>> parseFeatures(List<E> documents) {
       List<Set<String>> rtn = new ArrayList<Set<String>>();
 
-      for (E document : documents) {
-         rtn.add(parseFeatures(document));
+      Profiler.Scope scope = Profiler.enter(Profiler.Phase.FILTER);
+      try {
+         for (E document : documents) {
+            rtn.add(parseFeatures(document));
+         }
+      } finally {
+         scope.close();
       }
 
       return rtn;
@@ -0,0 +1,121 @@
+package com.cpcp.features;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A FeatureDictionary over a vocabulary that only ever grows, like the one of a model that
+ *  is being updated.
+ * Each dictionary is frozen at the size it was made with. grow() makes a bigger dictionary
+ *  that shares the vocabulary with this one, so growing only costs the new features and
+ *  the old dictionary keeps working (it just does not see the new features).
+ *
+ * Any number of threads can read the dictionaries of a vocabulary while one thread grows it.
+ * Only the newest dictionary of a vocabulary can be grown.
+ */
+public class GrowingFeatureDictionary extends FeatureDictionary {
+   private final Vocabulary vocabulary;
+   private final int size;
+
+   /**
+    * @param features The features in id order, without duplicates.
+    */
+   public GrowingFeatureDictionary(List<String> features) {
+      this(vocabularyOf(features), features.size());
+   }
+
+   private GrowingFeatureDictionary(Vocabulary vocabulary, int size) {
+      this.vocabulary = vocabulary;
+      this.size = size;
+   }
+
+   private static Vocabulary vocabularyOf(List<String> features) {
+      Vocabulary rtn = new Vocabulary();
+      rtn.addAll(features, 0);
+
+      return rtn;
+   }
+
+   /**
+    * Get a dictionary with more features.
+    *
+    * @param features All the features in id order: the features of this dictionary first,
+    *  then the new ones.
+    *
+    * @return This dictionary if there are no new features.
+    *
+    * @throws IllegalStateException If this is not the newest dictionary of its vocabulary.
+    */
+   public GrowingFeatureDictionary grow(List<String> features) {
+      if (features.size() == size) {
+         return this;
+      }
+
+      vocabulary.addAll(features, size);
+      return new GrowingFeatureDictionary(vocabulary, features.size());
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int indexOf(String feature) {
+      Integer id = vocabulary.ids.get(feature);
+      return (id == null || id.intValue() >= size) ? -1 : id.intValue();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public String feature(int index) {
+      if (index >= size) {
+         throw new IndexOutOfBoundsException("No feature " + index + " in " + size);
+      }
+
+      return vocabulary.features[index];
+   }
+
+   /**
+    * The features shared by all the dictionaries that grew from the same one.
+    */
+   private static class Vocabulary {
+      public final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+      /**
+       * Replaced with a bigger copy when it fills up. Readers only look at ids that were
+       *  written before their dictionary was made, which every copy has.
+       */
+      public volatile String[] features = new String[16];
+      public int size = 0;
+
+      /**
+       * Add features.subList(start, features.size()).
+       */
+      public synchronized void addAll(List<String> features, int start) {
+         if (start != size) {
+            throw new IllegalStateException("Only the newest dictionary can grow.");
+         }
+
+         String[] current = this.features;
+         if (current.length < features.size()) {
+            current = Arrays.copyOf(current, Math.max(features.size(), current.length * 2));
+         }
+
+         for (int id = start; id < features.size(); id++) {
+            current[id] = features.get(id);
+            ids.put(current[id], id);
+         }
+
+         this.features = current;
+         size = features.size();
+      }
+   }
+}
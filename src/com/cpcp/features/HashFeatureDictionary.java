@@ -0,0 +1,70 @@
+package com.cpcp.features;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A FeatureDictionary that is held on the heap.
+ */
+public class HashFeatureDictionary extends FeatureDictionary {
+   private final String[] features;
+   private final Map<String, Integer> ids;
+
+   /**
+    * Freeze a feature space.
+    * Usually |featureSpace| is the output of FeatureSetGenerator.getFeatureSpace().
+    */
+   public HashFeatureDictionary(Collection<String> featureSpace) {
+      this(sorted(featureSpace));
+   }
+
+   private HashFeatureDictionary(String[] features) {
+      this.features = features;
+
+      ids = new HashMap<String, Integer>(features.length * 2);
+      for (int i = 0; i < features.length; i++) {
+         ids.put(features[i], i);
+      }
+   }
+
+   /**
+    * Freeze features that already have ids, instead of assigning ids in sorted order.
+    *
+    * @param features The features in id order, without duplicates.
+    */
+   public static HashFeatureDictionary inOrder(List<String> features) {
+      return new HashFeatureDictionary(features.toArray(new String[0]));
+   }
+
+   private static String[] sorted(Collection<String> featureSpace) {
+      String[] rtn = featureSpace.toArray(new String[0]);
+      Arrays.sort(rtn);
+
+      return rtn;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int size() {
+      return features.length;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int indexOf(String feature) {
+      Integer id = ids.get(feature);
+      return id == null ? -1 : id.intValue();
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public String feature(int index) {
+      return features[index];
+   }
+}
@@ -0,0 +1,56 @@
+package com.cpcp.features;
+
+import com.cpcp.util.HashUtils;
+
+/**
+ * A FeatureDictionary that hashes features into a fixed number of ids (the hashing trick).
+ * There is nothing to build or store, every feature has an id, and unrelated features
+ *  occasionally share one.
+ * Since hashing can not be reversed, feature() is not supported.
+ */
+public class HashedFeatureDictionary extends FeatureDictionary {
+   private final int bits;
+   private final int mask;
+
+   /**
+    * @param bits The number of bits in an id, there will be 2^bits ids.
+    */
+   public HashedFeatureDictionary(int bits) {
+      if (bits < 1 || bits > 30) {
+         throw new IllegalArgumentException("Bits must be in [1, 30], got " + bits);
+      }
+
+      this.bits = bits;
+      mask = (1 << bits) - 1;
+   }
+
+   public int getBits() {
+      return bits;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int size() {
+      return mask + 1;
+   }
+
+   /**
+    * @inheritDoc
+    * Never returns -1.
+    */
+   public int indexOf(String feature) {
+      return HashUtils.hashFeature(feature) & mask;
+   }
+
+   /**
+    * Not supported, hashing can not be reversed.
+    */
+   public String feature(int index) {
+      throw new UnsupportedOperationException("Hashed features can not be looked up by id.");
+   }
+
+   public String toString() {
+      return String.format("%s{bits=%d}", getClass().getCanonicalName(), bits);
+   }
+}
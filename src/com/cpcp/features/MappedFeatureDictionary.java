@@ -0,0 +1,322 @@
+package com.cpcp.features;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A FeatureDictionary that lives in a binary file and is read through a memory map.
+ * Nothing is deserialized onto the heap, so many processes that open the same file share
+ *  a single page-cache copy and opening is essentially free regardless of the vocabulary size.
+ * All reads are absolute, so one instance can be shared between threads.
+ * ModelIO saves the vocabularies of trained models in this format, so the workers that load
+ *  the same model file share one copy of its vocabulary.
+ *
+ * Layout (all ints are big-endian):
+ *  magic, version, size, tableSize, dataLength
+ *  int[size + 1] - Offsets of each feature into the string data, in id order.
+ *  int[tableSize] - Open addressing hash index of feature ids (-1 is empty).
+ *  byte[dataLength] - The UTF-8 bytes of the features in id order.
+ * Ids follow the sorted order of the features, unless the file was written from
+ *  a FeatureDictionary with other ids.
+ */
+public class MappedFeatureDictionary extends FeatureDictionary {
+   public static final int MAGIC = 0x43504344;
+   public static final int VERSION = 1;
+
+   private static final int HEADER_SIZE = 20;
+
+   private static final int FNV_OFFSET = 0x811C9DC5;
+   private static final int FNV_PRIME = 0x01000193;
+
+   private final ByteBuffer buffer;
+   private final int size;
+   private final int tableMask;
+   private final int offsetsStart;
+   private final int tableStart;
+   private final int dataStart;
+
+   /**
+    * Use a dictionary that is already in memory.
+    * The dictionary must start at the buffer's current position.
+    */
+   public MappedFeatureDictionary(ByteBuffer buffer) {
+      this.buffer = buffer.slice();
+
+      if (this.buffer.remaining() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+         throw new IllegalArgumentException("Not a feature dictionary.");
+      }
+
+      if (this.buffer.getInt(4) != VERSION) {
+         throw new IllegalArgumentException(
+               "Unsupported feature dictionary version: " + this.buffer.getInt(4));
+      }
+
+      size = this.buffer.getInt(8);
+      int tableSize = this.buffer.getInt(12);
+      int dataLength = this.buffer.getInt(16);
+
+      tableMask = tableSize - 1;
+      offsetsStart = HEADER_SIZE;
+      tableStart = offsetsStart + 4 * (size + 1);
+      dataStart = tableStart + 4 * tableSize;
+
+      if (this.buffer.remaining() < dataStart + dataLength) {
+         throw new IllegalArgumentException("Truncated feature dictionary.");
+      }
+   }
+
+   /**
+    * Map a dictionary file that was made with write().
+    */
+   public static MappedFeatureDictionary open(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+      try {
+         FileChannel channel = raf.getChannel();
+         // The mapping stays valid after the channel is closed.
+         return new MappedFeatureDictionary(
+               channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Write a dictionary file for the given feature space.
+    * Usually |features| is the output of FeatureSetGenerator.getFeatureSpace().
+    */
+   public static void write(Collection<String> features, File file) throws IOException {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+
+      try {
+         write(features, out);
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Write a dictionary to an arbitrary stream.
+    * The stream is not closed.
+    */
+   public static void write(Collection<String> features, OutputStream stream) throws IOException {
+      String[] sorted = features.toArray(new String[0]);
+      Arrays.sort(sorted);
+
+      write(sorted, stream);
+   }
+
+   /**
+    * Write a dictionary that keeps the ids of |dictionary|, whatever order they are in.
+    * The stream is not closed.
+    */
+   public static void write(FeatureDictionary dictionary, OutputStream stream)
+         throws IOException {
+      String[] features = new String[dictionary.size()];
+      for (int id = 0; id < features.length; id++) {
+         features[id] = dictionary.feature(id);
+      }
+
+      write(features, stream);
+   }
+
+   /**
+    * @param features The features in id order.
+    */
+   private static void write(String[] features, OutputStream stream) throws IOException {
+      byte[][] encoded = new byte[features.length][];
+      int[] offsets = new int[features.length + 1];
+      for (int i = 0; i < features.length; i++) {
+         encoded[i] = features[i].getBytes(StandardCharsets.UTF_8);
+         offsets[i + 1] = offsets[i] + encoded[i].length;
+      }
+
+      int tableSize = 2;
+      while (tableSize < features.length * 2) {
+         tableSize <<= 1;
+      }
+
+      int[] table = new int[tableSize];
+      Arrays.fill(table, -1);
+      for (int i = 0; i < features.length; i++) {
+         int slot = hash(features[i]) & (tableSize - 1);
+         while (table[slot] != -1) {
+            slot = (slot + 1) & (tableSize - 1);
+         }
+         table[slot] = i;
+      }
+
+      DataOutputStream out = new DataOutputStream(stream);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(features.length);
+      out.writeInt(tableSize);
+      out.writeInt(offsets[features.length]);
+
+      for (int offset : offsets) {
+         out.writeInt(offset);
+      }
+
+      for (int id : table) {
+         out.writeInt(id);
+      }
+
+      for (byte[] bytes : encoded) {
+         out.write(bytes);
+      }
+
+      out.flush();
+   }
+
+   /**
+    * Get the number of bytes this dictionary occupies.
+    */
+   public int byteSize() {
+      return dataStart + offset(size);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @inheritDoc
+    * Lookups hash and compare the feature directly against the mapped bytes,
+    *  so no garbage is produced.
+    */
+   public int indexOf(String feature) {
+      int slot = hash(feature) & tableMask;
+
+      while (true) {
+         int id = buffer.getInt(tableStart + 4 * slot);
+         if (id == -1) {
+            return -1;
+         }
+
+         if (matches(feature, id)) {
+            return id;
+         }
+
+         slot = (slot + 1) & tableMask;
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public String feature(int index) {
+      if (index < 0 || index >= size) {
+         throw new IndexOutOfBoundsException("" + index);
+      }
+
+      int start = offset(index);
+      byte[] bytes = new byte[offset(index + 1) - start];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = buffer.get(dataStart + start + i);
+      }
+
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private int offset(int index) {
+      return buffer.getInt(offsetsStart + 4 * index);
+   }
+
+   /**
+    * Check if the UTF-8 encoding of |feature| is the same as the stored feature |id|.
+    */
+   private boolean matches(String feature, int id) {
+      int position = dataStart + offset(id);
+      int end = dataStart + offset(id + 1);
+
+      int ndx = 0;
+      while (ndx < feature.length()) {
+         int codePoint = codePoint(feature, ndx);
+         ndx += Character.charCount(codePoint);
+
+         int length = utf8Length(codePoint);
+         if (position + length > end) {
+            return false;
+         }
+
+         for (int i = 0; i < length; i++) {
+            if (buffer.get(position++) != utf8Byte(codePoint, length, i)) {
+               return false;
+            }
+         }
+      }
+
+      return position == end;
+   }
+
+   /**
+    * FNV-1a over the UTF-8 encoding of |feature|, computed without encoding into an array.
+    */
+   private static int hash(String feature) {
+      int hash = FNV_OFFSET;
+
+      int ndx = 0;
+      while (ndx < feature.length()) {
+         int codePoint = codePoint(feature, ndx);
+         ndx += Character.charCount(codePoint);
+
+         int length = utf8Length(codePoint);
+         for (int i = 0; i < length; i++) {
+            hash = (hash ^ (utf8Byte(codePoint, length, i) & 0xFF)) * FNV_PRIME;
+         }
+      }
+
+      return hash ^ (hash >>> 16);
+   }
+
+   /**
+    * Get the code point at |ndx|.
+    * Unpaired surrogates become '?', just like String.getBytes() does.
+    */
+   private static int codePoint(String str, int ndx) {
+      int codePoint = str.codePointAt(ndx);
+
+      if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+         return '?';
+      }
+
+      return codePoint;
+   }
+
+   private static int utf8Length(int codePoint) {
+      if (codePoint < 0x80) {
+         return 1;
+      } else if (codePoint < 0x800) {
+         return 2;
+      } else if (codePoint < 0x10000) {
+         return 3;
+      }
+
+      return 4;
+   }
+
+   private static byte utf8Byte(int codePoint, int length, int ndx) {
+      if (length == 1) {
+         return (byte)codePoint;
+      }
+
+      if (ndx == 0) {
+         return (byte)(((0xFF00 >> length) & 0xFF) | (codePoint >> (6 * (length - 1))));
+      }
+
+      return (byte)(0x80 | ((codePoint >> (6 * (length - 1 - ndx))) & 0x3F));
+   }
+}
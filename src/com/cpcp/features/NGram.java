@@ -1,6 +1,8 @@
 package com.cpcp.features;
 
 import com.cpcp.document.TextDocument;
+import com.cpcp.document.TokenizedDocument;
+import com.cpcp.filter.CachedFilter;
 import com.cpcp.filter.FullFilter;
 import com.cpcp.filter.TextFilter;
 
@@ -19,6 +21,8 @@ import java.util.Set;
  * TODO(eriq): Just still returning a string a delimiting with a '-' is a bit of a hack, change it.
  */
 public class NGram extends FeatureSetGenerator<TextDocument> {
+   private static final long serialVersionUID = 1L;
+
    /**
     * The minium amout of times that a feature has to appear to be counted.
     */
@@ -46,12 +50,21 @@ public class NGram extends FeatureSetGenerator<TextDocument> {
     */
    public Set<String> getFeatureSpace(List<TextDocument> documents,
                                       List<String> classes) {
+      return getFeatureSpace(documents, classes, parseFeatures(documents));
+   }
+
+   /**
+    * @inheritDoc
+    * The feature space is every feature that is in at least |min| of the feature sets.
+    */
+   public Set<String> getFeatureSpace(List<TextDocument> documents, List<String> classes,
+                                      List<Set<String>> featureSets) {
       // feture => freq
       Map<String, Integer> counts = new HashMap<String, Integer>();
       Set<String> features = new HashSet<String>();
 
-      for (TextDocument document : documents) {
-         for (String gram : parseFeatures(document)) {
+      for (Set<String> documentFeatures : featureSets) {
+         for (String gram : documentFeatures) {
             if (!counts.containsKey(gram)) {
                counts.put(gram, 1);
             } else {
@@ -73,17 +86,23 @@ public class NGram extends FeatureSetGenerator<TextDocument> {
    public Set<String> parseFeatures(TextDocument document) {
       Set<String> features = new HashSet<String>();
 
-      for (String gram : split(document.getContent())) {
+      for (String gram : split(document)) {
          features.add(gram);
       }
 
       return features;
    }
 
-   private List<String> split(String content) {
+   private List<String> split(TextDocument document) {
       List<String> rtn = new ArrayList<String>();
 
-      String[] words = filter.splitFilter(content);
+      String[] words;
+      if (document instanceof TokenizedDocument) {
+         words = tokenizedWords((TokenizedDocument)document);
+      } else {
+         words = filter.splitFilter(document.getContent());
+      }
+
       for (int i = 0; i + n <= words.length; i++) {
          String gram = "";
          for (int j = 0; j < n; j++) {
@@ -98,6 +117,28 @@ public class NGram extends FeatureSetGenerator<TextDocument> {
       return rtn;
    }
 
+   /**
+    * Get the words of a document that was already filtered.
+    * A CachedFilter caches the filter it wraps, so a document filtered by that filter is fine.
+    *
+    * @throws IllegalArgumentException If the words came from a different filter, they would
+    *  not be the features this generator is configured for.
+    */
+   private String[] tokenizedWords(TokenizedDocument document) {
+      TextFilter actual = filter;
+      while (actual instanceof CachedFilter) {
+         actual = ((CachedFilter)actual).getFilter();
+      }
+
+      if (!actual.toString().equals(document.getFilterName())) {
+         throw new IllegalArgumentException(String.format(
+               "Document was filtered by %s, but this NGram filters with %s.",
+               document.getFilterName(), actual));
+      }
+
+      return document.getWords();
+   }
+
    public String toString() {
       return String.format("%s{min=%d;n=%d;filter=%s}",
                            getClass().getCanonicalName(),
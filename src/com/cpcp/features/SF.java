@@ -1,7 +1,10 @@
 package com.cpcp.features;
 
 import com.cpcp.document.TextDocument;
+import com.cpcp.document.TokenizedDocument;
+import com.cpcp.filter.FullFilter;
 import com.cpcp.filter.SmartSplitString;
+import com.cpcp.filter.TextFilter;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -16,6 +19,8 @@ import java.util.TreeSet;
  * The Subject Feature Selection algorithm propositioned by Dr. Leilei Chu.
  */
 public class SF extends NGram {
+   private static final long serialVersionUID = 1L;
+
    /**
     * This may not actually be the number of features in the final set,
     *  however it is a statring point and should usually be close to the
@@ -30,13 +35,25 @@ public class SF extends NGram {
    }
 
    public SF(int n, int unigramMin, int k, double b) {
-      super(n, unigramMin);
+      this(n, unigramMin, k, b, new FullFilter());
+   }
+
+   /**
+    * Note that |filter| is only used to parse features,
+    *  the feature space is always picked from the raw words.
+    * So the training set can't be TokenizedDocuments (like the documents of a TokenCorpus),
+    *  their raw words are gone.
+    */
+   public SF(int n, int unigramMin, int k, double b, TextFilter filter) {
+      super(n, unigramMin, filter);
       numFeatures = k;
       threshold = b;
    }
 
    /**
     * @inheritDoc
+    *
+    * @throws IllegalArgumentException If a document is a TokenizedDocument.
     */
    public Set<String> getFeatureSpace(List<TextDocument> documents, List<String> classes) {
       Map<String, Integer> freqs = getFreqs(documents);
@@ -102,6 +119,15 @@ public class SF extends NGram {
       return features;
    }
 
+   /**
+    * @inheritDoc
+    * The feature space comes from the raw words, so the parsed features are not used.
+    */
+   public Set<String> getFeatureSpace(List<TextDocument> documents, List<String> classes,
+                                      List<Set<String>> featureSets) {
+      return getFeatureSpace(documents, classes);
+   }
+
    private TreeSet<WordCount> orderCounts(Map<String, Integer> freqs) {
       TreeSet<WordCount> rtn = new TreeSet<WordCount>(new Comparator<WordCount>(){
          public int compare(WordCount a, WordCount b) {
@@ -120,6 +146,12 @@ public class SF extends NGram {
       Map<String, Integer> freqs = new HashMap<String, Integer>();
 
       for (TextDocument document : documents) {
+         if (document instanceof TokenizedDocument) {
+            throw new IllegalArgumentException(
+                  "SF picks its feature space from the raw text, which a TokenizedDocument " +
+                  "does not have. Load the original text instead of a token corpus.");
+         }
+
          for (String word : SmartSplitString.split(document.getContent())) {
             if (!freqs.containsKey(word)) {
                freqs.put(word, 1);
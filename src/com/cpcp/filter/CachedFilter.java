@@ -0,0 +1,90 @@
+package com.cpcp.filter;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A TextFilter that remembers the output of another filter.
+ * Filtering is the most expensive part of parsing features, so when many feature generators
+ *  (or many cross validation folds) see the same documents, sharing one CachedFilter between
+ *  them means each document is only filtered once.
+ *
+ * The cache is never evicted, so a CachedFilter should only live as long as the experiment
+ *  that uses it. The cache is not saved with the filter.
+ * It is safe to use from many threads at once; two threads that miss on the same input at
+ *  the same time may both run the filter, but they get the same answer.
+ */
+public class CachedFilter extends TextFilter {
+   private static final long serialVersionUID = 1L;
+
+   private final TextFilter filter;
+
+   private transient ConcurrentMap<String, String[]> cache;
+   private transient LongAdder hits;
+   private transient LongAdder misses;
+
+   public CachedFilter(TextFilter filter) {
+      this.filter = filter;
+      init();
+   }
+
+   private void init() {
+      cache = new ConcurrentHashMap<String, String[]>();
+      hits = new LongAdder();
+      misses = new LongAdder();
+   }
+
+   /**
+    * @inheritDoc
+    * Every call gets its own copy of the cached words, so callers may modify it.
+    */
+   public String[] splitFilter(String input) {
+      String[] words = cache.get(input);
+
+      if (words != null) {
+         hits.increment();
+      } else {
+         misses.increment();
+         words = filter.splitFilter(input);
+
+         String[] existing = cache.putIfAbsent(input, words);
+         if (existing != null) {
+            words = existing;
+         }
+      }
+
+      return words.clone();
+   }
+
+   public TextFilter getFilter() {
+      return filter;
+   }
+
+   public int size() {
+      return cache.size();
+   }
+
+   public long getHits() {
+      return hits.sum();
+   }
+
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   public void clear() {
+      cache.clear();
+   }
+
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      init();
+   }
+
+   public String toString() {
+      return super.toString() + "{" + filter.toString() + "}";
+   }
+}
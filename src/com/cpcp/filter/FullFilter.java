@@ -14,6 +14,8 @@ import java.util.List;
  *  Stop words
  */
 public class FullFilter extends TextFilter {
+   private static final long serialVersionUID = 1L;
+
    private static EmoticonParser emote = new EmoticonParser(" <$emote:%s$> ");
 
    private boolean replaceTwitterMetaWords;
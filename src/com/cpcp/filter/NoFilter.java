@@ -7,6 +7,8 @@ import java.util.List;
  * A Filter that does nothing.
  */
 public class NoFilter extends TextFilter {
+   private static final long serialVersionUID = 1L;
+
    /**
     * @inheritDoc
     */
@@ -1,13 +1,17 @@
 package com.cpcp.filter;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Interface for a text filter.
  * Filters will take a string and return a new string that has been filtered.
+ * Filters are Serializable so that they can be saved along with a FeatureSetGenerator.
  */
-public abstract class TextFilter {
+public abstract class TextFilter implements Serializable {
+   private static final long serialVersionUID = 1L;
+
    /**
     * Filter a string.
     */
@@ -0,0 +1,365 @@
+package com.cpcp.io;
+
+import com.cpcp.document.TextDocument;
+import com.cpcp.util.ParallelUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a labelled corpus in the gsv format (one document per line, "<class>`<document>")
+ *  straight out of a memory-mapped file.
+ *
+ * Lines are split on a single separator byte without any regex, and nothing is decoded
+ *  until getLabel() or getText() is called on an entry, so skimming a corpus is cheap.
+ * The text of a document is everything after the first separator, the line may contain more.
+ * Files are UTF-8, and since the separator must be ASCII it can never appear inside a
+ *  multi-byte character.
+ *
+ * Files larger than 2GB are mapped in several chunks, each ending on a line boundary.
+ * The mapping stays valid after construction, and a reader can be iterated
+ *  by many threads at once (for example, one per Range from split()).
+ */
+public class GsvReader implements Iterable<GsvReader.Entry> {
+   public static final byte DEFAULT_SEPARATOR = '`';
+
+   private static final int MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+   private final File file;
+   private final byte separator;
+
+   /**
+    * The mapped chunks, each holding only whole lines.
+    */
+   private final List<ByteBuffer> chunks;
+
+   /**
+    * The offset of each chunk in the file.
+    */
+   private final long[] chunkStarts;
+
+   private final long size;
+
+   public GsvReader(String path) throws IOException {
+      this(new File(path), DEFAULT_SEPARATOR);
+   }
+
+   public GsvReader(File file, byte separator) throws IOException {
+      this(file, separator, MAX_CHUNK_BYTES);
+   }
+
+   /**
+    * Only for testing chunk boundaries with small files.
+    */
+   GsvReader(File file, byte separator, int maxChunkBytes) throws IOException {
+      if (separator < 0 || separator == '\n' || separator == '\r') {
+         throw new IllegalArgumentException("The separator must be a printable ASCII byte.");
+      }
+
+      this.file = file;
+      this.separator = separator;
+
+      chunks = new ArrayList<ByteBuffer>();
+      List<Long> starts = new ArrayList<Long>();
+
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+           FileChannel channel = raf.getChannel()) {
+         size = channel.size();
+
+         long position = 0;
+         while (position < size) {
+            int length = (int)Math.min(maxChunkBytes, size - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                  position, length);
+
+            // Cut the chunk after its last full line, the rest starts the next chunk.
+            if (position + length < size) {
+               int end = length;
+               while (end > 0 && buffer.get(end - 1) != '\n') {
+                  end--;
+               }
+
+               if (end == 0) {
+                  throw new IOException(String.format(
+                        "Line at byte %d of %s is longer than %d bytes.",
+                        position, file, maxChunkBytes));
+               }
+
+               length = end;
+               buffer.limit(length);
+            }
+
+            chunks.add(buffer);
+            starts.add(position);
+            position += length;
+         }
+      }
+
+      chunkStarts = new long[starts.size()];
+      for (int i = 0; i < chunkStarts.length; i++) {
+         chunkStarts[i] = starts.get(i);
+      }
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   /**
+    * Get the size of the file in bytes.
+    */
+   public long byteSize() {
+      return size;
+   }
+
+   /**
+    * Iterate over every entry in the file, in order.
+    */
+   public Iterator<Entry> iterator() {
+      return new Range(0, size).iterator();
+   }
+
+   /**
+    * Split the file into at most |numRanges| ranges of about the same number of bytes.
+    * Ranges start and end on line boundaries, and together they cover every line once,
+    *  in order.
+    */
+   public List<Range> split(int numRanges) {
+      if (numRanges < 1) {
+         throw new IllegalArgumentException("Need at least one range, got " + numRanges);
+      }
+
+      List<Range> rtn = new ArrayList<Range>(numRanges);
+
+      long start = 0;
+      for (int i = 1; i <= numRanges && start < size; i++) {
+         long end = (i == numRanges) ? size : lineStartAfter(size * i / numRanges);
+         if (end > start) {
+            rtn.add(new Range(start, end));
+            start = end;
+         }
+      }
+
+      return Collections.unmodifiableList(rtn);
+   }
+
+   /**
+    * Load every entry into |documents| and |classes| (in file order), decoding the ranges
+    *  of the file on |numThreads| threads.
+    */
+   public void load(List<TextDocument> documents, List<String> classes, int numThreads) {
+      final List<Range> ranges = split(numThreads);
+      final List<List<TextDocument>> rangeDocuments = new ArrayList<List<TextDocument>>();
+      final List<List<String>> rangeClasses = new ArrayList<List<String>>();
+      for (int i = 0; i < ranges.size(); i++) {
+         rangeDocuments.add(new ArrayList<TextDocument>());
+         rangeClasses.add(new ArrayList<String>());
+      }
+
+      ParallelUtils.forRanges(ranges.size(), ranges.size(), new ParallelUtils.RangeTask() {
+         public void run(int worker, int start, int end) {
+            for (int rangeNdx = start; rangeNdx < end; rangeNdx++) {
+               for (Entry entry : ranges.get(rangeNdx)) {
+                  rangeClasses.get(rangeNdx).add(entry.getLabel());
+                  rangeDocuments.get(rangeNdx).add(entry.getDocument());
+               }
+            }
+         }
+      });
+
+      for (int i = 0; i < ranges.size(); i++) {
+         documents.addAll(rangeDocuments.get(i));
+         classes.addAll(rangeClasses.get(i));
+      }
+   }
+
+   /**
+    * Get the offset of the first line that starts at or after |offset|.
+    */
+   private long lineStartAfter(long offset) {
+      if (offset <= 0) {
+         return 0;
+      }
+
+      int chunkNdx = chunkOf(offset - 1);
+      while (chunkNdx < chunks.size()) {
+         ByteBuffer chunk = chunks.get(chunkNdx);
+         int position = (int)(Math.max(offset - 1, chunkStarts[chunkNdx]) -
+                              chunkStarts[chunkNdx]);
+         while (position < chunk.limit()) {
+            if (chunk.get(position) == '\n') {
+               return chunkStarts[chunkNdx] + position + 1;
+            }
+
+            position++;
+         }
+
+         chunkNdx++;
+      }
+
+      return size;
+   }
+
+   /**
+    * Get the index of the chunk that holds the byte at |offset|.
+    */
+   private int chunkOf(long offset) {
+      int chunkNdx = 0;
+      while (chunkNdx + 1 < chunkStarts.length && chunkStarts[chunkNdx + 1] <= offset) {
+         chunkNdx++;
+      }
+
+      return chunkNdx;
+   }
+
+   public String toString() {
+      return String.format("%s{file=%s;bytes=%d;chunks=%d}",
+                           getClass().getCanonicalName(),
+                           file,
+                           size,
+                           chunks.size());
+   }
+
+   /**
+    * A run of whole lines in the file.
+    */
+   public class Range implements Iterable<Entry> {
+      private final long start;
+      private final long end;
+
+      private Range(long start, long end) {
+         this.start = start;
+         this.end = end;
+      }
+
+      public long getStart() {
+         return start;
+      }
+
+      public long getEnd() {
+         return end;
+      }
+
+      public Iterator<Entry> iterator() {
+         return new EntryIterator(start, end);
+      }
+   }
+
+   /**
+    * One line of the file, decoded on demand.
+    */
+   public static class Entry {
+      private final ByteBuffer chunk;
+      private final int lineStart;
+      private final int separatorPosition;
+      private final int lineEnd;
+
+      private Entry(ByteBuffer chunk, int lineStart, int separatorPosition, int lineEnd) {
+         this.chunk = chunk;
+         this.lineStart = lineStart;
+         this.separatorPosition = separatorPosition;
+         this.lineEnd = lineEnd;
+      }
+
+      public String getLabel() {
+         return decode(lineStart, separatorPosition);
+      }
+
+      public String getText() {
+         return decode(separatorPosition + 1, lineEnd);
+      }
+
+      public TextDocument getDocument() {
+         return new TextDocument(getText());
+      }
+
+      private String decode(int from, int to) {
+         byte[] bytes = new byte[to - from];
+
+         // Absolute reads on a duplicate, so entries can be decoded from any thread.
+         ByteBuffer view = chunk.duplicate();
+         view.position(from);
+         view.get(bytes);
+
+         return new String(bytes, StandardCharsets.UTF_8);
+      }
+   }
+
+   /**
+    * Walks the lines in [start, end), skipping blank lines.
+    */
+   private class EntryIterator implements Iterator<Entry> {
+      private long offset;
+      private final long end;
+      private Entry next;
+
+      public EntryIterator(long start, long end) {
+         this.offset = start;
+         this.end = end;
+         next = null;
+      }
+
+      public boolean hasNext() {
+         while (next == null && offset < end) {
+            int chunkNdx = chunkOf(offset);
+            ByteBuffer chunk = chunks.get(chunkNdx);
+            int lineStart = (int)(offset - chunkStarts[chunkNdx]);
+
+            int separatorPosition = -1;
+            int position = lineStart;
+            while (position < chunk.limit() && chunk.get(position) != '\n') {
+               if (separatorPosition < 0 && chunk.get(position) == separator) {
+                  separatorPosition = position;
+               }
+
+               position++;
+            }
+
+            offset += position - lineStart + 1;
+
+            int lineEnd = position;
+            if (lineEnd > lineStart && chunk.get(lineEnd - 1) == '\r') {
+               lineEnd--;
+            }
+
+            if (lineEnd == lineStart) {
+               continue;
+            }
+
+            if (separatorPosition < 0) {
+               throw new IllegalStateException(String.format(
+                     "No separator in the line at byte %d of %s.",
+                     chunkStarts[chunkNdx] + lineStart, file));
+            }
+
+            next = new Entry(chunk, lineStart, separatorPosition, lineEnd);
+         }
+
+         return next != null;
+      }
+
+      public Entry next() {
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+
+         Entry rtn = next;
+         next = null;
+         return rtn;
+      }
+
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
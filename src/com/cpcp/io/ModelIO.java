@@ -0,0 +1,425 @@
+package com.cpcp.io;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureDictionary;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.HashFeatureDictionary;
+import com.cpcp.features.MappedFeatureDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves and loads trained classifiers so that a service does not have to retrain on startup.
+ *
+ * Layout:
+ *  magic, version - ints.
+ *  The classifier's class name.
+ *  The possible classes - count, then each class.
+ *  The FeatureSetGenerator - Java serialization (it is only configuration).
+ *  The model - written by the classifier's PersistentClassifier.writeModel().
+ * When saved to a File, the vocabularies (see writeDictionary()) follow the model:
+ *  Each vocabulary, as written by MappedFeatureDictionary.write().
+ *  long[count] - The file offset of each vocabulary.
+ *  count, VOCABULARY_MAGIC - ints.
+ * Loading from a File maps the vocabularies instead of reading them onto the heap, so every
+ *  process that loads the same file shares one page-cache copy of them.
+ * When saved to a stream, the vocabularies are written into the model itself.
+ *
+ * Models hold their frozen vocabulary and parameters, so loading never reruns feature selection.
+ * The model is read by the saved class's static
+ *  readModel(ObjectInputStream, FeatureSetGenerator, List), which is looked up by name,
+ *  so ModelIO does not need to know about every classifier.
+ */
+public final class ModelIO {
+   public static final int MAGIC = 0x4350434D;
+   public static final int VERSION = 2;
+
+   public static final int VOCABULARY_MAGIC = 0x43504356;
+
+   /**
+    * Version 1 wrote every dictionary inline, without a tag.
+    */
+   private static final int INLINE_VERSION = 1;
+
+   private static final byte INLINE_DICTIONARY = 0;
+   private static final byte MAPPED_DICTIONARY = 1;
+
+   /**
+    * Private to promote static behavior.
+    */
+   private ModelIO() {
+   }
+
+   /**
+    * Save a trained classifier, with its vocabularies in the mapped format after the model.
+    */
+   public static void save(CPCPClassifier<?> classifier, File file) throws IOException {
+      FileOutputStream fileOut = new FileOutputStream(file);
+      OutputStream out = new BufferedOutputStream(fileOut);
+
+      try {
+         List<FeatureDictionary> vocabularies = new ArrayList<FeatureDictionary>();
+         save(classifier, out, vocabularies);
+
+         long[] offsets = new long[vocabularies.size()];
+         for (int i = 0; i < offsets.length; i++) {
+            out.flush();
+            offsets[i] = fileOut.getChannel().position();
+            MappedFeatureDictionary.write(vocabularies.get(i), out);
+         }
+
+         DataOutputStream trailer = new DataOutputStream(out);
+         for (long offset : offsets) {
+            trailer.writeLong(offset);
+         }
+         trailer.writeInt(offsets.length);
+         trailer.writeInt(VOCABULARY_MAGIC);
+         trailer.flush();
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Save a trained classifier.
+    * The stream is not closed.
+    *
+    * @throws IllegalArgumentException If the classifier does not support saving.
+    */
+   public static void save(CPCPClassifier<?> classifier, OutputStream stream) throws IOException {
+      save(classifier, stream, null);
+   }
+
+   /**
+    * @param vocabularies Gets the dictionaries to write after the model,
+    *  or null to write them into the model.
+    */
+   private static void save(CPCPClassifier<?> classifier, OutputStream stream,
+                            List<FeatureDictionary> vocabularies) throws IOException {
+      if (!(classifier instanceof PersistentClassifier)) {
+         throw new IllegalArgumentException(
+               "Classifier cannot be saved: " + classifier.getClass().getName());
+      }
+
+      ObjectOutputStream out = new ModelOutputStream(stream, vocabularies);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(classifier.getClass().getName());
+
+      List<String> classes = classifier.getPossibleClasses();
+      out.writeInt(classes.size());
+      for (String classValue : classes) {
+         out.writeUTF(classValue);
+      }
+
+      out.writeObject(classifier.getFeatureSetGenerator());
+
+      ((PersistentClassifier)classifier).writeModel(out);
+      out.flush();
+   }
+
+   /**
+    * Load a classifier that was saved with either save().
+    * The vocabularies that save(CPCPClassifier, File) put after the model are mapped.
+    */
+   public static <E extends Document> CPCPClassifier<E> load(File file) throws IOException {
+      List<MappedFeatureDictionary> vocabularies = mapVocabularies(file);
+      InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+      try {
+         return load(in, vocabularies);
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Load a classifier that was saved with save(CPCPClassifier, OutputStream).
+    * The classifier is ready to classify, it does not need to be trained.
+    * The stream is not closed.
+    *
+    * @throws IOException If the model was saved to a file with mapped vocabularies,
+    *  use load(File) for those.
+    */
+   public static <E extends Document> CPCPClassifier<E> load(InputStream stream)
+         throws IOException {
+      return load(stream, null);
+   }
+
+   private static <E extends Document> CPCPClassifier<E> load(
+         InputStream stream, List<MappedFeatureDictionary> vocabularies) throws IOException {
+      ModelInputStream in = new ModelInputStream(stream, vocabularies);
+
+      if (in.readInt() != MAGIC) {
+         throw new IOException("Not a saved model.");
+      }
+
+      in.version = in.readInt();
+      if (in.version != VERSION && in.version != INLINE_VERSION) {
+         throw new IOException("Unsupported model version: " + in.version);
+      }
+
+      String type = in.readUTF();
+
+      int numClasses = in.readInt();
+      List<String> classes = new ArrayList<String>(numClasses);
+      for (int i = 0; i < numClasses; i++) {
+         classes.add(in.readUTF());
+      }
+
+      FeatureSetGenerator<E> fsg;
+      try {
+         @SuppressWarnings("unchecked")
+         FeatureSetGenerator<E> suppressWarningFsg = (FeatureSetGenerator<E>)in.readObject();
+         fsg = suppressWarningFsg;
+      } catch (ClassNotFoundException ex) {
+         throw new IOException("Unknown FeatureSetGenerator.", ex);
+      }
+
+      Method readModel = findReadModel(type);
+      try {
+         @SuppressWarnings("unchecked")
+         CPCPClassifier<E> rtn = (CPCPClassifier<E>)readModel.invoke(null, in, fsg, classes);
+         return rtn;
+      } catch (IllegalAccessException ex) {
+         throw new IOException("Cannot read model type: " + type, ex);
+      } catch (InvocationTargetException ex) {
+         if (ex.getCause() instanceof IOException) {
+            throw (IOException)ex.getCause();
+         } else if (ex.getCause() instanceof RuntimeException) {
+            throw (RuntimeException)ex.getCause();
+         }
+
+         throw new IOException("Unable to read model type: " + type, ex.getCause());
+      }
+   }
+
+   /**
+    * Find the static readModel() of a saved classifier class.
+    * Only PersistentClassifiers are considered, and the class is not initialized
+    *  unless it is one.
+    */
+   private static Method findReadModel(String type) throws IOException {
+      Class<?> classifierClass;
+      try {
+         classifierClass = Class.forName(type, false, ModelIO.class.getClassLoader());
+      } catch (ClassNotFoundException ex) {
+         throw new IOException("Unknown model type: " + type, ex);
+      }
+
+      if (!CPCPClassifier.class.isAssignableFrom(classifierClass) ||
+          !PersistentClassifier.class.isAssignableFrom(classifierClass)) {
+         throw new IOException("Not a persistent classifier: " + type);
+      }
+
+      Method rtn;
+      try {
+         rtn = classifierClass.getMethod("readModel", ObjectInputStream.class,
+                                         FeatureSetGenerator.class, List.class);
+      } catch (NoSuchMethodException ex) {
+         throw new IOException("Model type has no readModel(): " + type, ex);
+      }
+
+      if (!Modifier.isStatic(rtn.getModifiers()) ||
+          !CPCPClassifier.class.isAssignableFrom(rtn.getReturnType())) {
+         throw new IOException("Model type has no static readModel(): " + type);
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Write a frozen dictionary, keeping its ids.
+    * When saving to a File, only a reference goes into the model, and the dictionary is
+    *  written after it in the mapped format.
+    */
+   public static void writeDictionary(ObjectOutputStream out, FeatureDictionary dictionary)
+         throws IOException {
+      if (out instanceof ModelOutputStream && ((ModelOutputStream)out).vocabularies != null) {
+         List<FeatureDictionary> vocabularies = ((ModelOutputStream)out).vocabularies;
+
+         out.writeByte(MAPPED_DICTIONARY);
+         out.writeInt(vocabularies.size());
+         vocabularies.add(dictionary);
+         return;
+      }
+
+      out.writeByte(INLINE_DICTIONARY);
+      writeInline(out, dictionary);
+   }
+
+   private static void writeInline(ObjectOutputStream out, FeatureDictionary dictionary)
+         throws IOException {
+      out.writeInt(dictionary.size());
+      for (int id = 0; id < dictionary.size(); id++) {
+         out.writeUTF(dictionary.feature(id));
+      }
+   }
+
+   /**
+    * Read a dictionary that was written with writeDictionary().
+    * The ids are the same as the ones that were written.
+    * A mapped dictionary is only usable while loading from a File.
+    */
+   public static FeatureDictionary readDictionary(ObjectInputStream in) throws IOException {
+      ModelInputStream modelIn = (in instanceof ModelInputStream) ? (ModelInputStream)in : null;
+
+      if (modelIn != null && modelIn.version == INLINE_VERSION) {
+         return readInline(in);
+      }
+
+      byte type = in.readByte();
+      if (type == INLINE_DICTIONARY) {
+         return readInline(in);
+      } else if (type != MAPPED_DICTIONARY) {
+         throw new IOException("Corrupt dictionary.");
+      }
+
+      int ndx = in.readInt();
+      if (modelIn == null || modelIn.vocabularies == null) {
+         throw new IOException("The vocabulary is mapped from the model file, load the file.");
+      }
+
+      if (ndx < 0 || ndx >= modelIn.vocabularies.size()) {
+         throw new IOException("Missing vocabulary: " + ndx);
+      }
+
+      return modelIn.vocabularies.get(ndx);
+   }
+
+   private static FeatureDictionary readInline(ObjectInputStream in) throws IOException {
+      int size = in.readInt();
+
+      List<String> features = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+         features.add(in.readUTF());
+      }
+
+      return HashFeatureDictionary.inOrder(features);
+   }
+
+   /**
+    * Map the vocabularies at the end of a model file.
+    *
+    * @return The vocabularies in order, empty if the file has none.
+    */
+   private static List<MappedFeatureDictionary> mapVocabularies(File file) throws IOException {
+      List<MappedFeatureDictionary> rtn = new ArrayList<MappedFeatureDictionary>();
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+      try {
+         long length = raf.length();
+         if (length < 8) {
+            return rtn;
+         }
+
+         raf.seek(length - 8);
+         int count = raf.readInt();
+         if (raf.readInt() != VOCABULARY_MAGIC) {
+            // Saved to a stream, or an older version.
+            return rtn;
+         }
+
+         long tableStart = length - 8 - 8L * count;
+         if (count < 0 || tableStart < 0) {
+            throw new IOException("Corrupt vocabulary table.");
+         }
+
+         long[] offsets = new long[count + 1];
+         raf.seek(tableStart);
+         for (int i = 0; i < count; i++) {
+            offsets[i] = raf.readLong();
+         }
+         offsets[count] = tableStart;
+
+         // The mappings stay valid after the channel is closed.
+         FileChannel channel = raf.getChannel();
+         for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1] ||
+                offsets[i + 1] - offsets[i] > Integer.MAX_VALUE) {
+               throw new IOException("Corrupt vocabulary table.");
+            }
+
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i],
+                                            offsets[i + 1] - offsets[i]);
+            try {
+               rtn.add(new MappedFeatureDictionary(mapped));
+            } catch (IllegalArgumentException ex) {
+               throw new IOException("Corrupt vocabulary.", ex);
+            }
+         }
+
+         return rtn;
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Read an object that was written with writeObject(), and make sure it is the right type.
+    */
+   public static <T> T readObject(ObjectInputStream in, Class<T> type) throws IOException {
+      try {
+         return type.cast(in.readObject());
+      } catch (ClassNotFoundException ex) {
+         throw new IOException("Unknown class in model.", ex);
+      } catch (ClassCastException ex) {
+         throw new IOException("Corrupt model.", ex);
+      }
+   }
+
+   /**
+    * Collects the dictionaries to write after the model.
+    */
+   private static class ModelOutputStream extends ObjectOutputStream {
+      /**
+       * Null to write dictionaries into the model.
+       */
+      public final List<FeatureDictionary> vocabularies;
+
+      public ModelOutputStream(OutputStream out, List<FeatureDictionary> vocabularies)
+            throws IOException {
+         super(out);
+         this.vocabularies = vocabularies;
+      }
+   }
+
+   /**
+    * Knows the version being read and the mapped vocabularies of the file.
+    */
+   private static class ModelInputStream extends ObjectInputStream {
+      /**
+       * Null when loading from a stream.
+       */
+      public final List<MappedFeatureDictionary> vocabularies;
+
+      public int version;
+
+      public ModelInputStream(InputStream in, List<MappedFeatureDictionary> vocabularies)
+            throws IOException {
+         super(in);
+         this.vocabularies = vocabularies;
+         version = VERSION;
+      }
+   }
+}
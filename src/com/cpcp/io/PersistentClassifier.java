@@ -0,0 +1,21 @@
+package com.cpcp.io;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * A classifier whose trained model can be saved with ModelIO.
+ * Every implementation also needs a public static
+ *  readModel(ObjectInputStream, FeatureSetGenerator, List) that returns the classifier,
+ *  ModelIO finds it by the saved class name.
+ */
+public interface PersistentClassifier {
+   /**
+    * Write everything that training produced.
+    * ModelIO has already written the classifier type, the possible classes,
+    *  and the FeatureSetGenerator.
+    *
+    * @throws IllegalStateException If the classifier has not been trained.
+    */
+   void writeModel(ObjectOutputStream out) throws IOException;
+}
@@ -0,0 +1,698 @@
+package com.cpcp.io;
+
+import com.cpcp.document.TextDocument;
+import com.cpcp.document.TokenizedDocument;
+import com.cpcp.features.MappedFeatureDictionary;
+import com.cpcp.filter.FullFilter;
+import com.cpcp.filter.TextFilter;
+import com.cpcp.util.ParallelUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A corpus that was filtered and tokenized once, stored in a binary columnar file that is
+ *  read through a memory map.
+ * Experiments that load a TokenCorpus get the token ids of every document directly,
+ *  without running the TextFilter again.
+ * getDocuments() adapts the corpus to TokenizedDocuments, which NGram parses without
+ *  filtering, so the evaluation drivers take a token corpus wherever they take a GSV file
+ *  (see Evaluator.loadTrainingSet()).
+ *
+ * The token ids are the ids of the embedded MappedFeatureDictionary (the vocabulary),
+ *  so dictionary.feature(id) gives back the filtered word.
+ *
+ * Layout (all numbers are big-endian):
+ *  int magic, int version, int numDocuments, int numLabels, long numTokens
+ *  The name of the filter: int length, byte[length] UTF-8.
+ *  The labels: numLabels times (int length, byte[length] UTF-8).
+ *  int[numDocuments] - The label id of each document.
+ *  long[numDocuments + 1] - The offset of each document's tokens into the token column.
+ *  int[numTokens] - The token ids of all the documents, in order.
+ *  The vocabulary, as written by MappedFeatureDictionary.write().
+ *
+ * Files are mapped in pieces, so only the vocabulary has to be smaller than 2GB.
+ *
+ * Usage: TokenCorpus <gsv file> <output file>
+ */
+public class TokenCorpus {
+   public static final int MAGIC = 0x43504354;
+   public static final int VERSION = 2;
+
+   /**
+    * Columns are mapped in pieces of 2^PIECE_SHIFT elements (512MB of ints).
+    */
+   private static final int PIECE_SHIFT = 27;
+   private static final long PIECE_MASK = (1L << PIECE_SHIFT) - 1;
+
+   private final String filterName;
+   private final String[] labels;
+
+   private final IntColumn labelIds;
+   private final LongColumn offsets;
+   private final IntColumn tokens;
+
+   private final MappedFeatureDictionary dictionary;
+
+   /**
+    * The decoded vocabulary, only made once getDocuments() needs it.
+    */
+   private volatile String[] words;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 2) {
+         System.err.println("Usage: TokenCorpus <gsv file> <output file>");
+         System.exit(1);
+      }
+
+      long start = System.currentTimeMillis();
+      convert(new GsvReader(args[0]), new FullFilter(), new File(args[1]),
+              ParallelUtils.defaultThreads());
+
+      TokenCorpus corpus = open(new File(args[1]));
+      System.out.println(String.format("Wrote %s in %d ms.",
+                                       corpus, System.currentTimeMillis() - start));
+   }
+
+   /**
+    * Use a corpus that is already in memory.
+    * The corpus must start at the buffer's current position.
+    */
+   public TokenCorpus(ByteBuffer buffer) {
+      ByteBuffer view = buffer.slice();
+      Header header = new Header(view);
+
+      filterName = header.filterName;
+      labels = header.labels;
+
+      labelIds = new IntColumn(slice(view, header.numDocuments, 4));
+      offsets = new LongColumn(slice(view, header.numDocuments + 1L, 8));
+      tokens = new IntColumn(slice(view, header.numTokens, 4));
+
+      dictionary = new MappedFeatureDictionary(view);
+   }
+
+   private TokenCorpus(Header header, IntColumn labelIds, LongColumn offsets, IntColumn tokens,
+                       MappedFeatureDictionary dictionary) {
+      filterName = header.filterName;
+      labels = header.labels;
+
+      this.labelIds = labelIds;
+      this.offsets = offsets;
+      this.tokens = tokens;
+
+      this.dictionary = dictionary;
+   }
+
+   /**
+    * Map a corpus file that was made with convert().
+    */
+   public static TokenCorpus open(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+      try {
+         // The mappings stay valid after the channel is closed.
+         FileChannel channel = raf.getChannel();
+
+         // The header is small, the first piece of the file always holds it.
+         ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                       Math.min(channel.size(), Integer.MAX_VALUE));
+         Header header = new Header(head);
+
+         long position = head.position();
+         IntColumn labelIds = new IntColumn(map(channel, position, header.numDocuments, 4));
+         position += 4L * header.numDocuments;
+
+         LongColumn offsets = new LongColumn(map(channel, position, header.numDocuments + 1L, 8));
+         position += 8L * (header.numDocuments + 1L);
+
+         IntColumn tokens = new IntColumn(map(channel, position, header.numTokens, 4));
+         position += 4L * header.numTokens;
+
+         MappedFeatureDictionary dictionary = new MappedFeatureDictionary(
+               channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position));
+
+         return new TokenCorpus(header, labelIds, offsets, tokens, dictionary);
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Check if a file starts like a token corpus.
+    */
+   public static boolean isTokenCorpus(File file) throws IOException {
+      if (file.length() < 4) {
+         return false;
+      }
+
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+         return in.readInt() == MAGIC;
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Filter every document in |reader| and write the token corpus to |file|.
+    * The ranges of the reader are filtered on |numThreads| threads, each with its own
+    *  vocabulary, and the vocabularies are merged before anything is written.
+    *
+    * @throws IllegalArgumentException If there are more documents than a list can index,
+    *  or one range has more tokens than an array can hold (use more threads).
+    */
+   public static void convert(GsvReader reader, final TextFilter filter, File file,
+                              int numThreads) throws IOException {
+      final List<GsvReader.Range> ranges = reader.split(numThreads);
+      final RangeTokens[] parts = new RangeTokens[ranges.size()];
+
+      ParallelUtils.forRanges(ranges.size(), ranges.size(), new ParallelUtils.RangeTask() {
+         public void run(int worker, int start, int end) {
+            for (int rangeNdx = start; rangeNdx < end; rangeNdx++) {
+               parts[rangeNdx] = new RangeTokens();
+               for (GsvReader.Entry entry : ranges.get(rangeNdx)) {
+                  parts[rangeNdx].add(entry.getLabel(), filter.splitFilter(entry.getText()));
+               }
+            }
+         }
+      });
+
+      // Ids follow the sorted order of the words, just like MappedFeatureDictionary.
+      Set<String> vocabularySet = new HashSet<String>();
+      Set<String> labelSet = new HashSet<String>();
+      long numDocuments = 0;
+      long numTokens = 0;
+      for (RangeTokens part : parts) {
+         vocabularySet.addAll(part.vocabulary.keySet());
+         labelSet.addAll(part.labels.keySet());
+         numDocuments += part.numDocuments();
+         numTokens += part.tokens.size;
+      }
+
+      if (numDocuments > Integer.MAX_VALUE - 1) {
+         throw new IllegalArgumentException(String.format(
+               "%d documents, a token corpus holds at most %d.",
+               numDocuments, Integer.MAX_VALUE - 1));
+      }
+
+      String[] vocabulary = vocabularySet.toArray(new String[0]);
+      Arrays.sort(vocabulary);
+      Map<String, Integer> vocabularyIds = idMap(vocabulary);
+
+      String[] sortedLabels = labelSet.toArray(new String[0]);
+      Arrays.sort(sortedLabels);
+      Map<String, Integer> labelLookup = idMap(sortedLabels);
+
+      DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt((int)numDocuments);
+         out.writeInt(sortedLabels.length);
+         out.writeLong(numTokens);
+
+         writeString(out, filter.toString());
+         for (String label : sortedLabels) {
+            writeString(out, label);
+         }
+
+         for (RangeTokens part : parts) {
+            int[] globalLabels = part.globalIds(part.labels, labelLookup);
+            for (int i = 0; i < part.labelIds.size; i++) {
+               out.writeInt(globalLabels[part.labelIds.data[i]]);
+            }
+         }
+
+         long offset = 0;
+         out.writeLong(offset);
+         for (RangeTokens part : parts) {
+            for (int i = 0; i < part.numDocuments(); i++) {
+               offset += part.ends.data[i] - (i == 0 ? 0 : part.ends.data[i - 1]);
+               out.writeLong(offset);
+            }
+         }
+
+         for (RangeTokens part : parts) {
+            int[] globalTokens = part.globalIds(part.vocabulary, vocabularyIds);
+            for (int i = 0; i < part.tokens.size; i++) {
+               out.writeInt(globalTokens[part.tokens.data[i]]);
+            }
+         }
+
+         MappedFeatureDictionary.write(Arrays.asList(vocabulary), out);
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Get the number of documents.
+    */
+   public int size() {
+      return (int)labelIds.size;
+   }
+
+   /**
+    * Get the total number of tokens in all the documents.
+    */
+   public long getNumTokens() {
+      return tokens.size;
+   }
+
+   /**
+    * Get the toString() of the filter that made this corpus.
+    */
+   public String getFilterName() {
+      return filterName;
+   }
+
+   /**
+    * Get the vocabulary, token ids are ids in this dictionary.
+    */
+   public MappedFeatureDictionary getDictionary() {
+      return dictionary;
+   }
+
+   /**
+    * Get the distinct labels, in sorted order. Label ids index into this list.
+    */
+   public List<String> getLabelValues() {
+      return Arrays.asList(labels.clone());
+   }
+
+   public int getLabelId(int document) {
+      return labelIds.get(document);
+   }
+
+   public String getLabel(int document) {
+      return labels[labelIds.get(document)];
+   }
+
+   /**
+    * Get a read-only view of the label of every document,
+    *  the same as the classes list of the original corpus.
+    */
+   public List<String> getClasses() {
+      return new AbstractList<String>() {
+         public String get(int index) {
+            return getLabel(index);
+         }
+
+         public int size() {
+            return TokenCorpus.this.size();
+         }
+      };
+   }
+
+   /**
+    * Get the number of tokens in a document.
+    */
+   public int getNumTokens(int document) {
+      return (int)(offsets.get(document + 1) - offsets.get(document));
+   }
+
+   /**
+    * Get the token ids of a document, in the order the filter produced them.
+    */
+   public int[] getTokens(int document) {
+      int[] rtn = new int[getNumTokens(document)];
+      getTokens(document, rtn);
+      return rtn;
+   }
+
+   /**
+    * Get the token ids of a document using a caller supplied buffer.
+    *
+    * @return The number of ids written into |buffer|.
+    *
+    * @.pre buffer.length >= getNumTokens(document).
+    */
+   public int getTokens(int document, int[] buffer) {
+      long start = offsets.get(document);
+      int count = (int)(offsets.get(document + 1) - start);
+
+      // Absolute reads, so one corpus can be shared between threads.
+      for (int i = 0; i < count; i++) {
+         buffer[i] = tokens.get(start + i);
+      }
+
+      return count;
+   }
+
+   /**
+    * Get the distinct words of a document.
+    * For a corpus made with the same filter, this is what NGram(1, ...) would parse out
+    *  of the document, so it can be handed to a FeatureClassifier.
+    */
+   public Set<String> getFeatures(int document) {
+      long start = offsets.get(document);
+      long end = offsets.get(document + 1);
+
+      Set<String> rtn = new HashSet<String>();
+      for (long i = start; i < end; i++) {
+         rtn.add(dictionary.feature(tokens.get(i)));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Get the filtered words of a document, in order.
+    */
+   public String[] getWords(int document) {
+      String[] vocabulary = vocabulary();
+      int[] ids = getTokens(document);
+
+      String[] rtn = new String[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+         rtn[i] = vocabulary[ids[i]];
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Get a read-only view of every document, in the same order as getClasses().
+    * The documents are TokenizedDocuments, so NGram uses their words without filtering
+    *  them again, as long as it has the filter that made this corpus.
+    */
+   public List<TextDocument> getDocuments() {
+      return new DocumentList();
+   }
+
+   public String toString() {
+      return String.format("%s{documents=%d;labels=%d;tokens=%d;vocabulary=%d;filter=%s}",
+                           getClass().getCanonicalName(),
+                           size(),
+                           labels.length,
+                           getNumTokens(),
+                           dictionary.size(),
+                           filterName);
+   }
+
+   /**
+    * Decode the whole vocabulary once, so that documents don't decode a word per token.
+    */
+   private String[] vocabulary() {
+      String[] rtn = words;
+      if (rtn == null) {
+         rtn = new String[dictionary.size()];
+         for (int id = 0; id < rtn.length; id++) {
+            rtn[id] = dictionary.feature(id);
+         }
+
+         // Two threads may both decode it, either copy is fine.
+         words = rtn;
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Cut |length| elements of |elementBytes| bytes off the front of |view| in pieces.
+    */
+   private static ByteBuffer[] slice(ByteBuffer view, long length, int elementBytes) {
+      if (view.remaining() < length * elementBytes) {
+         throw new IllegalArgumentException("Truncated token corpus.");
+      }
+
+      ByteBuffer[] rtn = new ByteBuffer[numPieces(length)];
+      for (int i = 0; i < rtn.length; i++) {
+         int pieceBytes = pieceLength(length, i) * elementBytes;
+
+         rtn[i] = view.slice();
+         rtn[i].limit(pieceBytes);
+         view.position(view.position() + pieceBytes);
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Map |length| elements of |elementBytes| bytes starting at |position| in pieces.
+    */
+   private static ByteBuffer[] map(FileChannel channel, long position, long length,
+                                   int elementBytes) throws IOException {
+      if (channel.size() - position < length * elementBytes) {
+         throw new IOException("Truncated token corpus.");
+      }
+
+      ByteBuffer[] rtn = new ByteBuffer[numPieces(length)];
+      for (int i = 0; i < rtn.length; i++) {
+         rtn[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                              position + ((long)i << PIECE_SHIFT) * elementBytes,
+                              (long)pieceLength(length, i) * elementBytes);
+      }
+
+      return rtn;
+   }
+
+   private static int numPieces(long length) {
+      return (int)((length + PIECE_MASK) >>> PIECE_SHIFT);
+   }
+
+   private static int pieceLength(long length, int piece) {
+      return (int)Math.min(1L << PIECE_SHIFT, length - ((long)piece << PIECE_SHIFT));
+   }
+
+   private static String readString(ByteBuffer view) {
+      byte[] bytes = new byte[view.getInt()];
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void writeString(DataOutputStream out, String str) throws IOException {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static Map<String, Integer> idMap(String[] values) {
+      Map<String, Integer> rtn = new HashMap<String, Integer>(values.length * 2);
+      for (int i = 0; i < values.length; i++) {
+         rtn.put(values[i], Integer.valueOf(i));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Everything before the columns.
+    */
+   private static class Header {
+      public final String filterName;
+      public final String[] labels;
+      public final int numDocuments;
+      public final long numTokens;
+
+      /**
+       * Read a header off the front of |view|.
+       */
+      public Header(ByteBuffer view) {
+         if (view.remaining() < 24 || view.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a token corpus.");
+         }
+
+         int version = view.getInt();
+         if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported token corpus version: " + version);
+         }
+
+         numDocuments = view.getInt();
+         int numLabels = view.getInt();
+         numTokens = view.getLong();
+
+         filterName = readString(view);
+         labels = new String[numLabels];
+         for (int i = 0; i < numLabels; i++) {
+            labels[i] = readString(view);
+         }
+      }
+   }
+
+   /**
+    * A column of ints that may be bigger than one buffer.
+    */
+   private static class IntColumn {
+      private final IntBuffer[] pieces;
+      public final long size;
+
+      public IntColumn(ByteBuffer[] buffers) {
+         pieces = new IntBuffer[buffers.length];
+
+         long count = 0;
+         for (int i = 0; i < buffers.length; i++) {
+            pieces[i] = buffers[i].asIntBuffer();
+            count += pieces[i].limit();
+         }
+
+         size = count;
+      }
+
+      /**
+       * An absolute read, so one corpus can be shared between threads.
+       */
+      public int get(long index) {
+         return pieces[(int)(index >>> PIECE_SHIFT)].get((int)(index & PIECE_MASK));
+      }
+   }
+
+   /**
+    * A column of longs that may be bigger than one buffer.
+    */
+   private static class LongColumn {
+      private final LongBuffer[] pieces;
+
+      public LongColumn(ByteBuffer[] buffers) {
+         pieces = new LongBuffer[buffers.length];
+         for (int i = 0; i < buffers.length; i++) {
+            pieces[i] = buffers[i].asLongBuffer();
+         }
+      }
+
+      public long get(long index) {
+         return pieces[(int)(index >>> PIECE_SHIFT)].get((int)(index & PIECE_MASK));
+      }
+   }
+
+   /**
+    * The documents of the corpus, made on demand.
+    */
+   private class DocumentList extends AbstractList<TextDocument> implements RandomAccess {
+      public TextDocument get(int index) {
+         if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("" + index);
+         }
+
+         return new CorpusDocument(index);
+      }
+
+      public int size() {
+         return TokenCorpus.this.size();
+      }
+   }
+
+   /**
+    * One document of the corpus.
+    */
+   private class CorpusDocument extends TokenizedDocument {
+      private final int index;
+
+      public CorpusDocument(int index) {
+         this.index = index;
+      }
+
+      public String getFilterName() {
+         return filterName;
+      }
+
+      public String[] getWords() {
+         return TokenCorpus.this.getWords(index);
+      }
+   }
+
+   /**
+    * The tokens of one range of the input, with ids local to the range.
+    */
+   private static class RangeTokens {
+      public final Map<String, Integer> vocabulary;
+      public final Map<String, Integer> labels;
+
+      public final IntArray labelIds;
+
+      /**
+       * The end of each document's tokens in |tokens|.
+       */
+      public final IntArray ends;
+      public final IntArray tokens;
+
+      public RangeTokens() {
+         vocabulary = new HashMap<String, Integer>();
+         labels = new HashMap<String, Integer>();
+         labelIds = new IntArray();
+         ends = new IntArray();
+         tokens = new IntArray();
+      }
+
+      public int numDocuments() {
+         return labelIds.size;
+      }
+
+      public void add(String label, String[] words) {
+         labelIds.add(localId(labels, label));
+
+         for (String word : words) {
+            tokens.add(localId(vocabulary, word));
+         }
+
+         ends.add(tokens.size);
+      }
+
+      /**
+       * Map the local ids of |local| to the ids in |global|.
+       */
+      public int[] globalIds(Map<String, Integer> local, Map<String, Integer> global) {
+         int[] rtn = new int[local.size()];
+         for (Map.Entry<String, Integer> entry : local.entrySet()) {
+            rtn[entry.getValue().intValue()] = global.get(entry.getKey()).intValue();
+         }
+
+         return rtn;
+      }
+
+      private static int localId(Map<String, Integer> ids, String value) {
+         Integer id = ids.get(value);
+         if (id == null) {
+            id = Integer.valueOf(ids.size());
+            ids.put(value, id);
+         }
+
+         return id.intValue();
+      }
+   }
+
+   /**
+    * A growable int array.
+    */
+   private static class IntArray {
+      private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+      public int[] data = new int[16];
+      public int size = 0;
+
+      public void add(int value) {
+         if (size == data.length) {
+            if (size == MAX_SIZE) {
+               throw new IllegalArgumentException(
+                     "Too many tokens in one range of the input, convert with more threads.");
+            }
+
+            data = Arrays.copyOf(data, (int)Math.min((long)size * 2, MAX_SIZE));
+         }
+
+         data[size++] = value;
+      }
+   }
+}
@@ -0,0 +1,4 @@
+/**
+ * Reading and writing models and corpora.
+ */
+package com.cpcp.io;
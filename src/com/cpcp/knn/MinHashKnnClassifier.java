@@ -0,0 +1,556 @@
+package com.cpcp.knn;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.util.HashUtils;
+import com.cpcp.util.ParallelUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A k-nearest-neighbour classifier that finds its neighbours with a MinHash
+ *  locality sensitive hash (LSH) index instead of comparing against every training document.
+ * This is the scalable alternative to weka.classifiers.lazy.IBk.
+ *
+ * Every document's feature set gets a MinHash signature of |bands| * |rows| values.
+ * Each band of |rows| values is hashed into a bucket, and the candidate neighbours of
+ *  a document are the training documents that share at least one bucket with it.
+ * Two documents with Jaccard similarity s share a bucket with probability
+ *  1 - (1 - s^rows)^bands, so more bands find more distant neighbours and more rows make
+ *  the buckets more selective.
+ * The candidates are then re-ranked by their exact similarity, and the top k vote
+ *  with their similarity as the weight.
+ *
+ * Query time depends on the size of the buckets the document lands in, not on the size of
+ *  the training set, and is capped by |maxCandidates|. When the cap is hit, the candidates
+ *  are taken from the buckets in turn, each from its own query dependent starting point,
+ *  so no band and no range of documents gets the whole cap.
+ * Documents without any candidates get the most common class.
+ */
+public class MinHashKnnClassifier<E extends Document> extends CPCPClassifier<E>
+                                                    implements FeatureClassifier {
+   /**
+    * How to measure the exact similarity between two feature sets.
+    */
+   public enum Similarity {
+      JACCARD,
+      COSINE
+   }
+
+   /**
+    * The largest candidate cap whose seen set still fits a power of two sized array.
+    */
+   private static final int MAX_CANDIDATES = 1 << 29;
+
+   private final int k;
+   private final int bands;
+   private final int rows;
+   private final Similarity similarity;
+
+   private int maxCandidates;
+   private int numThreads;
+
+   private final int[] hashSeeds;
+   private final Map<String, Integer> classIndexes;
+
+   /**
+    * The current trained model, null until the first train().
+    */
+   private volatile Snapshot snapshot;
+
+   private final ThreadLocal<QueryBuffer> queryBuffer;
+
+   /**
+    * Use 32 bands of 2 rows, which finds most neighbours with a Jaccard similarity above
+    *  about 0.2. Short documents like tweets rarely share more than that.
+    */
+   public MinHashKnnClassifier(int k,
+                               FeatureSetGenerator<E> fsg,
+                               List<String> possibleClasses) {
+      this(k, 32, 2, Similarity.JACCARD, 4, fsg, possibleClasses);
+   }
+
+   public MinHashKnnClassifier(int k,
+                               int bands,
+                               int rows,
+                               Similarity similarity,
+                               long seed,
+                               FeatureSetGenerator<E> fsg,
+                               List<String> possibleClasses) {
+      super(possibleClasses, fsg);
+
+      if (k < 1 || bands < 1 || rows < 1) {
+         throw new IllegalArgumentException("k, bands, and rows must all be positive.");
+      }
+
+      this.k = k;
+      this.bands = bands;
+      this.rows = rows;
+      this.similarity = similarity;
+
+      maxCandidates = 5000;
+      numThreads = ParallelUtils.defaultThreads();
+
+      Random rand = new Random(seed);
+      hashSeeds = new int[bands * rows];
+      for (int i = 0; i < hashSeeds.length; i++) {
+         hashSeeds[i] = rand.nextInt();
+      }
+
+      classIndexes = new HashMap<String, Integer>();
+      for (int i = 0; i < this.possibleClasses.size(); i++) {
+         classIndexes.put(this.possibleClasses.get(i), i);
+      }
+
+      snapshot = null;
+
+      final int numClasses = this.possibleClasses.size();
+      queryBuffer = new ThreadLocal<QueryBuffer>() {
+         protected QueryBuffer initialValue() {
+            return new QueryBuffer(numClasses);
+         }
+      };
+   }
+
+   /**
+    * Set the most training documents that one query will compare against.
+    * Every classifying thread keeps scratch space proportional to this.
+    */
+   public void setMaxCandidates(int maxCandidates) {
+      if (maxCandidates < 1 || maxCandidates > MAX_CANDIDATES) {
+         throw new IllegalArgumentException(
+               "The candidate cap must be in [1, " + MAX_CANDIDATES + "], got " + maxCandidates);
+      }
+
+      this.maxCandidates = maxCandidates;
+   }
+
+   public void setNumThreads(int numThreads) {
+      this.numThreads = numThreads;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public void train(List<E> documents, List<String> classes) {
+      train(documents, classes, null);
+   }
+
+   /**
+    * @inheritDoc
+    *
+    * @param parsed Null to parse the documents while hashing them.
+    */
+   @Override
+   public synchronized void train(final List<E> documents, List<String> classes,
+                                  final List<Set<String>> parsed) {
+      final int[][] featureHashes = new int[documents.size()][];
+      final long[][] bandKeys = new long[documents.size()][];
+
+      ParallelUtils.forRanges(documents.size(), numThreads, new ParallelUtils.RangeTask() {
+         public void run(int worker, int start, int end) {
+            int[] signature = new int[hashSeeds.length];
+
+            for (int ndx = start; ndx < end; ndx++) {
+               Set<String> features = (parsed == null) ?
+                                      fsg.parseFeatures(documents.get(ndx)) : parsed.get(ndx);
+               featureHashes[ndx] = HashUtils.hashFeatures(features);
+               bandKeys[ndx] = new long[bands];
+               bandKeys(featureHashes[ndx], signature, bandKeys[ndx]);
+            }
+         }
+      });
+
+      int[] labels = new int[classes.size()];
+      int[] classCounts = new int[possibleClasses.size()];
+      for (int i = 0; i < classes.size(); i++) {
+         Integer classIndex = classIndexes.get(classes.get(i));
+         if (classIndex == null) {
+            throw new IllegalArgumentException("Unknown class: " + classes.get(i));
+         }
+
+         labels[i] = classIndex.intValue();
+         classCounts[labels[i]]++;
+      }
+
+      int majority = 0;
+      for (int classIndex = 1; classIndex < classCounts.length; classIndex++) {
+         if (classCounts[classIndex] > classCounts[majority]) {
+            majority = classIndex;
+         }
+      }
+
+      snapshot = new Snapshot(featureHashes, labels, buildIndex(bandKeys), majority);
+   }
+
+   /**
+    * Turn the band keys of every document into one bucket map per band.
+    */
+   private List<Map<Long, int[]>> buildIndex(long[][] bandKeys) {
+      List<Map<Long, int[]>> rtn = new ArrayList<Map<Long, int[]>>(bands);
+
+      for (int band = 0; band < bands; band++) {
+         // Count first so every bucket is allocated at its final size.
+         Map<Long, int[]> sizes = new HashMap<Long, int[]>();
+         for (long[] keys : bandKeys) {
+            int[] size = sizes.get(keys[band]);
+            if (size == null) {
+               size = new int[1];
+               sizes.put(keys[band], size);
+            }
+            size[0]++;
+         }
+
+         Map<Long, int[]> buckets = new HashMap<Long, int[]>(sizes.size() * 2);
+         for (Map.Entry<Long, int[]> entry : sizes.entrySet()) {
+            buckets.put(entry.getKey(), new int[entry.getValue()[0]]);
+            entry.getValue()[0] = 0;
+         }
+
+         for (int doc = 0; doc < bandKeys.length; doc++) {
+            int[] size = sizes.get(bandKeys[doc][band]);
+            buckets.get(bandKeys[doc][band])[size[0]++] = doc;
+         }
+
+         rtn.add(buckets);
+      }
+
+      return rtn;
+   }
+
+   /**
+    * @inheritDoc
+    * The confidence is the share of the neighbours' similarity that voted for the class.
+    */
+   public ClassificationResult classify(E document) {
+      return classifyFeatures(fsg.parseFeatures(document));
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classifyFeatures(Set<String> features) {
+      QueryBuffer buffer = queryBuffer.get();
+      int best = vote(snapshot, features, buffer, buffer.votes, 0);
+
+      return new ClassificationResult(possibleClasses.get(best), buffer.votes[best]);
+   }
+
+   /**
+    * @inheritDoc
+    * The distribution is the share of the neighbours' similarity that voted for each class.
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      return vote(snapshot, fsg.parseFeatures(document), queryBuffer.get(), distribution, offset);
+   }
+
+   /**
+    * Find the neighbours of a document and let them vote.
+    *
+    * @param votes Gets the normalized votes, starting at |offset|.
+    *
+    * @return The index of the winning class.
+    */
+   private int vote(Snapshot current, Set<String> features, QueryBuffer buffer,
+                    double[] votes, int offset) {
+      assert(current != null);
+
+      int numClasses = possibleClasses.size();
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         votes[offset + classIndex] = 0;
+      }
+
+      int numNeighbours = neighbours(current, HashUtils.hashFeatures(features), buffer);
+      if (numNeighbours == 0) {
+         votes[offset + current.majority] = 1;
+         return current.majority;
+      }
+
+      double total = 0;
+      for (int i = 0; i < numNeighbours; i++) {
+         // Keep identical-but-zero-similarity neighbours (like two empty documents) voting.
+         double weight = Math.max(buffer.topSimilarities[i], 1e-9);
+         votes[offset + current.labels[buffer.topDocs[i]]] += weight;
+         total += weight;
+      }
+
+      int best = 0;
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         votes[offset + classIndex] /= total;
+         if (votes[offset + classIndex] > votes[offset + best]) {
+            best = classIndex;
+         }
+      }
+
+      return best;
+   }
+
+   /**
+    * Find the k most similar candidates.
+    * They are left in |buffer.topDocs| and |buffer.topSimilarities|, most similar first.
+    *
+    * @return The number of neighbours found, at most k.
+    */
+   private int neighbours(Snapshot current, int[] featureHashes, QueryBuffer buffer) {
+      int cap = Math.min(maxCandidates, current.featureHashes.length);
+      buffer.prepare(cap, hashSeeds.length, bands, k);
+
+      bandKeys(featureHashes, buffer.signature, buffer.bandKeys);
+
+      // The buckets the query landed in, each with a starting point picked from the query.
+      long queryKey = 0;
+      for (long key : buffer.bandKeys) {
+         queryKey = HashUtils.mix64(queryKey ^ key);
+      }
+
+      int numBuckets = 0;
+      int longest = 0;
+      for (int band = 0; band < bands; band++) {
+         int[] bucket = current.index.get(band).get(buffer.bandKeys[band]);
+         if (bucket == null) {
+            continue;
+         }
+
+         buffer.buckets[numBuckets] = bucket;
+         buffer.starts[numBuckets] = (int)Long.remainderUnsigned(
+               HashUtils.mix64(queryKey + band), bucket.length);
+         numBuckets++;
+         longest = Math.max(longest, bucket.length);
+      }
+
+      int numNeighbours = 0;
+      int numCandidates = 0;
+
+      // Round-robin between the buckets, so one big bucket can't take the whole cap.
+      for (int pos = 0; pos < longest && numCandidates < cap; pos++) {
+         for (int b = 0; b < numBuckets && numCandidates < cap; b++) {
+            int[] bucket = buffer.buckets[b];
+            if (pos >= bucket.length) {
+               continue;
+            }
+
+            int doc = bucket[(int)(((long)buffer.starts[b] + pos) % bucket.length)];
+            if (!buffer.markSeen(doc)) {
+               continue;
+            }
+            numCandidates++;
+
+            double score = similarity(featureHashes, current.featureHashes[doc]);
+
+            // Insertion into the sorted top k.
+            if (numNeighbours < k) {
+               numNeighbours++;
+            } else if (score <= buffer.topSimilarities[k - 1]) {
+               continue;
+            }
+
+            int ndx = numNeighbours - 1;
+            while (ndx > 0 && buffer.topSimilarities[ndx - 1] < score) {
+               buffer.topSimilarities[ndx] = buffer.topSimilarities[ndx - 1];
+               buffer.topDocs[ndx] = buffer.topDocs[ndx - 1];
+               ndx--;
+            }
+
+            buffer.topSimilarities[ndx] = score;
+            buffer.topDocs[ndx] = doc;
+         }
+      }
+
+      // Don't hold on to the buckets of an old snapshot.
+      Arrays.fill(buffer.buckets, 0, numBuckets, null);
+
+      return numNeighbours;
+   }
+
+   /**
+    * The exact similarity between two sorted sets of feature hashes.
+    */
+   private double similarity(int[] a, int[] b) {
+      if (a.length == 0 || b.length == 0) {
+         return 0;
+      }
+
+      int intersection = 0;
+      int i = 0;
+      int j = 0;
+      while (i < a.length && j < b.length) {
+         if (a[i] == b[j]) {
+            intersection++;
+            i++;
+            j++;
+         } else if (a[i] < b[j]) {
+            i++;
+         } else {
+            j++;
+         }
+      }
+
+      if (similarity == Similarity.COSINE) {
+         return intersection / Math.sqrt((double)a.length * b.length);
+      }
+
+      return (double)intersection / (a.length + b.length - intersection);
+   }
+
+   /**
+    * Compute the MinHash signature of a document and hash each band of it into a key.
+    *
+    * @param signature Scratch space for |bands| * |rows| values.
+    * @param keys Gets one key per band.
+    */
+   private void bandKeys(int[] featureHashes, int[] signature, long[] keys) {
+      for (int i = 0; i < signature.length; i++) {
+         int min = Integer.MAX_VALUE;
+         for (int hash : featureHashes) {
+            min = Math.min(min, HashUtils.mix32(hash ^ hashSeeds[i]));
+         }
+         signature[i] = min;
+      }
+
+      for (int band = 0; band < bands; band++) {
+         long key = band;
+         for (int row = 0; row < rows; row++) {
+            key = key * 0x9E3779B97F4A7C15L + signature[band * rows + row];
+         }
+         keys[band] = HashUtils.mix64(key);
+      }
+   }
+
+   public String toString() {
+      return String.format("%s{k=%d;bands=%d;rows=%d;similarity=%s;fsg=%s}",
+                           getClass().getCanonicalName(),
+                           k,
+                           bands,
+                           rows,
+                           similarity,
+                           fsg.toString());
+   }
+
+   /**
+    * Everything that training produces.
+    */
+   private static class Snapshot {
+      /**
+       * The sorted feature hashes of every training document.
+       */
+      public final int[][] featureHashes;
+
+      public final int[] labels;
+
+      /**
+       * One bucket map per band, from band key to the training documents in the bucket.
+       */
+      public final List<Map<Long, int[]>> index;
+
+      /**
+       * The most common class, for documents without neighbours.
+       */
+      public final int majority;
+
+      public Snapshot(int[][] featureHashes, int[] labels,
+                      List<Map<Long, int[]>> index, int majority) {
+         this.featureHashes = featureHashes;
+         this.labels = labels;
+         this.index = index;
+         this.majority = majority;
+      }
+   }
+
+   /**
+    * Per thread scratch space for queries.
+    */
+   private static class QueryBuffer {
+      /**
+       * The candidates already scored by the query, an open addressing set of doc + 1
+       *  (0 is an empty slot). Sized for the candidate cap, not the training set.
+       */
+      public int[] seen = new int[0];
+
+      /**
+       * The slots of |seen| that the query filled, to clear for the next query.
+       */
+      public int[] seenSlots = new int[0];
+      public int numSeen = 0;
+
+      /**
+       * The buckets of the query, and where to start walking each one.
+       */
+      public int[][] buckets = new int[0][];
+      public int[] starts = new int[0];
+
+      public int[] signature = new int[0];
+      public long[] bandKeys = new long[0];
+
+      public int[] topDocs = new int[0];
+      public double[] topSimilarities = new double[0];
+
+      public final double[] votes;
+
+      public QueryBuffer(int numClasses) {
+         votes = new double[numClasses];
+      }
+
+      /**
+       * Make sure everything is big enough and start a new query.
+       */
+      public void prepare(int maxCandidates, int numHashes, int bands, int k) {
+         if (seenSlots.length < maxCandidates) {
+            // At most half full, so probes stay short.
+            int size = 2;
+            while (size < 2 * maxCandidates) {
+               size <<= 1;
+            }
+
+            seen = new int[size];
+            seenSlots = new int[maxCandidates];
+         } else {
+            for (int i = 0; i < numSeen; i++) {
+               seen[seenSlots[i]] = 0;
+            }
+         }
+         numSeen = 0;
+
+         if (signature.length != numHashes) {
+            signature = new int[numHashes];
+            bandKeys = new long[bands];
+            buckets = new int[bands][];
+            starts = new int[bands];
+         }
+
+         if (topDocs.length != k) {
+            topDocs = new int[k];
+            topSimilarities = new double[k];
+         }
+      }
+
+      /**
+       * Add a candidate to the seen set.
+       *
+       * @return False if the query already saw it.
+       */
+      public boolean markSeen(int doc) {
+         int mask = seen.length - 1;
+         int slot = HashUtils.mix32(doc) & mask;
+         while (seen[slot] != 0) {
+            if (seen[slot] == doc + 1) {
+               return false;
+            }
+            slot = (slot + 1) & mask;
+         }
+
+         seen[slot] = doc + 1;
+         seenSlots[numSeen++] = slot;
+         return true;
+      }
+   }
+}
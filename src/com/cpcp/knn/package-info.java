@@ -0,0 +1,4 @@
+/**
+ * Native nearest neighbour classifiers that use an index instead of a brute force search.
+ */
+package com.cpcp.knn;
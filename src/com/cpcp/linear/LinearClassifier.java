@@ -0,0 +1,862 @@
+package com.cpcp.linear;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureDictionary;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.HashFeatureDictionary;
+import com.cpcp.features.HashedFeatureDictionary;
+import com.cpcp.io.ModelIO;
+import com.cpcp.io.PersistentClassifier;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.Profiler;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A native multiclass linear classifier trained with stochastic gradient descent.
+ * This is the scalable alternative to weka.classifiers.functions.SMO for large training sets.
+ *
+ * Two losses are supported:
+ *  LOGISTIC - Multinomial logistic regression (softmax).
+ *  HINGE - A one-vs-rest linear SVM.
+ * Both can be regularized with L1 (truncated gradient) and/or L2 (weight decay).
+ * During training, regularization is applied lazily: a feature's weights catch up on the decay
+ *  of every step they missed the next time an example has the feature, and at the end of every
+ *  epoch. So a step only touches the weights of the example's features.
+ *
+ * Training is lock-free and parallel in the Hogwild style: every epoch, the shuffled documents
+ *  are split between the training threads, and every thread updates the one shared weight array
+ *  without any locking.
+ * Documents are sparse, so threads rarely touch the same weights, and the occasional lost update
+ *  does not hurt convergence.
+ * To keep the threads off each other's cache lines, the weights are feature-major (a feature's
+ *  weights for all the classes are next to each other), classes with a zero gradient are not
+ *  written, and each thread sums its bias gradients locally and only adds them to the shared
+ *  biases every so often.
+ * A fixed number of epochs is run, with the learning rate decaying as rate / (1 + epoch).
+ * See ThreadScalingBenchmark for how training throughput scales with threads.
+ *
+ * Features are either ids from a dictionary frozen over the training feature space, or hashed
+ *  (see setHashBits()), which needs no dictionary at all.
+ *
+ * Like the other native classifiers, the trained model is an immutable snapshot and
+ *  classification is lock-free.
+ * The classifier is updateable: update() takes one SGD step per document on a working copy of
+ *  the weights, which is published every setPublishInterval() updates or on publish().
+ */
+public class LinearClassifier<E extends Document> extends CPCPClassifier<E>
+                                                implements PersistentClassifier,
+                                                           LinearModelSource,
+                                                           FeatureClassifier {
+   /**
+    * The loss functions that are supported.
+    */
+   public enum Loss {
+      LOGISTIC,
+      HINGE
+   }
+
+   private static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+
+   /**
+    * The number of steps a training thread takes between adding its bias gradients into
+    *  the shared biases.
+    */
+   private static final int BIAS_SYNC_STEPS = 64;
+
+   private final Loss loss;
+
+   private int epochs;
+   private double learningRate;
+   private double l1;
+   private double l2;
+   private int hashBits;
+   private int numThreads;
+   private long seed;
+
+   private final Map<String, Integer> classIndexes;
+
+   /**
+    * The current trained model, null until the first train().
+    */
+   private volatile Snapshot snapshot;
+
+   /**
+    * Bumped every time |snapshot| is replaced, see getModelVersion().
+    */
+   private volatile long modelVersion;
+
+   /**
+    * The weights that update() works on, guarded by |updateLock|.
+    * Null until the first update() after training.
+    */
+   private Snapshot working;
+
+   /**
+    * The number of updates in |working| that are not in |snapshot| yet.
+    */
+   private int unpublished;
+
+   private int publishInterval;
+
+   private final Object updateLock;
+
+   /**
+    * Scratch space for class scores so that classification does not allocate.
+    */
+   private final ThreadLocal<double[]> scoreBuffer;
+
+   public LinearClassifier(Loss loss,
+                           FeatureSetGenerator<E> fsg,
+                           List<String> possibleClasses) {
+      super(possibleClasses, fsg);
+
+      this.loss = loss;
+
+      epochs = 10;
+      learningRate = 0.1;
+      l1 = 0;
+      l2 = 0.00001;
+      hashBits = 0;
+      numThreads = ParallelUtils.defaultThreads();
+      seed = 4;
+
+      classIndexes = new HashMap<String, Integer>();
+      for (int i = 0; i < this.possibleClasses.size(); i++) {
+         classIndexes.put(this.possibleClasses.get(i), i);
+      }
+
+      final int numClasses = this.possibleClasses.size();
+      scoreBuffer = new ThreadLocal<double[]>() {
+         protected double[] initialValue() {
+            return new double[numClasses];
+         }
+      };
+
+      snapshot = null;
+      working = null;
+      unpublished = 0;
+      publishInterval = DEFAULT_PUBLISH_INTERVAL;
+      updateLock = new Object();
+   }
+
+   /**
+    * Set the number of passes over the training set.
+    */
+   public void setEpochs(int epochs) {
+      this.epochs = epochs;
+   }
+
+   /**
+    * Set the initial learning rate.
+    */
+   public void setLearningRate(double learningRate) {
+      this.learningRate = learningRate;
+   }
+
+   /**
+    * Set the regularization strengths, zero turns a regularizer off.
+    */
+   public void setRegularization(double l1, double l2) {
+      this.l1 = l1;
+      this.l2 = l2;
+   }
+
+   /**
+    * Hash features into 2^bits ids instead of building a dictionary.
+    * Zero (the default) uses a dictionary over the FeatureSetGenerator's feature space.
+    *
+    * @throws IllegalArgumentException If the weights for 2^bits ids and every class do not fit
+    *  in one array.
+    */
+   public void setHashBits(int hashBits) {
+      if (hashBits > 0) {
+         LinearModel.numWeights(possibleClasses.size(),
+                                new HashedFeatureDictionary(hashBits).size());
+      }
+
+      this.hashBits = hashBits;
+   }
+
+   public void setNumThreads(int numThreads) {
+      this.numThreads = numThreads;
+   }
+
+   /**
+    * Set how many updates are absorbed before they are published automatically.
+    * Publishing copies the weights. Call publish() to publish right away.
+    */
+   public void setPublishInterval(int publishInterval) {
+      if (publishInterval < 1) {
+         throw new IllegalArgumentException("The publish interval must be positive.");
+      }
+
+      synchronized (updateLock) {
+         this.publishInterval = publishInterval;
+      }
+   }
+
+   /**
+    * Set the seed for shuffling the training set.
+    * With more than one thread, training is not deterministic anyway.
+    */
+   public void setSeed(long seed) {
+      this.seed = seed;
+   }
+
+   /**
+    * @inheritDoc
+    *
+    * @throws IllegalArgumentException If the model would have more weights than one array
+    *  can hold.
+    */
+   public void train(List<E> documents, List<String> classes) {
+      train(documents, classes, null);
+   }
+
+   /**
+    * @inheritDoc
+    * See train(List, List).
+    *
+    * @param featureSets Null to parse the documents while vectorizing them.
+    */
+   @Override
+   public synchronized void train(List<E> documents, List<String> classes,
+                                  List<Set<String>> featureSets) {
+      FeatureDictionary dictionary = makeDictionary(documents, classes, featureSets);
+      int numClasses = possibleClasses.size();
+      int numFeatures = dictionary.size();
+
+      Snapshot model = new Snapshot(dictionary,
+                                          new double[LinearModel.numWeights(numClasses,
+                                                                            numFeatures)],
+                                          new double[numClasses]);
+
+      // One pool for the whole training run, the epochs reuse it.
+      int poolSize = ParallelUtils.numWorkers(Math.max(documents.size(), numFeatures), numThreads);
+      ExecutorService pool = (poolSize == 1) ? null : Executors.newFixedThreadPool(poolSize);
+      try {
+         runEpochs(model, vectorize(dictionary, documents, featureSets, pool), labels(classes),
+                   pool);
+      } finally {
+         if (pool != null) {
+            pool.shutdownNow();
+         }
+      }
+
+      // Waiting on the workers makes all their writes visible here.
+      synchronized (updateLock) {
+         snapshot = model;
+         modelVersion++;
+         working = null;
+         unpublished = 0;
+      }
+   }
+
+   /**
+    * Vectorize every document once up front, so the epochs only see ids.
+    *
+    * @param featureSets The parsed documents, or null to parse them here.
+    * @param pool The pool to run on, or null for just this thread.
+    */
+   private int[][] vectorize(final FeatureDictionary dictionary, final List<E> documents,
+                             final List<Set<String>> featureSets, ExecutorService pool) {
+      final int[][] vectors = new int[documents.size()][];
+      forRanges(documents.size(), pool, new ParallelUtils.RangeTask() {
+         public void run(int worker, int start, int end) {
+            // Profiled per range, not per document, parsing dominates the indexing.
+            Profiler.Scope scope = Profiler.enter(Profiler.Phase.FILTER);
+            try {
+               for (int ndx = start; ndx < end; ndx++) {
+                  vectors[ndx] = dictionary.indexFeatures(
+                        (featureSets == null) ? fsg.parseFeatures(documents.get(ndx)) :
+                                                featureSets.get(ndx));
+               }
+            } finally {
+               scope.close();
+            }
+         }
+      });
+
+      return vectors;
+   }
+
+   private int[] labels(List<String> classes) {
+      int[] rtn = new int[classes.size()];
+      for (int i = 0; i < classes.size(); i++) {
+         rtn[i] = classIndex(classes.get(i));
+      }
+
+      return rtn;
+   }
+
+   /**
+    * Run all the SGD epochs over |vectors|, Hogwild style when there is a pool.
+    * Every epoch shuffles the whole training set with one seeded permutation and then deals
+    *  each worker a contiguous slice of it. Training sets are often sorted by class, so
+    *  shuffling only within each worker's range of the original order would leave each
+    *  worker with only a class or two.
+    */
+   private void runEpochs(final Snapshot model, final int[][] vectors, final int[] labels,
+                          ExecutorService pool) {
+      final int numClasses = model.biases.length;
+      final int numFeatures = model.dictionary.size();
+
+      // Steps are numbered within an epoch by interleaving the workers, so that a worker's
+      //  k-th step is step k * numWorkers + worker + 1 without sharing a counter.
+      final int numWorkers = ParallelUtils.numWorkers(vectors.length, numThreads);
+      final int maxShare = (vectors.length + numWorkers - 1) / numWorkers;
+      final int epochSteps = maxShare * numWorkers;
+
+      // The last step each feature was regularized through, in the current epoch.
+      final int[] regularizedAt = new int[numFeatures];
+
+      final int[] order = new int[vectors.length];
+
+      for (int epoch = 0; epoch < epochs; epoch++) {
+         final double rate = learningRate / (1 + epoch);
+
+         // Fisher-Yates over the whole training set.
+         Random rand = new Random(seed + epoch * 1000003L);
+         for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+         }
+         for (int i = order.length - 1; i > 0; i--) {
+            int swap = rand.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[swap];
+            order[swap] = temp;
+         }
+
+         forRanges(vectors.length, pool, new ParallelUtils.RangeTask() {
+            public void run(int worker, int start, int end) {
+               Stepper stepper = new Stepper(model, regularizedAt);
+
+               for (int k = 0; k < end - start; k++) {
+                  int ndx = order[start + k];
+                  stepper.step(vectors[ndx], labels[ndx], rate, k * numWorkers + worker + 1);
+               }
+
+               stepper.flushBiases();
+            }
+         });
+
+         // Catch every feature up to the end of the epoch, the next epoch has another rate.
+         if (l1 > 0 || l2 > 0) {
+            forRanges(numFeatures, pool, new ParallelUtils.RangeTask() {
+               public void run(int worker, int start, int end) {
+                  for (int id = start; id < end; id++) {
+                     regularize(model.weights, id * numClasses, numClasses, rate,
+                                epochSteps - regularizedAt[id]);
+                     regularizedAt[id] = 0;
+                  }
+               }
+            });
+         }
+      }
+   }
+
+   /**
+    * Run |task| over [0, size) on |pool|, or on just this thread if there is no pool.
+    */
+   private void forRanges(int size, ExecutorService pool, ParallelUtils.RangeTask task) {
+      if (pool == null) {
+         task.run(0, 0, size);
+      } else {
+         ParallelUtils.forRanges(size, numThreads, pool, task);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * This changes when a model is trained or published.
+    */
+   @Override
+   public long getModelVersion() {
+      return modelVersion;
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public boolean isUpdateable() {
+      return true;
+   }
+
+   /**
+    * @inheritDoc
+    * One SGD step at the learning rate that training ended with.
+    * The regularization is only applied to the weights of the document's features.
+    * With a dictionary, features that were not in the training feature space are ignored.
+    * With hashed features, updates can start without any training.
+    *
+    * @throws IllegalStateException If the classifier uses a dictionary and is not trained.
+    */
+   public void update(E document, String classValue) {
+      int classIndex = classIndex(classValue);
+
+      synchronized (updateLock) {
+         Snapshot model = workingModel();
+         int[] ids = model.dictionary.indexFeatures(fsg.parseFeatures(document));
+
+         new Stepper(model, null).step(ids, classIndex, learningRate / (1 + epochs), 1);
+
+         unpublished++;
+         if (unpublished >= publishInterval) {
+            publishLocked();
+         }
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * Publishes a copy of the working weights.
+    */
+   public void publish() {
+      synchronized (updateLock) {
+         if (working != null && unpublished > 0) {
+            publishLocked();
+         }
+      }
+   }
+
+   /**
+    * Must hold |updateLock|.
+    */
+   private void publishLocked() {
+      snapshot = working.copy();
+      modelVersion++;
+      unpublished = 0;
+   }
+
+   /**
+    * @inheritDoc
+    * The confidence is the softmax of the class scores.
+    * For LOGISTIC, that is the model's probability for the class.
+    */
+   public ClassificationResult classify(E document) {
+      return classifyFeatures(fsg.parseFeatures(document));
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classifyFeatures(Set<String> features) {
+      double[] scores = scoreBuffer.get();
+      int best = probabilities(snapshot, features, scores, 0);
+
+      return new ClassificationResult(possibleClasses.get(best), scores[best]);
+   }
+
+   /**
+    * @inheritDoc
+    * The distribution is the softmax of the class scores.
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      return probabilities(snapshot, fsg.parseFeatures(document), distribution, offset);
+   }
+
+   /**
+    * Score a document against every class and turn the scores into probabilities.
+    *
+    * @param probabilities Gets the probabilities starting at |offset|.
+    *
+    * @return The index of the highest scoring class.
+    */
+   private int probabilities(Snapshot current, Set<String> features,
+                             double[] probabilities, int offset) {
+      assert(current != null);
+
+      int numClasses = current.biases.length;
+      System.arraycopy(current.biases, 0, probabilities, offset, numClasses);
+
+      for (String feature : features) {
+         int id = current.dictionary.indexOf(feature);
+         if (id < 0) {
+            continue;
+         }
+
+         int row = id * numClasses;
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            probabilities[offset + classIndex] += current.weights[row + classIndex];
+         }
+      }
+
+      return softmax(probabilities, offset, numClasses);
+   }
+
+   /**
+    * Apply |steps| steps worth of regularization to one feature's weights.
+    *
+    * @param row Where the feature's weights start.
+    */
+   private void regularize(double[] weights, int row, int numClasses, double rate, int steps) {
+      if (steps <= 0) {
+         return;
+      }
+
+      double decay = (l2 > 0) ? Math.pow(Math.max(0, 1 - rate * l2), steps) : 1;
+      double truncation = rate * l1 * steps;
+
+      for (int i = row; i < row + numClasses; i++) {
+         double weight = weights[i] * decay;
+
+         if (truncation > 0) {
+            if (weight > truncation) {
+               weight -= truncation;
+            } else if (weight < -truncation) {
+               weight += truncation;
+            } else {
+               weight = 0;
+            }
+         }
+
+         weights[i] = weight;
+      }
+   }
+
+   /**
+    * Takes SGD steps on one model for one thread.
+    * Nothing is locked, concurrent steps on the same model are the Hogwild part.
+    */
+   private class Stepper {
+      private final Snapshot model;
+      private final int numClasses;
+
+      /**
+       * The step each feature was last regularized through, shared by all the threads.
+       * Null to regularize a feature's weights for exactly one step whenever an example
+       *  has it (for update()).
+       */
+      private final int[] regularizedAt;
+
+      private final double[] scores;
+
+      /**
+       * This thread's bias gradients that are not in the model's biases yet.
+       */
+      private final double[] biasDeltas;
+      private int unsyncedSteps;
+
+      public Stepper(Snapshot model, int[] regularizedAt) {
+         this.model = model;
+         this.regularizedAt = regularizedAt;
+
+         numClasses = model.biases.length;
+         scores = new double[numClasses];
+         biasDeltas = new double[numClasses];
+         unsyncedSteps = 0;
+      }
+
+      /**
+       * Take one SGD step on a single example.
+       *
+       * @param step The number of this step in the epoch, starting at 1.
+       */
+      public void step(int[] ids, int label, double rate, int step) {
+         double[] weights = model.weights;
+
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            scores[classIndex] = model.biases[classIndex] + biasDeltas[classIndex];
+         }
+
+         for (int id : ids) {
+            int row = id * numClasses;
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               scores[classIndex] += weights[row + classIndex];
+            }
+         }
+
+         // Turn the scores into the gradient of the loss with respect to each class score.
+         if (loss == Loss.LOGISTIC) {
+            softmax(scores, 0, numClasses);
+            scores[label] -= 1;
+         } else {
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               double target = (classIndex == label) ? 1 : -1;
+               scores[classIndex] = (target * scores[classIndex] < 1) ? -target : 0;
+            }
+         }
+
+         boolean regularized = l1 > 0 || l2 > 0;
+         for (int id : ids) {
+            int row = id * numClasses;
+
+            if (regularized) {
+               if (regularizedAt == null) {
+                  regularize(weights, row, numClasses, rate, 1);
+               } else {
+                  regularize(weights, row, numClasses, rate, step - regularizedAt[id]);
+                  regularizedAt[id] = step;
+               }
+            }
+
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               double gradient = scores[classIndex];
+               if (gradient != 0) {
+                  weights[row + classIndex] -= rate * gradient;
+               }
+            }
+         }
+
+         for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            biasDeltas[classIndex] -= rate * scores[classIndex];
+         }
+
+         unsyncedSteps++;
+         if (regularizedAt == null || unsyncedSteps >= BIAS_SYNC_STEPS) {
+            flushBiases();
+         }
+      }
+
+      /**
+       * Add this thread's bias gradients into the model.
+       * This is rare enough to lock, so no bias gradient is lost to a race.
+       */
+      public void flushBiases() {
+         synchronized (model.biases) {
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               model.biases[classIndex] += biasDeltas[classIndex];
+            }
+         }
+
+         Arrays.fill(biasDeltas, 0);
+         unsyncedSteps = 0;
+      }
+   }
+
+   /**
+    * Turn scores[offset, offset + length) into probabilities in place.
+    *
+    * @return The index of the highest score, relative to |offset|.
+    */
+   private static int softmax(double[] scores, int offset, int length) {
+      int best = 0;
+      for (int i = 1; i < length; i++) {
+         if (scores[offset + i] > scores[offset + best]) {
+            best = i;
+         }
+      }
+
+      double max = scores[offset + best];
+      double normalizer = 0;
+      for (int i = 0; i < length; i++) {
+         scores[offset + i] = Math.exp(scores[offset + i] - max);
+         normalizer += scores[offset + i];
+      }
+
+      for (int i = 0; i < length; i++) {
+         scores[offset + i] /= normalizer;
+      }
+
+      return best;
+   }
+
+   /**
+    * @param featureSets The parsed documents, or null if they are not parsed yet.
+    */
+   private FeatureDictionary makeDictionary(List<E> documents, List<String> classes,
+                                            List<Set<String>> featureSets) {
+      if (hashBits > 0) {
+         return new HashedFeatureDictionary(hashBits);
+      }
+
+      Profiler.Scope scope = Profiler.enter(Profiler.Phase.FEATURE_SPACE);
+      try {
+         return new HashFeatureDictionary((featureSets == null) ?
+                                          fsg.getFeatureSpace(documents, classes) :
+                                          fsg.getFeatureSpace(documents, classes, featureSets));
+      } finally {
+         scope.close();
+      }
+   }
+
+   /**
+    * Get the weights that update() should change, copying the snapshot the first time.
+    * Must hold |updateLock|.
+    */
+   private Snapshot workingModel() {
+      if (working != null) {
+         return working;
+      }
+
+      Snapshot current = snapshot;
+      if (current == null) {
+         if (hashBits <= 0) {
+            throw new IllegalStateException("Train the classifier before updating it.");
+         }
+
+         FeatureDictionary dictionary = new HashedFeatureDictionary(hashBits);
+         working = new Snapshot(dictionary,
+                                new double[LinearModel.numWeights(possibleClasses.size(),
+                                                                  dictionary.size())],
+                                new double[possibleClasses.size()]);
+      } else {
+         working = current.copy();
+      }
+
+      return working;
+   }
+
+   /**
+    * @inheritDoc
+    * LinearModel is class-major, so this makes a transposed copy of the weights.
+    */
+   public LinearModel getLinearModel() {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("The classifier is not trained.");
+      }
+
+      return new LinearModel(current.dictionary,
+                             transpose(current.weights, current.dictionary.size(),
+                                       current.biases.length),
+                             current.biases);
+   }
+
+   /**
+    * Transpose a rows x columns matrix held in a flat array.
+    * This turns feature-major weights into class-major ones, and back.
+    */
+   private static double[] transpose(double[] matrix, int rows, int columns) {
+      double[] rtn = new double[matrix.length];
+
+      for (int row = 0; row < rows; row++) {
+         for (int column = 0; column < columns; column++) {
+            rtn[column * rows + row] = matrix[row * columns + column];
+         }
+      }
+
+      return rtn;
+   }
+
+   /**
+    * @inheritDoc
+    * Only the published model is saved, publish() first to include every update.
+    */
+   public void writeModel(ObjectOutputStream out) throws IOException {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("Cannot save an untrained classifier.");
+      }
+
+      out.writeUTF(loss.name());
+      out.writeInt(epochs);
+      out.writeDouble(learningRate);
+      out.writeDouble(l1);
+      out.writeDouble(l2);
+      out.writeInt(hashBits);
+
+      if (hashBits <= 0) {
+         ModelIO.writeDictionary(out, current.dictionary);
+      }
+
+      // Saved class-major, like the other linear models.
+      out.writeObject(current.biases);
+      out.writeObject(transpose(current.weights, current.dictionary.size(),
+                                current.biases.length));
+   }
+
+   /**
+    * Read a model written by writeModel().
+    * This is meant to be called by ModelIO.
+    */
+   public static <E extends Document> LinearClassifier<E> readModel(
+         ObjectInputStream in,
+         FeatureSetGenerator<E> fsg,
+         List<String> possibleClasses) throws IOException {
+      Loss loss;
+      try {
+         loss = Loss.valueOf(in.readUTF());
+      } catch (IllegalArgumentException ex) {
+         throw new IOException("Unknown loss.", ex);
+      }
+
+      LinearClassifier<E> classifier = new LinearClassifier<E>(loss, fsg, possibleClasses);
+      classifier.setEpochs(in.readInt());
+      classifier.setLearningRate(in.readDouble());
+      classifier.setRegularization(in.readDouble(), in.readDouble());
+      classifier.setHashBits(in.readInt());
+
+      FeatureDictionary dictionary;
+      if (classifier.hashBits > 0) {
+         dictionary = new HashedFeatureDictionary(classifier.hashBits);
+      } else {
+         dictionary = ModelIO.readDictionary(in);
+      }
+
+      double[] biases = ModelIO.readObject(in, double[].class);
+      double[] weights = ModelIO.readObject(in, double[].class);
+
+      if (biases.length != possibleClasses.size() ||
+          weights.length != possibleClasses.size() * dictionary.size()) {
+         throw new IOException("Corrupt linear model.");
+      }
+
+      classifier.snapshot = new Snapshot(dictionary,
+                                         transpose(weights, biases.length, dictionary.size()),
+                                         biases);
+
+      return classifier;
+   }
+
+   private int classIndex(String classValue) {
+      Integer classIndex = classIndexes.get(classValue);
+      if (classIndex == null) {
+         throw new IllegalArgumentException("Unknown class: " + classValue);
+      }
+
+      return classIndex.intValue();
+   }
+
+   public String toString() {
+      return String.format("%s{loss=%s;epochs=%d;learningRate=%f;l1=%f;l2=%f;hashBits=%d;fsg=%s}",
+                           getClass().getCanonicalName(),
+                           loss,
+                           epochs,
+                           learningRate,
+                           l1,
+                           l2,
+                           hashBits,
+                           fsg.toString());
+   }
+
+   /**
+    * Everything that training produces.
+    * Published snapshots are never modified, the one being trained or updated is.
+    */
+   private static class Snapshot {
+      public final FeatureDictionary dictionary;
+
+      /**
+       * Feature-major: weights[featureId * numClasses + classIndex].
+       */
+      public final double[] weights;
+
+      public final double[] biases;
+
+      public Snapshot(FeatureDictionary dictionary, double[] weights, double[] biases) {
+         this.dictionary = dictionary;
+         this.weights = weights;
+         this.biases = biases;
+      }
+
+      public Snapshot copy() {
+         return new Snapshot(dictionary, weights.clone(), biases.clone());
+      }
+   }
+}
@@ -0,0 +1,80 @@
+package com.cpcp.linear;
+
+import com.cpcp.features.FeatureDictionary;
+
+/**
+ * A read-only view of a trained model that scores a class as its bias plus the sum of
+ *  its weights for the features in the document.
+ * Both the native linear classifiers and Naive Bayes (in log space) have this form.
+ *
+ * The arrays may be shared with the classifier that made the view, so don't modify them.
+ */
+public class LinearModel {
+   /**
+    * The most weights one model can hold, the largest array the JVM reliably allocates.
+    */
+   public static final int MAX_WEIGHTS = Integer.MAX_VALUE - 8;
+
+   private final FeatureDictionary dictionary;
+   private final double[] weights;
+   private final double[] biases;
+
+   /**
+    * @param weights Class-major: weights[classIndex * dictionary.size() + featureId].
+    */
+   public LinearModel(FeatureDictionary dictionary, double[] weights, double[] biases) {
+      if (weights.length != biases.length * dictionary.size()) {
+         throw new IllegalArgumentException("Need one weight per class per feature.");
+      }
+
+      this.dictionary = dictionary;
+      this.weights = weights;
+      this.biases = biases;
+   }
+
+   public FeatureDictionary getDictionary() {
+      return dictionary;
+   }
+
+   public int getNumClasses() {
+      return biases.length;
+   }
+
+   public int getNumFeatures() {
+      return dictionary.size();
+   }
+
+   /**
+    * Class-major: weights[classIndex * getNumFeatures() + featureId].
+    */
+   public double[] getWeights() {
+      return weights;
+   }
+
+   public double[] getBiases() {
+      return biases;
+   }
+
+   /**
+    * Get the number of weights (or quantized levels) that a model needs.
+    *
+    * @throws IllegalArgumentException If numClasses * numFeatures does not fit in one array.
+    */
+   public static int numWeights(int numClasses, int numFeatures) {
+      long rtn = (long)numClasses * numFeatures;
+      if (rtn > MAX_WEIGHTS) {
+         throw new IllegalArgumentException(String.format(
+               "%d classes * %d features is %d weights, more than one array can hold (%d).",
+               numClasses, numFeatures, rtn, MAX_WEIGHTS));
+      }
+
+      return (int)rtn;
+   }
+
+   /**
+    * Get the size of the weights and biases in bytes.
+    */
+   public long byteSize() {
+      return 8L * (weights.length + biases.length);
+   }
+}
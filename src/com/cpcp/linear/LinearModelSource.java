@@ -0,0 +1,13 @@
+package com.cpcp.linear;
+
+/**
+ * A classifier whose trained model can be viewed as a LinearModel.
+ */
+public interface LinearModelSource {
+   /**
+    * Get a view of the current trained model.
+    *
+    * @throws IllegalStateException If the classifier is not trained.
+    */
+   LinearModel getLinearModel();
+}
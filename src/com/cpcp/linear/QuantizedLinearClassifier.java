@@ -0,0 +1,391 @@
+package com.cpcp.linear;
+
+import com.cpcp.CPCPClassifier;
+import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
+import com.cpcp.document.Document;
+import com.cpcp.features.FeatureDictionary;
+import com.cpcp.features.FeatureSetGenerator;
+import com.cpcp.features.HashedFeatureDictionary;
+import com.cpcp.io.ModelIO;
+import com.cpcp.io.PersistentClassifier;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A LinearModel with its weights quantized to 8 or 16 bits, for running many models per host.
+ * An 8 bit model takes an eighth of the memory of the doubles it came from.
+ *
+ * Each class gets its own scale and offset, so a weight is offset + scale * q, where q is
+ *  the quantized level (0 to 255 or 0 to 65535).
+ * Scoring runs directly on the quantized arrays: the levels of a document's features are
+ *  summed as ints, and each class only needs one multiply at the end.
+ * The levels are stored feature-major, so the levels of all the classes for a feature
+ *  are next to each other.
+ *
+ * A quantized classifier is either built around a LinearModelSource, in which case train()
+ *  trains the source and quantizes the result, or frozen (from quantize() or ModelIO),
+ *  in which case it can not be trained.
+ * Keeping the source around keeps its full precision model in memory, so workers that are
+ *  short on memory should use frozen models.
+ */
+public class QuantizedLinearClassifier<E extends Document> extends CPCPClassifier<E>
+                                                         implements PersistentClassifier,
+                                                                    FeatureClassifier {
+   private final int bits;
+
+   /**
+    * The classifier to train, null for frozen models.
+    */
+   private final CPCPClassifier<E> source;
+
+   /**
+    * The current quantized model, null until trained.
+    */
+   private volatile Snapshot snapshot;
+
+   private final ThreadLocal<Scratch> scratch;
+
+   /**
+    * Quantize whatever |source| learns.
+    *
+    * @param bits 8 or 16.
+    */
+   public <C extends CPCPClassifier<E> & LinearModelSource> QuantizedLinearClassifier(
+         C source, int bits) {
+      this(bits, source, source.getFeatureSetGenerator(), source.getPossibleClasses());
+   }
+
+   private QuantizedLinearClassifier(int bits,
+                                     CPCPClassifier<E> source,
+                                     FeatureSetGenerator<E> fsg,
+                                     List<String> possibleClasses) {
+      super(possibleClasses, fsg);
+
+      if (bits != 8 && bits != 16) {
+         throw new IllegalArgumentException("Only 8 and 16 bit weights are supported, got " +
+                                            bits);
+      }
+
+      this.bits = bits;
+      this.source = source;
+      snapshot = null;
+
+      final int numClasses = this.possibleClasses.size();
+      scratch = new ThreadLocal<Scratch>() {
+         protected Scratch initialValue() {
+            return new Scratch(numClasses);
+         }
+      };
+   }
+
+   /**
+    * Make a frozen quantized copy of a trained model.
+    *
+    * @param bits 8 or 16.
+    *
+    * @throws IllegalArgumentException If the model has more weights than one array can hold.
+    */
+   public static <E extends Document> QuantizedLinearClassifier<E> quantize(
+         LinearModel model, int bits,
+         FeatureSetGenerator<E> fsg, List<String> possibleClasses) {
+      QuantizedLinearClassifier<E> classifier =
+            new QuantizedLinearClassifier<E>(bits, null, fsg, possibleClasses);
+      classifier.snapshot = classifier.quantize(model);
+
+      return classifier;
+   }
+
+   /**
+    * @inheritDoc
+    *
+    * @throws UnsupportedOperationException If this is a frozen model.
+    */
+   public void train(List<E> documents, List<String> classes) {
+      if (source == null) {
+         throw new UnsupportedOperationException(
+               "Frozen quantized models can not be trained, quantize a new model instead.");
+      }
+
+      synchronized (this) {
+         source.train(documents, classes);
+         snapshot = quantize(((LinearModelSource)source).getLinearModel());
+      }
+   }
+
+   public int getBits() {
+      return bits;
+   }
+
+   /**
+    * Get the size of the quantized weights, scales, offsets and biases in bytes.
+    * The dictionary is not included, it is the same as the full precision model's.
+    */
+   public long byteSize() {
+      Snapshot current = snapshot;
+      if (current == null) {
+         return 0;
+      }
+
+      long levels = (bits == 8) ? current.levels8.length : 2L * current.levels16.length;
+      return levels + 8L * 3 * current.biases.length;
+   }
+
+   /**
+    * @inheritDoc
+    * The confidence is the softmax of the class scores, like the models this came from.
+    */
+   public ClassificationResult classify(E document) {
+      return classifyFeatures(fsg.parseFeatures(document));
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classifyFeatures(Set<String> features) {
+      Scratch buffer = scratch.get();
+      int best = probabilities(snapshot, features, buffer, buffer.scores, 0);
+
+      return new ClassificationResult(possibleClasses.get(best), buffer.scores[best]);
+   }
+
+   /**
+    * @inheritDoc
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      return probabilities(snapshot, fsg.parseFeatures(document), scratch.get(),
+                           distribution, offset);
+   }
+
+   private int probabilities(Snapshot current, Set<String> features, Scratch buffer,
+                             double[] probabilities, int offset) {
+      assert(current != null);
+
+      int numClasses = current.biases.length;
+      int[] sums = buffer.sums;
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         sums[classIndex] = 0;
+      }
+
+      int count = 0;
+      for (String feature : features) {
+         int id = current.dictionary.indexOf(feature);
+         if (id < 0) {
+            continue;
+         }
+
+         count++;
+         int base = id * numClasses;
+         if (bits == 8) {
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               sums[classIndex] += current.levels8[base + classIndex] & 0xFF;
+            }
+         } else {
+            for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+               sums[classIndex] += current.levels16[base + classIndex] & 0xFFFF;
+            }
+         }
+      }
+
+      int best = 0;
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         probabilities[offset + classIndex] = current.biases[classIndex] +
+                                              count * current.offsets[classIndex] +
+                                              current.scales[classIndex] * sums[classIndex];
+         if (probabilities[offset + classIndex] > probabilities[offset + best]) {
+            best = classIndex;
+         }
+      }
+
+      double max = probabilities[offset + best];
+      double normalizer = 0;
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         probabilities[offset + classIndex] = Math.exp(probabilities[offset + classIndex] - max);
+         normalizer += probabilities[offset + classIndex];
+      }
+
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         probabilities[offset + classIndex] /= normalizer;
+      }
+
+      return best;
+   }
+
+   private Snapshot quantize(LinearModel model) {
+      int numClasses = model.getNumClasses();
+      int numFeatures = model.getNumFeatures();
+      double[] weights = model.getWeights();
+      int maxLevel = (1 << bits) - 1;
+
+      // Models can come from anywhere, so don't trust that they were checked.
+      int numLevels = LinearModel.numWeights(numClasses, numFeatures);
+
+      double[] scales = new double[numClasses];
+      double[] offsets = new double[numClasses];
+      byte[] levels8 = (bits == 8) ? new byte[numLevels] : null;
+      short[] levels16 = (bits == 16) ? new short[numLevels] : null;
+
+      for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+         int classBase = classIndex * numFeatures;
+
+         double min = Double.POSITIVE_INFINITY;
+         double max = Double.NEGATIVE_INFINITY;
+         for (int id = 0; id < numFeatures; id++) {
+            min = Math.min(min, weights[classBase + id]);
+            max = Math.max(max, weights[classBase + id]);
+         }
+
+         if (numFeatures == 0) {
+            min = 0;
+            max = 0;
+         }
+
+         offsets[classIndex] = min;
+         scales[classIndex] = (max > min) ? (max - min) / maxLevel : 0;
+
+         for (int id = 0; id < numFeatures; id++) {
+            int level = 0;
+            if (scales[classIndex] > 0) {
+               level = (int)Math.round((weights[classBase + id] - min) / scales[classIndex]);
+               level = Math.max(0, Math.min(maxLevel, level));
+            }
+
+            if (bits == 8) {
+               levels8[id * numClasses + classIndex] = (byte)level;
+            } else {
+               levels16[id * numClasses + classIndex] = (short)level;
+            }
+         }
+      }
+
+      return new Snapshot(model.getDictionary(), levels8, levels16, scales, offsets,
+                          model.getBiases().clone());
+   }
+
+   /**
+    * @inheritDoc
+    * Only the quantized model is saved, a loaded model is frozen.
+    */
+   public void writeModel(ObjectOutputStream out) throws IOException {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("Cannot save an untrained classifier.");
+      }
+
+      out.writeInt(bits);
+
+      if (current.dictionary instanceof HashedFeatureDictionary) {
+         out.writeInt(((HashedFeatureDictionary)current.dictionary).getBits());
+      } else {
+         out.writeInt(0);
+         ModelIO.writeDictionary(out, current.dictionary);
+      }
+
+      out.writeObject(current.scales);
+      out.writeObject(current.offsets);
+      out.writeObject(current.biases);
+      out.writeObject(bits == 8 ? current.levels8 : current.levels16);
+   }
+
+   /**
+    * Read a model written by writeModel().
+    * This is meant to be called by ModelIO.
+    */
+   public static <E extends Document> QuantizedLinearClassifier<E> readModel(
+         ObjectInputStream in,
+         FeatureSetGenerator<E> fsg,
+         List<String> possibleClasses) throws IOException {
+      int bits = in.readInt();
+      QuantizedLinearClassifier<E> classifier =
+            new QuantizedLinearClassifier<E>(bits, null, fsg, possibleClasses);
+
+      int hashBits = in.readInt();
+      FeatureDictionary dictionary;
+      if (hashBits > 0) {
+         dictionary = new HashedFeatureDictionary(hashBits);
+      } else {
+         dictionary = ModelIO.readDictionary(in);
+      }
+
+      double[] scales = ModelIO.readObject(in, double[].class);
+      double[] offsets = ModelIO.readObject(in, double[].class);
+      double[] biases = ModelIO.readObject(in, double[].class);
+
+      byte[] levels8 = null;
+      short[] levels16 = null;
+      int numLevels;
+      if (bits == 8) {
+         levels8 = ModelIO.readObject(in, byte[].class);
+         numLevels = levels8.length;
+      } else {
+         levels16 = ModelIO.readObject(in, short[].class);
+         numLevels = levels16.length;
+      }
+
+      int numClasses = possibleClasses.size();
+      if (scales.length != numClasses || offsets.length != numClasses ||
+          biases.length != numClasses ||
+          numLevels != (long)numClasses * dictionary.size()) {
+         throw new IOException("Corrupt quantized model.");
+      }
+
+      classifier.snapshot = new Snapshot(dictionary, levels8, levels16, scales, offsets, biases);
+
+      return classifier;
+   }
+
+   public String toString() {
+      return String.format("%s{bits=%d;source=%s;fsg=%s}",
+                           getClass().getCanonicalName(),
+                           bits,
+                           source,
+                           fsg.toString());
+   }
+
+   /**
+    * Everything that quantization produces.
+    */
+   private static class Snapshot {
+      public final FeatureDictionary dictionary;
+
+      /**
+       * Feature-major levels: levels[featureId * numClasses + classIndex].
+       * Only the one that matches the number of bits is set.
+       * The levels are unsigned, so they need masking when read.
+       */
+      public final byte[] levels8;
+      public final short[] levels16;
+
+      public final double[] scales;
+      public final double[] offsets;
+      public final double[] biases;
+
+      public Snapshot(FeatureDictionary dictionary, byte[] levels8, short[] levels16,
+                      double[] scales, double[] offsets, double[] biases) {
+         this.dictionary = dictionary;
+         this.levels8 = levels8;
+         this.levels16 = levels16;
+         this.scales = scales;
+         this.offsets = offsets;
+         this.biases = biases;
+      }
+   }
+
+   /**
+    * Per thread scratch space for scoring.
+    */
+   private static class Scratch {
+      public final int[] sums;
+      public final double[] scores;
+
+      public Scratch(int numClasses) {
+         sums = new int[numClasses];
+         scores = new double[numClasses];
+      }
+   }
+}
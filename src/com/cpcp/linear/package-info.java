@@ -0,0 +1,4 @@
+/**
+ * Native linear classifiers trained with stochastic gradient descent over sparse feature ids.
+ */
+package com.cpcp.linear;
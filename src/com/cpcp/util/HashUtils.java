@@ -0,0 +1,89 @@
+package com.cpcp.util;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Fast non-cryptographic hashing for features.
+ * The mixers are the MurmurHash3 finalizers.
+ */
+public final class HashUtils {
+   /**
+    * Private to promote static behavior.
+    */
+   private HashUtils() {
+   }
+
+   /**
+    * Scramble all the bits of an int.
+    */
+   public static int mix32(int hash) {
+      hash ^= hash >>> 16;
+      hash *= 0x85EBCA6B;
+      hash ^= hash >>> 13;
+      hash *= 0xC2B2AE35;
+      hash ^= hash >>> 16;
+
+      return hash;
+   }
+
+   /**
+    * Scramble all the bits of a long.
+    */
+   public static long mix64(long hash) {
+      hash ^= hash >>> 33;
+      hash *= 0xFF51AFD7ED558CCDL;
+      hash ^= hash >>> 33;
+      hash *= 0xC4CEB9FE1A85EC53L;
+      hash ^= hash >>> 33;
+
+      return hash;
+   }
+
+   /**
+    * Get a well mixed 32 bit hash of a feature.
+    * String.hashCode() is cached by the string, but it is weak in the low bits.
+    */
+   public static int hashFeature(String feature) {
+      return mix32(feature.hashCode());
+   }
+
+   /**
+    * Get a well mixed 64 bit hash of a feature.
+    * Unlike hashFeature(), this looks at every character, so it costs a pass over the string.
+    */
+   public static long hashFeature64(String feature) {
+      long hash = 0xCBF29CE484222325L;
+      for (int i = 0; i < feature.length(); i++) {
+         hash = (hash ^ feature.charAt(i)) * 0x100000001B3L;
+      }
+
+      return mix64(hash ^ feature.length());
+   }
+
+   /**
+    * Hash every feature in a set.
+    *
+    * @return The distinct hashes in ascending order.
+    */
+   public static int[] hashFeatures(Set<String> features) {
+      int[] hashes = new int[features.size()];
+
+      int ndx = 0;
+      for (String feature : features) {
+         hashes[ndx++] = hashFeature(feature);
+      }
+
+      Arrays.sort(hashes);
+
+      // Different features can collide.
+      int count = 0;
+      for (int i = 0; i < hashes.length; i++) {
+         if (i == 0 || hashes[i] != hashes[i - 1]) {
+            hashes[count++] = hashes[i];
+         }
+      }
+
+      return count == hashes.length ? hashes : Arrays.copyOf(hashes, count);
+   }
+}
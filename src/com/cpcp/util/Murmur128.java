@@ -0,0 +1,149 @@
+package com.cpcp.util;
+
+/**
+ * A streaming MurmurHash3 x64 128 bit hash.
+ * Characters are hashed as their UTF-16LE bytes, so hashing a string gives the same result as
+ *  MurmurHash3_x64_128 over string.getBytes("UTF-16LE") without making the bytes.
+ *
+ * Not thread-safe, and not reusable after getHigh()/getLow() finish the hash.
+ */
+public class Murmur128 {
+   private static final long C1 = 0x87C37B91114253D5L;
+   private static final long C2 = 0x4CF5AD432745937FL;
+
+   private long h1;
+   private long h2;
+
+   /**
+    * The characters of the current 16 byte block that are not mixed in yet.
+    */
+   private long k1;
+   private long k2;
+   private int buffered;
+
+   private long length;
+   private boolean finished;
+
+   public Murmur128() {
+      this(0);
+   }
+
+   public Murmur128(int seed) {
+      h1 = seed & 0xFFFFFFFFL;
+      h2 = h1;
+      k1 = 0;
+      k2 = 0;
+      buffered = 0;
+      length = 0;
+      finished = false;
+   }
+
+   public Murmur128 putChar(char value) {
+      if (buffered < 4) {
+         k1 |= (long)value << (16 * buffered);
+      } else {
+         k2 |= (long)value << (16 * (buffered - 4));
+      }
+
+      length += 2;
+      buffered++;
+
+      if (buffered == 8) {
+         mixBlock();
+      }
+
+      return this;
+   }
+
+   public Murmur128 putInt(int value) {
+      putChar((char)value);
+      return putChar((char)(value >>> 16));
+   }
+
+   /**
+    * Hash a string's characters.
+    * Nothing marks where the string ends, see putDelimited().
+    */
+   public Murmur128 putString(String value) {
+      for (int i = 0; i < value.length(); i++) {
+         putChar(value.charAt(i));
+      }
+
+      return this;
+   }
+
+   /**
+    * Hash a string's length and then its characters, so a sequence of strings can't hash
+    *  the same as a different split of the same characters.
+    */
+   public Murmur128 putDelimited(String value) {
+      putInt(value.length());
+      return putString(value);
+   }
+
+   public long getHigh() {
+      finish();
+      return h1;
+   }
+
+   public long getLow() {
+      finish();
+      return h2;
+   }
+
+   private void mixBlock() {
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52DCE729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495AB5;
+
+      k1 = 0;
+      k2 = 0;
+      buffered = 0;
+   }
+
+   private void finish() {
+      if (finished) {
+         return;
+      }
+
+      // The tail, the block mixing is skipped for a partial block.
+      if (buffered > 4) {
+         h2 ^= mixK2(k2);
+      }
+      if (buffered > 0) {
+         h1 ^= mixK1(k1);
+      }
+
+      h1 ^= length;
+      h2 ^= length;
+
+      h1 += h2;
+      h2 += h1;
+
+      h1 = HashUtils.mix64(h1);
+      h2 = HashUtils.mix64(h2);
+
+      h1 += h2;
+      h2 += h1;
+
+      finished = true;
+   }
+
+   private static long mixK1(long k) {
+      k *= C1;
+      k = Long.rotateLeft(k, 31);
+      return k * C2;
+   }
+
+   private static long mixK2(long k) {
+      k *= C2;
+      k = Long.rotateLeft(k, 33);
+      return k * C1;
+   }
+}
@@ -0,0 +1,132 @@
+package com.cpcp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for splitting simple loops across threads.
+ */
+public final class ParallelUtils {
+   /**
+    * Private to promote static behavior.
+    */
+   private ParallelUtils() {
+   }
+
+   /**
+    * A piece of work over a contiguous range of indexes.
+    */
+   public interface RangeTask {
+      /**
+       * @param worker The index of the worker running this range, in [0, numWorkers).
+       * @param start The first index (inclusive).
+       * @param end The last index (exclusive).
+       */
+      void run(int worker, int start, int end);
+   }
+
+   /**
+    * Get the default number of threads to use, one per core.
+    */
+   public static int defaultThreads() {
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Get the number of workers that forRanges() will actually use.
+    */
+   public static int numWorkers(int size, int numThreads) {
+      return Math.max(1, Math.min(size, numThreads));
+   }
+
+   /**
+    * Split [0, size) into contiguous ranges, one per worker, and run them in parallel.
+    * This blocks until all the ranges are done.
+    * If a range throws, the exception is rethrown here.
+    */
+   public static void forRanges(int size, int numThreads, RangeTask task) {
+      int numWorkers = numWorkers(size, numThreads);
+
+      if (numWorkers == 1) {
+         task.run(0, 0, size);
+         return;
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+      try {
+         forRanges(size, numThreads, pool, task);
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Like forRanges(int, int, RangeTask), but run the ranges on |pool|.
+    * This is for callers that run many loops in a row and don't want a new pool for each one.
+    * The pool is not shut down. If it has fewer than numWorkers(size, numThreads) threads,
+    *  some ranges wait for others to finish.
+    */
+   public static void forRanges(int size, int numThreads, ExecutorService pool,
+                                final RangeTask task) {
+      final int numWorkers = numWorkers(size, numThreads);
+
+      if (numWorkers == 1) {
+         task.run(0, 0, size);
+         return;
+      }
+
+      // The workers profile into the caller's profile, under the caller's phase.
+      final Profiler.Profile profile = Profiler.current();
+      final Profiler.Phase phase = Profiler.currentPhase();
+
+      List<Future<Object>> futures = new ArrayList<Future<Object>>(numWorkers);
+      Profiler.Scope idle = Profiler.idle();
+      try {
+         for (int i = 0; i < numWorkers; i++) {
+            final int worker = i;
+            final int start = (int)((long)size * i / numWorkers);
+            final int end = (int)((long)size * (i + 1) / numWorkers);
+
+            futures.add(pool.submit(new Callable<Object>() {
+               public Object call() {
+                  Profiler.Profile previous = Profiler.attach(profile);
+                  Profiler.Scope scope = (phase == null) ? Profiler.idle() : Profiler.enter(phase);
+                  try {
+                     task.run(worker, start, end);
+                  } finally {
+                     scope.close();
+                     Profiler.detach(previous);
+                  }
+
+                  return null;
+               }
+            }));
+         }
+
+         for (Future<Object> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while waiting for workers.", ex);
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof RuntimeException) {
+            throw (RuntimeException)ex.getCause();
+         }
+
+         throw new RuntimeException(ex.getCause());
+      } finally {
+         idle.close();
+
+         // On failure, don't leave the other ranges running on a pool that outlives this call.
+         for (Future<Object> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+}
@@ -0,0 +1,344 @@
+package com.cpcp.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lightweight per-thread profiler for the phases of training and classification.
+ *
+ * A Profile is attached to a thread with attach(), and then code marks its phases with:
+ *  Profiler.Scope scope = Profiler.enter(Profiler.Phase.FILTER);
+ *  try { ... } finally { scope.close(); }
+ * While a phase is open, the nanoseconds and the bytes allocated on the thread
+ *  (from the JVM's ThreadMXBean, when it supports that) are charged to it.
+ * Phases nest and the accounting is exclusive: while a FILTER is open inside a TRAIN,
+ *  the time goes to FILTER only, so the phases never count the same time twice.
+ *
+ * ParallelUtils carries the caller's profile and phase over to its worker threads,
+ *  and the caller charges nothing while it waits for them. So for multi-threaded work the
+ *  phases add up the busy time of all the threads, which can be more than the wall time.
+ *
+ * When no profile is attached to a thread, enter() is a thread-local read.
+ */
+public final class Profiler {
+   /**
+    * The phases of an evaluation.
+    */
+   public enum Phase {
+      /**
+       * Parsing a batch of documents into feature sets, mostly running TextFilters.
+       * Documents parsed one at a time are charged to the enclosing phase.
+       */
+      FILTER,
+      /**
+       * Building the feature space of a training set.
+       */
+      FEATURE_SPACE,
+      /**
+       * Turning a training set's feature sets into a classifier's own vectors
+       *  (like WEKA Instances). Vectorizing documents to classify is part of CLASSIFY.
+       */
+      VECTORIZE,
+      /**
+       * The rest of training (or updating).
+       */
+      TRAIN,
+      /**
+       * The rest of classification.
+       */
+      CLASSIFY
+   }
+
+   /**
+    * An open phase, closing it goes back to the enclosing phase.
+    */
+   public interface Scope extends AutoCloseable {
+      @Override
+      void close();
+   }
+
+   private static final Scope NO_SCOPE = new Scope() {
+      public void close() {
+      }
+   };
+
+   private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+   private static final boolean ALLOCATIONS_SUPPORTED = checkAllocations();
+
+   /**
+    * ThreadMXBean.getCurrentThreadAllocatedBytes() bound to THREADS, or null before Java 14.
+    * It skips the thread lookup that getThreadAllocatedBytes(long) does.
+    */
+   private static final MethodHandle CURRENT_THREAD_ALLOCATED = findCurrentThreadAllocated();
+
+   private static final ThreadLocal<ThreadState> STATE = new ThreadLocal<ThreadState>() {
+      protected ThreadState initialValue() {
+         return new ThreadState();
+      }
+   };
+
+   /**
+    * Private to promote static behavior.
+    */
+   private Profiler() {
+   }
+
+   /**
+    * Check if allocated bytes are being measured.
+    * If not, all the byte counts are zero.
+    */
+   public static boolean allocationsSupported() {
+      return ALLOCATIONS_SUPPORTED;
+   }
+
+   /**
+    * Start recording this thread's phases into |profile| (or stop recording, if null).
+    * Any phases that are open stay open, but are no longer charged.
+    *
+    * @return The profile that was attached before, to give back to detach().
+    */
+   public static Profile attach(Profile profile) {
+      ThreadState state = STATE.get();
+      state.charge();
+
+      Profile previous = state.profile;
+      state.profile = profile;
+      return previous;
+   }
+
+   /**
+    * Put back the profile that attach() replaced.
+    */
+   public static void detach(Profile previous) {
+      attach(previous);
+   }
+
+   /**
+    * Get the profile attached to this thread, or null.
+    */
+   public static Profile current() {
+      return STATE.get().profile;
+   }
+
+   /**
+    * Get the innermost open phase on this thread, or null.
+    */
+   public static Phase currentPhase() {
+      ThreadState state = STATE.get();
+      return (state.depth == 0) ? null : state.stack[state.depth - 1];
+   }
+
+   /**
+    * Open a phase on this thread.
+    * This does nothing if no profile is attached.
+    */
+   public static Scope enter(Phase phase) {
+      ThreadState state = STATE.get();
+      if (state.profile == null) {
+         return NO_SCOPE;
+      }
+
+      state.push(phase);
+      return state;
+   }
+
+   /**
+    * Stop charging any phase on this thread until the scope is closed.
+    * This is for threads that only wait for other threads to do the work.
+    */
+   public static Scope idle() {
+      ThreadState state = STATE.get();
+      if (state.profile == null) {
+         return NO_SCOPE;
+      }
+
+      state.push(null);
+      return state;
+   }
+
+   private static boolean checkAllocations() {
+      try {
+         if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+         }
+
+         com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)THREADS;
+         return threads.isThreadAllocatedMemorySupported() &&
+                threads.isThreadAllocatedMemoryEnabled();
+      } catch (Throwable ex) {
+         // Not a HotSpot-style JVM.
+         return false;
+      }
+   }
+
+   private static MethodHandle findCurrentThreadAllocated() {
+      if (!ALLOCATIONS_SUPPORTED) {
+         return null;
+      }
+
+      try {
+         return MethodHandles.publicLookup().findVirtual(
+               com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+               MethodType.methodType(long.class)).bindTo(THREADS);
+      } catch (ReflectiveOperationException ex) {
+         // Before Java 14.
+         return null;
+      }
+   }
+
+   private static long allocatedBytes() {
+      if (!ALLOCATIONS_SUPPORTED) {
+         return 0;
+      }
+
+      if (CURRENT_THREAD_ALLOCATED != null) {
+         try {
+            return (long)CURRENT_THREAD_ALLOCATED.invokeExact();
+         } catch (Throwable ex) {
+            throw new IllegalStateException("Could not read the allocated bytes", ex);
+         }
+      }
+
+      return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(
+            Thread.currentThread().getId());
+   }
+
+   /**
+    * The time and allocations of each phase.
+    * A profile can be shared by many threads.
+    */
+   public static class Profile {
+      private final LongAdder[] nanos;
+      private final LongAdder[] bytes;
+
+      public Profile() {
+         nanos = new LongAdder[Phase.values().length];
+         bytes = new LongAdder[Phase.values().length];
+         for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+         }
+      }
+
+      public void add(Phase phase, long phaseNanos, long phaseBytes) {
+         nanos[phase.ordinal()].add(phaseNanos);
+         bytes[phase.ordinal()].add(phaseBytes);
+      }
+
+      /**
+       * Add everything from another profile into this one.
+       */
+      public void add(Profile other) {
+         for (Phase phase : Phase.values()) {
+            add(phase, other.getNanos(phase), other.getBytes(phase));
+         }
+      }
+
+      public long getNanos(Phase phase) {
+         return nanos[phase.ordinal()].sum();
+      }
+
+      public long getBytes(Phase phase) {
+         return bytes[phase.ordinal()].sum();
+      }
+
+      public long getTotalNanos() {
+         long rtn = 0;
+         for (Phase phase : Phase.values()) {
+            rtn += getNanos(phase);
+         }
+
+         return rtn;
+      }
+
+      public long getTotalBytes() {
+         long rtn = 0;
+         for (Phase phase : Phase.values()) {
+            rtn += getBytes(phase);
+         }
+
+         return rtn;
+      }
+
+      public String toString() {
+         StringBuilder rtn = new StringBuilder();
+
+         for (Phase phase : Phase.values()) {
+            if (rtn.length() > 0) {
+               rtn.append(", ");
+            }
+
+            rtn.append(String.format("%s: %.1f ms / %.1f MB",
+                                     phase.name().toLowerCase(),
+                                     getNanos(phase) / 1e6,
+                                     getBytes(phase) / (1024.0 * 1024.0)));
+         }
+
+         return rtn.toString();
+      }
+   }
+
+   /**
+    * The open phases of one thread.
+    * This is also the Scope that enter() returns, so opening a phase allocates nothing.
+    */
+   private static class ThreadState implements Scope {
+      public Profile profile;
+
+      /**
+       * The open phases, null for idle.
+       */
+      public Phase[] stack;
+      public int depth;
+
+      /**
+       * When the innermost phase was last charged.
+       */
+      public long markNanos;
+      public long markBytes;
+
+      public ThreadState() {
+         profile = null;
+         stack = new Phase[8];
+         depth = 0;
+      }
+
+      public void push(Phase phase) {
+         charge();
+
+         if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+         }
+         stack[depth++] = phase;
+      }
+
+      /**
+       * Closes the innermost phase.
+       */
+      public void close() {
+         charge();
+         depth--;
+      }
+
+      /**
+       * Charge everything since the last mark to the innermost phase, and move the mark.
+       */
+      public void charge() {
+         long now = System.nanoTime();
+         long allocated = allocatedBytes();
+
+         if (profile != null && depth > 0 && stack[depth - 1] != null) {
+            profile.add(stack[depth - 1], now - markNanos, allocated - markBytes);
+         }
+
+         markNanos = now;
+         markBytes = allocated;
+      }
+   }
+}
@@ -1,5 +1,6 @@
 package com.cpcp.util.math;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,6 +45,62 @@ public class GeneralConfusionMatrix {
       count++;
    }
 
+   /**
+    * Add all the counts from another matrix into this one.
+    * Both matrices must have the same labels in the same order.
+    */
+   public void add(GeneralConfusionMatrix other) {
+      if (!Arrays.equals(labels, other.labels)) {
+         throw new IllegalArgumentException("Can only merge matrices with the same labels.");
+      }
+
+      for (int row = 0; row < labels.length; row++) {
+         for (int col = 0; col < labels.length; col++) {
+            matrix[row][col] += other.matrix[row][col];
+         }
+      }
+
+      count += other.count;
+   }
+
+   public String[] getLabels() {
+      return labels.clone();
+   }
+
+   /**
+    * Get the number of times |actualLabel| was predicted as |predictedLabel|.
+    */
+   public int getCount(String predictedLabel, String actualLabel) {
+      return matrix[labelLookup.get(actualLabel).intValue()]
+                   [labelLookup.get(predictedLabel).intValue()];
+   }
+
+   /**
+    * Get the total number of predictions.
+    */
+   public int getCount() {
+      return count;
+   }
+
+   /**
+    * Matrices are equal if they have the same labels and the same counts.
+    */
+   @Override
+   public boolean equals(Object other) {
+      if (!(other instanceof GeneralConfusionMatrix)) {
+         return false;
+      }
+
+      GeneralConfusionMatrix otherMatrix = (GeneralConfusionMatrix)other;
+      return Arrays.equals(labels, otherMatrix.labels) &&
+             Arrays.deepEquals(matrix, otherMatrix.matrix);
+   }
+
+   @Override
+   public int hashCode() {
+      return 31 * Arrays.hashCode(labels) + Arrays.deepHashCode(matrix);
+   }
+
    /**
     * Always safe to use.
     */
@@ -117,6 +174,36 @@ public class GeneralConfusionMatrix {
              ((precision * recall) / ((Math.pow(beta, 2) * precision) + recall));
    }
 
+   /**
+    * The unweighted mean of the F1 score of every label, works for any number of labels.
+    * A label that is never predicted and never seen counts as a perfect score,
+    *  and one that is only one of the two counts as zero.
+    */
+   public double macroFscore() {
+      if (count == 0) {
+         return 0;
+      }
+
+      double total = 0;
+      for (int label = 0; label < labels.length; label++) {
+         int truePositives = matrix[label][label];
+         int actual = 0;
+         int predicted = 0;
+         for (int other = 0; other < labels.length; other++) {
+            actual += matrix[label][other];
+            predicted += matrix[other][label];
+         }
+
+         if (actual + predicted == 0) {
+            total += 1;
+         } else {
+            total += 2.0 * truePositives / (actual + predicted);
+         }
+      }
+
+      return total / labels.length;
+   }
+
    public String toString() {
       String rtn = "";
 
@@ -191,4 +191,41 @@ public class MathUtils {
 
       return topPart / Math.sqrt(bottomAPart * bottomBPart);
    }
+
+   /**
+    * Two-sided 95% critical values of Student's t distribution for 1 to 30 degrees of freedom.
+    */
+   private static final double[] T_CRITICAL_95 = {
+      12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+      2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+      2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+   };
+
+   /**
+    * Get the two-sided 95% critical value of Student's t distribution,
+    *  for example for a confidence interval of mean +- t * stdDev / sqrt(n) with n - 1
+    *  degrees of freedom.
+    * Past 30 degrees of freedom, this uses the Cornish-Fisher expansion around the normal
+    *  distribution, which is good to about four decimal places there.
+    *
+    * @throws IllegalArgumentException If degreesOfFreedom < 1.
+    */
+   public static double tCritical95(int degreesOfFreedom) {
+      if (degreesOfFreedom < 1) {
+         throw new IllegalArgumentException();
+      }
+
+      if (degreesOfFreedom <= T_CRITICAL_95.length) {
+         return T_CRITICAL_95[degreesOfFreedom - 1];
+      }
+
+      double z = 1.959964;
+      double df = degreesOfFreedom;
+
+      double g1 = (Math.pow(z, 3) + z) / 4;
+      double g2 = (5 * Math.pow(z, 5) + 16 * Math.pow(z, 3) + 3 * z) / 96;
+      double g3 = (3 * Math.pow(z, 7) + 19 * Math.pow(z, 5) + 17 * Math.pow(z, 3) - 15 * z) / 384;
+
+      return z + g1 / df + g2 / Math.pow(df, 2) + g3 / Math.pow(df, 3);
+   }
 }
@@ -110,4 +110,28 @@ public class RunningStdDev {
 
       return Math.sqrt(partialVariance / (count - 1));
    }
+
+   /**
+    * Get the standard error of the mean.
+    */
+   public double getStdError() {
+      if (count == 0) {
+         return 0;
+      }
+
+      return getStdDev() / Math.sqrt(count);
+   }
+
+   /**
+    * Get the half width of the 95% confidence interval of the mean,
+    *  from Student's t distribution.
+    * The interval is getMean() +- this.
+    */
+   public double getConfidence95() {
+      if (count < 2) {
+         return 0;
+      }
+
+      return MathUtils.tCritical95(count - 1) * getStdError();
+   }
 }
@@ -0,0 +1,4 @@
+/**
+ * General utilities.
+ */
+package com.cpcp.util;
@@ -2,23 +2,38 @@ package com.cpcp.weka;
 
 import com.cpcp.CPCPClassifier;
 import com.cpcp.ClassificationResult;
+import com.cpcp.FeatureClassifier;
 import com.cpcp.document.Document;
+import com.cpcp.features.FeatureDictionary;
 import com.cpcp.features.FeatureSetGenerator;
-import com.cpcp.filter.TextFilter;
-
-import org.apache.commons.lang.StringUtils;
+import com.cpcp.features.HashFeatureDictionary;
+import com.cpcp.io.ModelIO;
+import com.cpcp.io.PersistentClassifier;
+import com.cpcp.util.ParallelUtils;
+import com.cpcp.util.Profiler;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.core.Attribute;
-import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.filters.unsupervised.attribute.StringToWordVector;
+import weka.core.SparseInstance;
+import weka.core.Utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The base for different types of WEKA classifiers.
@@ -31,19 +46,65 @@ import java.util.Set;
  *
  * Note: If you plan on overriding any classify() method, you should either override both
  *  classify() methods, or the classifyImpl() method.
+ *
+ * Everything that training produces lives in an immutable Snapshot that is published with a
+ *  single volatile write, so classification never locks and can run from any number of threads,
+ *  even while train() builds a replacement.
+ * Classifiers that only read their model while classifying (see isThreadSafe()) are shared
+ *  by every classifying thread, so there is a single model in memory.
+ * Many other WEKA classifiers are not safe to share between threads, even just for
+ *  classification (SMO and Logistic push every instance through their filters, IBk keeps
+ *  per-query state in its neighbour search). For those, each snapshot lends out copies of the
+ *  trained classifier from a pool. Copies are made only when every existing one is in use,
+ *  and at most setMaxCopies() of them, after that classification waits for a copy.
  */
-public class GeneralWekaClassifier<E extends Document> extends CPCPClassifier<E> {
+public class GeneralWekaClassifier<E extends Document> extends CPCPClassifier<E>
+                                                    implements PersistentClassifier,
+                                                               FeatureClassifier {
+   /**
+    * The name of the class attribute.
+    * Feature attributes are all prefixed with FEATURE_PREFIX, so no feature can take this name.
+    */
+   private static final String CLASS_ATTRIBUTE = "class";
+   private static final String FEATURE_PREFIX = "f:";
+
+   private static final int DEFAULT_PUBLISH_INTERVAL = 1000;
+
    /**
     * The WEKA classifier to use make copies for specific classifiers.
     */
    private Classifier untrainedClassifier;
 
    /**
-    * The filter to run the documents through before classifying them.
+    * The current trained model, null until the first successful train().
     */
-   private StringToWordVector stringFilter;
+   private volatile Snapshot snapshot;
 
-   private Classifier activeClassifier;
+   /**
+    * Bumped every time |snapshot| is replaced, see getModelVersion().
+    */
+   private volatile long modelVersion;
+
+   /**
+    * The copy of the trained classifier that updates go into, guarded by this.
+    * Null until the first update after a train().
+    */
+   private Classifier working;
+
+   /**
+    * The number of updates in |working| that are not in |snapshot| yet.
+    */
+   private int unpublished;
+
+   private int publishInterval;
+
+   private int maxCopies;
+
+   private final ThreadLocal<VectorBuffer> vectorBuffer = new ThreadLocal<VectorBuffer>() {
+      protected VectorBuffer initialValue() {
+         return new VectorBuffer();
+      }
+   };
 
    /**
     * Construct a GeneralClassifier.
@@ -57,25 +118,266 @@ public class GeneralWekaClassifier<E extends Document> extends CPCPClassifier<E>
       super(possibleClasses, fsg);
       untrainedClassifier = classy;
 
-      activeClassifier = null;
-      stringFilter = null;
+      snapshot = null;
+      working = null;
+      unpublished = 0;
+      publishInterval = DEFAULT_PUBLISH_INTERVAL;
+      maxCopies = ParallelUtils.defaultThreads();
    }
 
    /**
     * @inheritDoc
+    * The new model replaces the old one only once it is fully trained.
+    * If training fails, the old model stays in place.
+    * Updates that were not published yet are dropped along with the old model.
     */
    public void train(List<E> documents, List<String> classes) {
-      Instances trainSet = prepTrainingSet(documents, classes);
-      buildClassifier(trainSet);
+      train(documents, classes, fsg.parseFeatures(documents));
+   }
+
+   /**
+    * @inheritDoc
+    * See train(List, List).
+    */
+   @Override
+   public synchronized void train(List<E> documents, List<String> classes,
+                                  List<Set<String>> featureSets) {
+      FeatureDictionary dictionary;
+      Profiler.Scope scope = Profiler.enter(Profiler.Phase.FEATURE_SPACE);
+      try {
+         Set<String> featureSpace = new HashSet<String>();
+         for (Set<String> documentFeatures : featureSets) {
+            featureSpace.addAll(documentFeatures);
+         }
+
+         dictionary = new HashFeatureDictionary(featureSpace);
+      } finally {
+         scope.close();
+      }
+
+      Instances trainSet = prepTrainingSet(dictionary, featureSets, classes);
+
+      Classifier classifier = buildClassifier(trainSet);
+      if (classifier != null) {
+         // Keep only the header around for classification.
+         snapshot = newSnapshot(classifier, dictionary, new Instances(trainSet, 0));
+         modelVersion++;
+         working = null;
+         unpublished = 0;
+      }
+   }
+
+   /**
+    * @inheritDoc
+    * This changes when a model is trained or published.
+    */
+   @Override
+   public long getModelVersion() {
+      return modelVersion;
+   }
+
+   /**
+    * @inheritDoc
+    * This is true when the WEKA classifier is an UpdateableClassifier
+    *  (for example weka.classifiers.bayes.NaiveBayesUpdateable).
+    */
+   @Override
+   public boolean isUpdateable() {
+      return untrainedClassifier instanceof UpdateableClassifier;
+   }
+
+   /**
+    * Set how many updates the working copy absorbs before it is published automatically.
+    * Publishing copies the whole model, so a larger interval makes updates cheaper but
+    *  leaves classification further behind. Call publish() to publish right away.
+    */
+   public synchronized void setPublishInterval(int publishInterval) {
+      if (publishInterval < 1) {
+         throw new IllegalArgumentException("The publish interval must be positive.");
+      }
+
+      this.publishInterval = publishInterval;
+   }
+
+   /**
+    * @inheritDoc
+    * WEKA updates a classifier in place, so updates go into a private working copy of the
+    *  trained classifier, and classification keeps using the published one.
+    * The working copy is made once (on the first update after a train() or publish()),
+    *  so each update only costs WEKA's updateClassifier().
+    * The attributes are frozen at training time, so features that were not seen in training
+    *  are ignored.
+    *
+    * @throws UnsupportedOperationException If the WEKA classifier is not updateable.
+    * @throws IllegalStateException If the classifier has not been trained yet,
+    *  or WEKA fails to copy or update it.
+    * @throws IllegalArgumentException If |classValue| is not one of the possible classes.
+    */
+   @Override
+   public synchronized void update(E document, String classValue) {
+      Snapshot current = checkUpdateable();
+      double classIndex = classIndex(current, classValue);
+
+      applyUpdate(current, fsg.parseFeatures(document), classIndex);
    }
 
+   /**
+    * @inheritDoc
+    * See update(E, String).
+    * Every class is checked before any document goes into the model.
+    */
+   @Override
+   public synchronized void update(List<E> documents, List<String> classes) {
+      Snapshot current = checkUpdateable();
+
+      double[] classIndexes = new double[classes.size()];
+      for (int ndx = 0; ndx < classes.size(); ndx++) {
+         classIndexes[ndx] = classIndex(current, classes.get(ndx));
+      }
+
+      List<Set<String>> featureSets = fsg.parseFeatures(documents);
+      for (int ndx = 0; ndx < featureSets.size(); ndx++) {
+         applyUpdate(current, featureSets.get(ndx), classIndexes[ndx]);
+      }
+   }
+
+   private static double classIndex(Snapshot current, String classValue) {
+      int classIndex = current.header.classAttribute().indexOfValue(classValue);
+      if (classIndex < 0) {
+         throw new IllegalArgumentException("Unknown class: " + classValue);
+      }
+
+      return classIndex;
+   }
+
+   /**
+    * @inheritDoc
+    * Copies the working classifier into a new snapshot.
+    * This is O(model), WEKA copies classifiers by serializing them.
+    *
+    * @throws IllegalStateException If WEKA fails to copy the classifier.
+    */
+   @Override
+   public synchronized void publish() {
+      if (working == null || unpublished == 0) {
+         return;
+      }
+
+      Snapshot current = snapshot;
+      snapshot = newSnapshot(copy(working), current.dictionary, current.header);
+      modelVersion++;
+      unpublished = 0;
+   }
+
+   /**
+    * Set the most copies of the trained classifier that each model keeps for classification,
+    *  when the classifier is not thread-safe. The default is one per core.
+    * This takes effect with the next train() or publish().
+    */
+   public synchronized void setMaxCopies(int maxCopies) {
+      if (maxCopies < 1) {
+         throw new IllegalArgumentException("Need at least one copy.");
+      }
+
+      this.maxCopies = maxCopies;
+   }
+
+   /**
+    * Check if a trained WEKA classifier can classify from many threads at once.
+    * Only exact classes whose classification just reads the model are trusted,
+    *  since a subclass can add per-query state.
+    * NaiveBayes runs every instance through a filter when it uses supervised discretization.
+    * Override this to trust other classifiers.
+    */
+   protected boolean isThreadSafe(Classifier classifier) {
+      if (classifier.getClass() == NaiveBayes.class ||
+          classifier.getClass() == NaiveBayesUpdateable.class) {
+         return !((NaiveBayes)classifier).getUseSupervisedDiscretization();
+      }
+
+      return false;
+   }
+
+   private Snapshot newSnapshot(Classifier classifier, FeatureDictionary dictionary,
+                                Instances header) {
+      return new Snapshot(classifier, dictionary, header,
+                          isThreadSafe(classifier) ? 0 : maxCopies);
+   }
+
+   /**
+    * @return The current snapshot, the one updates apply on top of.
+    */
+   private Snapshot checkUpdateable() {
+      if (!isUpdateable()) {
+         throw new UnsupportedOperationException(
+               untrainedClassifier.getClass().getName() + " is not an UpdateableClassifier.");
+      }
+
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("Train the classifier before updating it.");
+      }
+
+      return current;
+   }
+
+   /**
+    * Update the working copy with one document, and publish if the interval is up.
+    * Must hold the lock.
+    */
+   private void applyUpdate(Snapshot current, Set<String> features, double classIndex) {
+      if (working == null) {
+         working = copy(current.classifier);
+      }
+
+      try {
+         ((UpdateableClassifier)working).updateClassifier(
+               vectorize(current.dictionary, features, classIndex, current.header));
+      } catch (Exception ex) {
+         throw new IllegalStateException("Unable to update the classifier.", ex);
+      }
+
+      unpublished++;
+      if (unpublished >= publishInterval) {
+         publish();
+      }
+   }
+
+   private static Classifier copy(Classifier classifier) {
+      try {
+         return AbstractClassifier.makeCopy(classifier);
+      } catch (Exception ex) {
+         throw new IllegalStateException("Unable to make a classifier copy.", ex);
+      }
+   }
+
+   /**
+    * @override
+    * A dedicated path for a single document.
+    * It goes straight from the document's features to an instance against the header
+    *  built during training, without any of the list handling of the batch path.
+    */
    @Override
    public ClassificationResult classify(E document) {
-      List<E> documents = new ArrayList<E>(1);
-      documents.add(document);
+      return classifyFeatures(fsg.parseFeatures(document));
+   }
+
+   /**
+    * @inheritDoc
+    */
+   public ClassificationResult classifyFeatures(Set<String> features) {
+      Snapshot model = snapshot;
+      assert(model != null);
+
+      Instance instance = vectorize(model.dictionary, features, Utils.missingValue(),
+                                    model.header);
 
-      List<ClassificationResult> classes = classifyImpl(documents);
-      return classes.get(0);
+      Classifier classifier = model.borrow();
+      try {
+         return classifyInstance(classifier, instance);
+      } finally {
+         model.giveBack(classifier);
+      }
    }
 
    /**
@@ -93,39 +395,86 @@ public class GeneralWekaClassifier<E extends Document> extends CPCPClassifier<E>
     * Instead of overriding both classify() methods, this can be overriden.
     */
    protected List<ClassificationResult> classifyImpl(List<E> documents) {
-      assert(activeClassifier != null);
+      // All the documents see the same model, even if a retrain finishes partway through.
+      Snapshot model = snapshot;
+      assert(model != null);
 
-      Instances unclassed = prepUnclassed(documents);
-
-      List<ClassificationResult> rtn = new ArrayList<ClassificationResult>();
+      List<ClassificationResult> rtn = new ArrayList<ClassificationResult>(documents.size());
+      List<Set<String>> featureSets = fsg.parseFeatures(documents);
 
-      for (int ndx = 0; ndx < unclassed.numInstances(); ndx++) {
-         rtn.add(classifyInstance(unclassed.instance(ndx)));
+      // One classifier for the whole batch.
+      Classifier classifier = model.borrow();
+      try {
+         for (Set<String> features : featureSets) {
+            rtn.add(classifyInstance(classifier, vectorize(model.dictionary, features,
+                                                           Utils.missingValue(), model.header)));
+         }
+      } finally {
+         model.giveBack(classifier);
       }
 
       return rtn;
    }
 
    /**
-    * First try to get the class distribution, if it fails just try to do normal classification.
+    * @inheritDoc
+    * Parses the whole batch at once and classifies it against a single model.
     */
-   private ClassificationResult classifyInstance(Instance instance) {
+   @Override
+   public void classifyDistributions(List<E> documents,
+                                     double[] distributions, int[] classIndexes) {
+      Snapshot model = snapshot;
+      assert(model != null);
+
+      int numClasses = possibleClasses.size();
+      List<Set<String>> featureSets = fsg.parseFeatures(documents);
+
+      Classifier classifier = model.borrow();
       try {
-         double[] classDistribution = activeClassifier.distributionForInstance(instance);
-
-         double maxValue = -1;
-         int maxIndex = 0;
-         for (int i = 0; i < classDistribution.length; i++) {
-            if (classDistribution[i] > maxValue) {
-               maxValue = classDistribution[i];
-               maxIndex = i;
-            }
+         for (int ndx = 0; ndx < featureSets.size(); ndx++) {
+            Instance instance = vectorize(model.dictionary, featureSets.get(ndx),
+                                          Utils.missingValue(), model.header);
+            classIndexes[ndx] = distributionForInstance(classifier, instance,
+                                                        distributions, ndx * numClasses);
          }
+      } finally {
+         model.giveBack(classifier);
+      }
+   }
+
+   /**
+    * @inheritDoc
+    */
+   @Override
+   protected int classifyDistributionImpl(E document, double[] distribution, int offset) {
+      Snapshot model = snapshot;
+      assert(model != null);
+
+      Instance instance = vectorize(model.dictionary, fsg.parseFeatures(document),
+                                    Utils.missingValue(), model.header);
+
+      Classifier classifier = model.borrow();
+      try {
+         return distributionForInstance(classifier, instance, distribution, offset);
+      } finally {
+         model.giveBack(classifier);
+      }
+   }
+
+   /**
+    * First try to get the class distribution, if it fails just try to do normal classification.
+    * The distribution that WEKA allocates is kept in the result instead of being thrown away.
+    */
+   private ClassificationResult classifyInstance(Classifier classifier, Instance instance) {
+      try {
+         double[] classDistribution = classifier.distributionForInstance(instance);
+         int maxIndex = maxIndex(classDistribution, 0, classDistribution.length);
 
-         return new ClassificationResult(instance.classAttribute().value(maxIndex), maxValue);
+         return new ClassificationResult(instance.classAttribute().value(maxIndex),
+                                         maxIndex, classDistribution);
       } catch (Exception distributionEx) {
          try {
-            int prediction = (int)activeClassifier.classifyInstance(instance);
+            int prediction = (int)classifier.classifyInstance(instance);
             return new ClassificationResult(instance.classAttribute().value(prediction), -1);
          } catch (Exception ex) {
             return new ClassificationResult(null, -1);
@@ -134,147 +483,303 @@ public class GeneralWekaClassifier<E extends Document> extends CPCPClassifier<E>
    }
 
    /**
-    * Jump through all the WEKA hoops to get the training set ready.
+    * Same as classifyInstance(), but into a caller supplied buffer.
+    * If the classifier can't give a distribution, all the probability goes on its prediction.
+    *
+    * @return The index of the chosen class, or -1 if classification failed.
     */
-   private Instances prepTrainingSet(List<E> documents, List<String> classes) {
-      ArrayList<Attribute> features = getWekaFeatures();
+   private int distributionForInstance(Classifier classifier, Instance instance,
+                                       double[] distribution, int offset) {
+      int numClasses = possibleClasses.size();
 
-      Instances trainSet = new Instances("ClassTrainingSet", features, classes.size());
-      trainSet.setClassIndex(0);
+      try {
+         double[] classDistribution = classifier.distributionForInstance(instance);
+         System.arraycopy(classDistribution, 0, distribution, offset, numClasses);
 
-      List<String> newDocuments = new ArrayList<String>();
-      List<Set<String>> featureSets = fsg.parseFeatures(documents);
-      for (Set<String> documentFeatures : featureSets) {
-         newDocuments.add(StringUtils.join(documentFeatures, " "));
+         return maxIndex(distribution, offset, numClasses);
+      } catch (Exception distributionEx) {
+         Arrays.fill(distribution, offset, offset + numClasses, 0);
+
+         try {
+            int prediction = (int)classifier.classifyInstance(instance);
+            distribution[offset + prediction] = 1;
+
+            return prediction;
+         } catch (Exception ex) {
+            return -1;
+         }
       }
+   }
 
-      // Add the classes to the training set.
-      for (int ndx = 0; ndx < classes.size(); ndx++) {
-         Instance inst = new DenseInstance(2);
-         inst.setValue(features.get(0), classes.get(ndx).toString());
-         inst.setValue(features.get(1), newDocuments.get(ndx));
+   private static int maxIndex(double[] values, int offset, int length) {
+      int maxIndex = 0;
+      for (int i = 1; i < length; i++) {
+         if (values[offset + i] > values[offset + maxIndex]) {
+            maxIndex = i;
+         }
+      }
+
+      return maxIndex;
+   }
 
-         trainSet.add(inst);
+   /**
+    * @inheritDoc
+    * The WEKA classifiers are saved with Java serialization, which is how WEKA saves models.
+    * Only the published model is saved, publish() first to include every update.
+    */
+   public void writeModel(ObjectOutputStream out) throws IOException {
+      Snapshot current = snapshot;
+      if (current == null) {
+         throw new IllegalStateException("Cannot save an untrained classifier.");
       }
 
-      stringFilter = makeStringToWordVectorFilter(trainSet);
+      out.writeObject(untrainedClassifier);
+      out.writeObject(current.classifier);
+      ModelIO.writeDictionary(out, current.dictionary);
+   }
+
+   /**
+    * Read a model written by writeModel().
+    * This is meant to be called by ModelIO.
+    * The header is rebuilt from the dictionary, which is cheap compared to training.
+    */
+   public static <E extends Document> GeneralWekaClassifier<E> readModel(
+         ObjectInputStream in,
+         FeatureSetGenerator<E> fsg,
+         List<String> possibleClasses) throws IOException {
+      Classifier untrained = ModelIO.readObject(in, Classifier.class);
+      Classifier trained = ModelIO.readObject(in, Classifier.class);
+      FeatureDictionary dictionary = ModelIO.readDictionary(in);
+
+      GeneralWekaClassifier<E> classifier =
+            new GeneralWekaClassifier<E>(untrained, fsg, possibleClasses);
+
+      Instances header = new Instances("ClassTrainingSet",
+                                       classifier.getWekaFeatures(dictionary), 0);
+      header.setClassIndex(0);
+
+      classifier.snapshot = classifier.newSnapshot(trained, dictionary, header);
+
+      return classifier;
+   }
 
+   /**
+    * Vectorize the training set against a freshly frozen feature space.
+    * Every feature that appears in the training set gets a numeric attribute.
+    */
+   private Instances prepTrainingSet(FeatureDictionary dictionary,
+                                     List<Set<String>> featureSets,
+                                     List<String> classes) {
+      Profiler.Scope scope = Profiler.enter(Profiler.Phase.VECTORIZE);
       try {
-         trainSet = weka.filters.Filter.useFilter(trainSet, stringFilter);
+         Instances trainSet = new Instances("ClassTrainingSet",
+                                            getWekaFeatures(dictionary),
+                                            classes.size());
          trainSet.setClassIndex(0);
-      } catch (Exception ex) {
-         return null;
-      }
 
-      return trainSet;
+         for (int ndx = 0; ndx < classes.size(); ndx++) {
+            double classValue = trainSet.classAttribute().indexOfValue(classes.get(ndx));
+            trainSet.add(vectorize(dictionary, featureSets.get(ndx), classValue, trainSet));
+         }
+
+         return trainSet;
+      } finally {
+         scope.close();
+      }
    }
 
    /**
-    * Make a copy of the untrained classifier, train it, and make it the active classifier.
+    * Make a copy of the untrained classifier and train it.
+    *
+    * @return The trained classifier, or null if it could not be trained.
     */
-   private void buildClassifier(Instances trainSet) {
-      // Note(eriq): I hope WEKA does not leak this.
-      activeClassifier = null;
+   private Classifier buildClassifier(Instances trainSet) {
+      Classifier classifier = null;
 
       try {
-         activeClassifier = AbstractClassifier.makeCopy(untrainedClassifier);
+         classifier = AbstractClassifier.makeCopy(untrainedClassifier);
       } catch (Exception ex) {
          // TODO(eriq): Real logging, fatal.
          System.err.println("Unable to make a classifier copy." + ex);
+         return null;
       }
 
       // Train the classifier
       try {
-         activeClassifier.buildClassifier(trainSet);
+         classifier.buildClassifier(trainSet);
       } catch (Exception ex) {
          // TODO(eriq): Real logging, fatal.
          System.err.println("Unable to train classifier." + ex);
+         return null;
       }
+
+      return classifier;
    }
 
    /**
-    * Create a StringToWordVector filter.
-    * If there is a problem creating the filter, a fatal error will be logged and
-    *  the program terminated.
-    *
-    * @param inputFormat The training set to use as the input format to the filter.
+    * Get the attributes for a frozen feature space.
+    * The class is always attribute 0, and feature id i is attribute i + 1.
+    * WEKA rejects duplicate attribute names, so feature attributes are named with a prefix
+    *  that the class attribute does not have.
     *
-    * @return A filter to use for classification.
+    * @return The attributes to use for the training set.
     */
-   private StringToWordVector makeStringToWordVectorFilter(Instances inputFormat) {
-      StringToWordVector newFilter = null;
+   private ArrayList<Attribute> getWekaFeatures(FeatureDictionary dictionary) {
+      ArrayList<Attribute> features = new ArrayList<Attribute>(dictionary.size() + 1);
+      features.add(new Attribute(CLASS_ATTRIBUTE, possibleClasses));
 
-      //Create the filter to use.
-      try {
-         //The options for the filter.
-         // "-L" - Convert words to lovercase.
-         String[] options = {"-L", "-O", "-R", "2"};
-         newFilter = new StringToWordVector();
-
-         newFilter.setInputFormat(inputFormat);
-         newFilter.setOptions(options);
-      } catch (Exception ex) {
-         return null;
+      for (int id = 0; id < dictionary.size(); id++) {
+         features.add(new Attribute(FEATURE_PREFIX + dictionary.feature(id)));
       }
 
-      return newFilter;
+      return features;
    }
 
    /**
-    * Get the features for the trainning set Instances.
+    * Turn a document's features straight into a SparseInstance.
+    * Since features are a set, each present feature gets a value of 1.
+    * Features that are not in the frozen dictionary are dropped.
     *
-    * @return The features to use for the training set.
+    * @param classValue The index of the class value, or Utils.missingValue() if unknown.
     */
-   private ArrayList<Attribute> getWekaFeatures() {
-      // WEKA needs a null ref to list to have a text (String) attirbute.
-      ArrayList<String> nullList = null;
-
-      Attribute classAttr = new Attribute("document_class", possibleClasses);
+   private Instance vectorize(FeatureDictionary dictionary, Set<String> features,
+                              double classValue, Instances dataset) {
+      VectorBuffer buffer = vectorBuffer.get();
+      buffer.ensureCapacity(features.size());
+
+      int count = dictionary.indexFeatures(features, buffer.ids);
+
+      buffer.indices[0] = 0;
+      buffer.values[0] = classValue;
+      for (int i = 0; i < count; i++) {
+         buffer.indices[i + 1] = buffer.ids[i] + 1;
+         buffer.values[i + 1] = 1;
+      }
 
-      // TEXT attribute
-      Attribute textAttr = new Attribute("text", nullList);
+      // Clear out anything left over from a longer document.
+      for (int i = count + 1; i < buffer.used; i++) {
+         buffer.indices[i] = 0;
+         buffer.values[i] = 0;
+      }
+      buffer.used = count + 1;
 
-      // Features
-      ArrayList<Attribute> features = new ArrayList<Attribute>();
-      features.add(classAttr);
-      features.add(textAttr);
+      // SparseInstance copies the values it is given and drops zeros,
+      //  so the buffer can be reused and its zeroed tail never makes it into the instance.
+      Instance inst = new SparseInstance(1, buffer.values, buffer.indices,
+                                         dictionary.size() + 1);
+      inst.setDataset(dataset);
 
-      return features;
+      return inst;
    }
 
    /**
-    * Prepare a list of documents for classification.
-    * Prep work includes getting the features for the classifier,
-    *  setting the class index, filtering the document,
-    *  loading the documents into Instances and
-    *  filtering the instances.
+    * Everything that training produces.
+    * Never modified after construction.
     */
-   private Instances prepUnclassed(List<E> documents) {
-      ArrayList<Attribute> newFeatures = getWekaFeatures();
+   private static class Snapshot {
+      /**
+       * The trained classifier.
+       * It is classified with directly only if it is shared, otherwise it is only copied.
+       */
+      public final Classifier classifier;
+
+      /**
+       * The features seen during training, frozen into attribute indexes.
+       */
+      public final FeatureDictionary dictionary;
+
+      /**
+       * An empty dataset with the attributes from training.
+       */
+      public final Instances header;
+
+      /**
+       * The most copies of |classifier| to lend out, 0 to share |classifier| itself.
+       */
+      private final int maxCopies;
+
+      /**
+       * The copies that are not lent out right now.
+       */
+      private final BlockingQueue<Classifier> idleCopies;
+
+      private final AtomicInteger numCopies;
+
+      public Snapshot(Classifier classifier, FeatureDictionary dictionary, Instances header,
+                      int maxCopies) {
+         this.classifier = classifier;
+         this.dictionary = dictionary;
+         this.header = header;
+         this.maxCopies = maxCopies;
+
+         idleCopies = (maxCopies == 0) ? null : new ArrayBlockingQueue<Classifier>(maxCopies);
+         numCopies = new AtomicInteger();
+      }
 
-      Instances unclassed = new Instances("UnclassifiedTweets", newFeatures, documents.size());
-      unclassed.setClassIndex(0);
+      /**
+       * Get a classifier to classify with, and give it back with giveBack() when done.
+       * Waits for a copy if all |maxCopies| of them are lent out.
+       *
+       * @throws IllegalStateException If copying fails or the thread is interrupted.
+       */
+      public Classifier borrow() {
+         if (maxCopies == 0) {
+            return classifier;
+         }
 
-      List<Set<String>> featureSets = fsg.parseFeatures(documents);
-      List<String> newDocuments = new ArrayList<String>();
-      for (Set<String> features : featureSets) {
-         newDocuments.add(StringUtils.join(features, " "));
-      }
+         Classifier rtn = idleCopies.poll();
+         if (rtn != null) {
+            return rtn;
+         }
 
-      for (String stringDocument : newDocuments) {
-         Instance inst = new DenseInstance(2);
-         inst.setValue(newFeatures.get(1), stringDocument);
+         if (numCopies.incrementAndGet() <= maxCopies) {
+            try {
+               return AbstractClassifier.makeCopy(classifier);
+            } catch (Exception ex) {
+               numCopies.decrementAndGet();
+               throw new IllegalStateException("Unable to copy the trained classifier.", ex);
+            }
+         }
+         numCopies.decrementAndGet();
 
-         unclassed.add(inst);
+         try {
+            return idleCopies.take();
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a classifier.", ex);
+         }
       }
 
-      // Filter the instance
-      try {
-         unclassed = weka.filters.Filter.useFilter(unclassed, stringFilter);
-      } catch (Exception ex) {
-         return null;
+      public void giveBack(Classifier borrowed) {
+         if (maxCopies != 0) {
+            idleCopies.offer(borrowed);
+         }
       }
+   }
 
-      return unclassed;
+   /**
+    * Per-thread scratch space for vectorizing documents.
+    */
+   private static class VectorBuffer {
+      public int[] ids = new int[0];
+      public int[] indices = new int[1];
+      public double[] values = new double[1];
+
+      /**
+       * The number of leading entries in |indices| and |values| that may be non-zero.
+       */
+      public int used = 0;
+
+      public void ensureCapacity(int numFeatures) {
+         if (ids.length >= numFeatures) {
+            return;
+         }
+
+         int capacity = Math.max(numFeatures, ids.length * 2);
+         ids = new int[capacity];
+         indices = new int[capacity + 1];
+         values = new double[capacity + 1];
+         used = 0;
+      }
    }
 }